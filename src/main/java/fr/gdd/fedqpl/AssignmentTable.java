@@ -0,0 +1,137 @@
+package fr.gdd.fedqpl;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+
+import java.util.*;
+
+/**
+ * Source assignments held in memory as a table: one int column per graph
+ * variable, one row per assignment, and cells that are endpoint identifiers,
+ * or {@link #UNBOUND} when the assignment does not bind the variable.
+ * Each column is indexed by a bitset of rows per endpoint, so the rows matching
+ * a set of (variable, endpoint) constraints are the intersection of a few bitsets.
+ */
+public class AssignmentTable {
+
+    public static final int UNBOUND = -1;
+
+    final List<Var> vars = new ArrayList<>();
+    final Map<Var, Integer> var2column = new HashMap<>();
+    final List<Node> endpoints = new ArrayList<>();
+    final Map<Node, Integer> endpoint2id = new HashMap<>();
+
+    final int[][] columns; // by column, then by row
+    final BitSet[][] index; // by column, then by endpoint id
+    final BitSet[] bound; // by column
+    final int nbRows;
+
+    /**
+     * @param assignments The source assignments, each being a mapping from
+     *                    graph variables to endpoints.
+     */
+    public AssignmentTable(List<Map<Var, String>> assignments) {
+        for (Map<Var, String> assignment : assignments) {
+            for (Map.Entry<Var, String> var2endpoint : assignment.entrySet()) {
+                var2column.computeIfAbsent(var2endpoint.getKey(), v -> {
+                    vars.add(v);
+                    return vars.size() - 1;
+                });
+                endpoint2id.computeIfAbsent(NodeFactory.createURI(var2endpoint.getValue()), e -> {
+                    endpoints.add(e);
+                    return endpoints.size() - 1;
+                });
+            }
+        }
+
+        this.nbRows = assignments.size();
+        this.columns = new int[vars.size()][nbRows];
+        this.index = new BitSet[vars.size()][endpoints.size()];
+        this.bound = new BitSet[vars.size()];
+        for (int column = 0; column < vars.size(); ++column) {
+            Arrays.fill(columns[column], UNBOUND);
+            bound[column] = new BitSet(nbRows);
+            for (int endpoint = 0; endpoint < endpoints.size(); ++endpoint) {
+                index[column][endpoint] = new BitSet(nbRows);
+            }
+        }
+
+        for (int row = 0; row < nbRows; ++row) {
+            for (Map.Entry<Var, String> var2endpoint : assignments.get(row).entrySet()) {
+                int column = var2column.get(var2endpoint.getKey());
+                int endpoint = endpoint2id.get(NodeFactory.createURI(var2endpoint.getValue()));
+                columns[column][row] = endpoint;
+                index[column][endpoint].set(row);
+                bound[column].set(row);
+            }
+        }
+    }
+
+    public int nbRows() { return nbRows; }
+
+    public List<Var> getVars() { return vars; }
+
+    public List<Node> getEndpoints() { return endpoints; }
+
+    /**
+     * @return A new set comprising every row of the table.
+     */
+    public BitSet all() {
+        BitSet rows = new BitSet(nbRows);
+        rows.set(0, nbRows);
+        return rows;
+    }
+
+    /**
+     * @return A new set of the rows that bind the variable, whatever the endpoint.
+     */
+    public BitSet rows(Var g) {
+        Integer column = var2column.get(g);
+        return Objects.isNull(column) ? new BitSet() : (BitSet) bound[column].clone();
+    }
+
+    /**
+     * @return A new set of the rows that assign the endpoint to the variable.
+     */
+    public BitSet rows(Var g, Node endpoint) {
+        Integer column = var2column.get(g);
+        Integer id = endpoint2id.get(endpoint);
+        return Objects.isNull(column) || Objects.isNull(id) ? new BitSet() : (BitSet) index[column][id].clone();
+    }
+
+    /**
+     * @param constraints The endpoint that each variable must be assigned to.
+     * @return A new set of the rows that satisfy all constraints at once.
+     */
+    public BitSet rows(Map<Var, Node> constraints) {
+        BitSet rows = all();
+        for (Map.Entry<Var, Node> constraint : constraints.entrySet()) {
+            if (rows.isEmpty()) { break; }
+            rows.and(rows(constraint.getKey(), constraint.getValue()));
+        }
+        return rows;
+    }
+
+    /**
+     * @param gs The graph variables to keep.
+     * @param rows The rows to read.
+     * @return The distinct mappings of the variables to endpoints over the rows,
+     * in order of first appearance. Unbound variables are absent from mappings.
+     */
+    public List<Map<Var, Node>> project(Collection<Var> gs, BitSet rows) {
+        Set<Map<Var, Node>> results = new LinkedHashSet<>();
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            Map<Var, Node> mapping = new HashMap<>();
+            for (Var g : gs) {
+                Integer column = var2column.get(g);
+                if (Objects.nonNull(column) && columns[column][row] != UNBOUND) {
+                    mapping.put(g, endpoints.get(columns[column][row]));
+                }
+            }
+            results.add(mapping);
+        }
+        return new ArrayList<>(results);
+    }
+
+}
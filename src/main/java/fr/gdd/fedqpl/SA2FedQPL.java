@@ -6,22 +6,17 @@ import fr.gdd.fedqpl.visitors.OpCloningUtil;
 import fr.gdd.fedqpl.visitors.ReturningOpVisitor;
 import fr.gdd.fedqpl.visitors.ReturningOpVisitorRouter;
 import fr.gdd.fedup.transforms.ToQuadsTransform;
-import org.apache.commons.collections4.MultiSet;
-import org.apache.commons.collections4.multiset.HashMultiSet;
-import org.apache.jena.query.Dataset;
-import org.apache.jena.query.ReadWrite;
+import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.op.*;
 import org.apache.jena.sparql.core.Var;
-import org.apache.jena.sparql.engine.Plan;
-import org.apache.jena.sparql.engine.QueryIterator;
-import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.engine.binding.BindingRoot;
-import org.apache.jena.sparql.engine.main.QueryEngineMain;
 import org.apache.jena.sparql.engine.main.VarFinder;
 import org.apache.jena.sparql.expr.ExprList;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 /**
  * A source assignments is a list of sources that are expected to provide
@@ -33,9 +28,18 @@ import java.util.*;
  */
 public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
 
-    public static Op build(Op query, ToQuadsTransform tqt, Dataset assignmentsDataset){
-        SA2FedQPL builder = new SA2FedQPL(tqt, assignmentsDataset);
-        List<Op> subExps = ReturningOpVisitorRouter.visit(builder, query);
+    public static Op build(Op query, ToQuadsTransform tqt, AssignmentTable assignments){
+        return build(query, tqt, assignments, true);
+    }
+
+    /**
+     * @param parallel True to build independent subtrees on the fork-join pool.
+     */
+    public static Op build(Op query, ToQuadsTransform tqt, AssignmentTable assignments, boolean parallel){
+        SA2FedQPL builder = new SA2FedQPL(tqt, assignments, parallel);
+        List<Op> subExps = parallel ?
+                ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ReturningOpVisitorRouter.visit(builder, query))) :
+                ReturningOpVisitorRouter.visit(builder, query);
         Mu rootUnion = new Mu(subExps.stream().toList());
 
         if (Objects.isNull(builder.topMostProjection)) {
@@ -48,22 +52,29 @@ public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
     /* *************************************************************** */
 
     ToQuadsTransform toQuads;
-    Dataset assignmentsDataset;
+    AssignmentTable assignments;
 
-    OpProject topMostProjection = null;
+    volatile OpProject topMostProjection = null; // only its nullity matters, any projection will do
+    Map<Op, BitSet> op2rows = Collections.synchronizedMap(new IdentityHashMap<>()); // sub-plans are checked against many others
+    Map<OpTriple, Var> triple2g = Collections.synchronizedMap(new IdentityHashMap<>()); // triples created while building
 
     public static boolean SILENT = true;
+    final boolean parallel; // independent subtrees are built on the fork-join pool
+
+    public SA2FedQPL(ToQuadsTransform tqt, AssignmentTable assignments) {
+        this(tqt, assignments, true);
+    }
 
-    public SA2FedQPL(ToQuadsTransform tqt, Dataset assignmentsDataset) {
-        this.assignmentsDataset = assignmentsDataset;
+    public SA2FedQPL(ToQuadsTransform tqt, AssignmentTable assignments, boolean parallel) {
+        this.assignments = assignments;
         this.toQuads = tqt;
+        this.parallel = parallel;
     }
 
     @Override
     public List<Op> visit(OpTriple opTriple) {
-        Var g = toQuads.findVar(opTriple);
-        MultiSet<Binding> bindings = this.sols(opTriple);
-        return bindings.stream().map(b ->
+        Var g = findVar(opTriple);
+        return this.sols(opTriple).stream().map(b ->
                 (Op) new OpService(b.get(g), opTriple, SILENT)
         ).toList();
     }
@@ -75,15 +86,13 @@ public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
         // be very inefficient.
         // Instead, checking directly which results exist
         Set<Var> gs = toQuads.findVars(opBGP);
-        MultiSet<Binding> bindings = this.sols(opBGP);
-
-        return bindings.stream().map(b -> {
+        return this.sols(opBGP).stream().map(b -> {
             Mj mj = new Mj();
             for (Var g : gs) {
                 OpTriple triple = new OpTriple(toQuads.getVar2quad().get(g).asTriple());
                 Op req = new OpService(b.get(g), triple, SILENT);
                 mj.addChild(req);
-                toQuads.add(g, triple);
+                triple2g.put(triple, g); // `toQuads` stays read-only, thus shared by threads
             }
             return (Op) mj;
         }).toList();
@@ -94,10 +103,9 @@ public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
         // nothing to register in `fedQPL2PartialAssignment`
         // since everything is already set on visit of left and right
         List<Op> results = new ArrayList<>();
-        List<Op> lefts = ReturningOpVisitorRouter.visit(this, union.getLeft());
-        List<Op> rights = ReturningOpVisitorRouter.visit(this, union.getRight());
-        results.addAll(lefts);
-        results.addAll(rights);
+        List<List<Op>> leftsAndRights = visitBoth(union.getLeft(), union.getRight());
+        results.addAll(leftsAndRights.get(0));
+        results.addAll(leftsAndRights.get(1));
         return results;
     }
 
@@ -106,14 +114,15 @@ public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
         List<Op> results = new ArrayList<>();
 
         // we want to examine each possibility once
-        List<Op> lefts = new HashSet<>(ReturningOpVisitorRouter.visit(this, join.getLeft())).stream().toList();
-        List<Op> rights = new HashSet<>(ReturningOpVisitorRouter.visit(this, join.getRight())).stream().toList();
-
-        for (Op left : lefts) { // for each mandatory part
-            for (Op right : rights) {
-                if (this.ask(OpJoin.create(left, right))) {
-                    results.add(new Mj(List.of(left, right)));
-                }
+        List<List<Op>> leftsAndRights = visitBoth(join.getLeft(), join.getRight());
+        List<Op> lefts = new HashSet<>(leftsAndRights.get(0)).stream().toList();
+        List<Op> rights = new HashSet<>(leftsAndRights.get(1)).stream().toList();
+
+        List<BitSet> compatibles = this.compatibles(lefts, rights);
+        for (int i = 0; i < lefts.size(); ++i) { // for each mandatory part
+            BitSet compatible = compatibles.get(i);
+            for (int j = compatible.nextSetBit(0); j >= 0; j = compatible.nextSetBit(j + 1)) {
+                results.add(new Mj(List.of(lefts.get(i), rights.get(j))));
             }
         }
 
@@ -125,16 +134,18 @@ public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
         List<Op> results = new ArrayList<>();
 
         // we want to examine each possibility once
-        List<Op> lefts = new HashSet<>(ReturningOpVisitorRouter.visit(this, lj.getLeft())).stream().toList();
-        List<Op> rights = new HashSet<>(ReturningOpVisitorRouter.visit(this, lj.getRight())).stream().toList();
+        List<List<Op>> leftsAndRights = visitBoth(lj.getLeft(), lj.getRight());
+        List<Op> lefts = new HashSet<>(leftsAndRights.get(0)).stream().toList();
+        List<Op> rights = new HashSet<>(leftsAndRights.get(1)).stream().toList();
 
-        for (Op left : lefts) { // for each mandatory part
+        List<BitSet> compatibles = this.compatibles(lefts, rights);
+        for (int i = 0; i < lefts.size(); ++i) { // for each mandatory part
+            Op left = lefts.get(i);
             Mu mu = new Mu();
 
-            for (Op right : rights) {
-                if (this.ask(OpJoin.create(left, right))) {
-                    mu.addChild(right);
-                }
+            BitSet compatible = compatibles.get(i);
+            for (int j = compatible.nextSetBit(0); j >= 0; j = compatible.nextSetBit(j + 1)) {
+                mu.addChild(rights.get(j));
             }
 
             if (mu.getElements().isEmpty()) {
@@ -184,8 +195,10 @@ public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
 
         if (!(distinct.getSubOp() instanceof OpProject)) {
             // if there is no project below distinct, we add it.
-            this.topMostProjection = createOpProjectWithAllVariables(distinct.getSubOp());
-            below = OpCloningUtil.clone(this.topMostProjection, below);
+            // local, since sibling subqueries may be built concurrently
+            OpProject project = createOpProjectWithAllVariables(distinct.getSubOp());
+            if (Objects.isNull(this.topMostProjection)) {this.topMostProjection = project;}
+            below = OpCloningUtil.clone(project, below);
         }
 
         return List.of(OpCloningUtil.clone(distinct, below));
@@ -199,54 +212,126 @@ public class SA2FedQPL extends ReturningOpVisitor<List<Op>> {
 
     /* *************************************************************** */
 
-    public MultiSet<Binding> sols(Op op) {
-        MultiSet<Binding> bindings = new HashMultiSet<>();
-        boolean inTxn = this.assignmentsDataset.isInTransaction();
-        if (!inTxn) this.assignmentsDataset.begin(ReadWrite.READ);
-
-        Op checking = ReturningOpVisitorRouter.visit(new Op2SAChecker(this.toQuads), op);
-
-        Plan plan = QueryEngineMain.getFactory().create(checking,
-                assignmentsDataset.asDatasetGraph(),
-                BindingRoot.create(),
-                assignmentsDataset.getContext().copy());
+    /**
+     * Visits both subtrees, the right one being forked when building in parallel,
+     * since they do not depend on each other once the assignments exist.
+     * @return The sub-plans of the left subtree, then those of the right subtree.
+     */
+    List<List<Op>> visitBoth(Op left, Op right) {
+        if (!parallel) {
+            return List.of(ReturningOpVisitorRouter.visit(this, left), ReturningOpVisitorRouter.visit(this, right));
+        }
+        ForkJoinTask<List<Op>> rights = ForkJoinTask.adapt(() -> ReturningOpVisitorRouter.visit(this, right)).fork();
+        List<Op> lefts = ReturningOpVisitorRouter.visit(this, left);
+        return List.of(lefts, rights.join());
+    }
 
-        QueryIterator iterator = plan.iterator();
+    Var findVar(OpTriple triple) {
+        Var g = triple2g.get(triple);
+        return Objects.isNull(g) ? toQuads.findVar(triple) : g;
+    }
 
-        while (iterator.hasNext()) {
-            bindings.add(iterator.next());
-        }
+    /**
+     * @param op A triple pattern or a basic graph pattern of the original query.
+     * @return The distinct endpoints assigned to its graph variables by the rows
+     * that bind them all.
+     */
+    public List<Map<Var, Node>> sols(Op op) {
+        Set<Var> gs = switch (op) {
+            case OpTriple triple -> Set.of(findVar(triple));
+            case OpBGP bgp -> toQuads.findVars(bgp);
+            default -> throw new UnsupportedOperationException(op.getName());
+        };
+        return assignments.project(gs, rows(op));
+    }
 
-        if (!inTxn) {
-            this.assignmentsDataset.commit();
-            this.assignmentsDataset.end();
+    /**
+     * Instead of asking for every (left, right) pair, rows of the assignments are
+     * partitioned by the right sub-plans they support. A left sub-plan is compatible
+     * with every right sub-plan of the rows it supports, so all pairs come out of
+     * one pass over the rows of each left sub-plan.
+     * @return For each left sub-plan, the indices of compatible right sub-plans.
+     */
+    public List<BitSet> compatibles(List<Op> lefts, List<Op> rights) {
+        BitSet[] row2rights = new BitSet[assignments.nbRows()];
+        for (int j = 0; j < rights.size(); ++j) {
+            BitSet rows = rows(rights.get(j));
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (Objects.isNull(row2rights[row])) { row2rights[row] = new BitSet(rights.size()); }
+                row2rights[row].set(j);
+            }
         }
 
-        return bindings;
+        IntStream indices = IntStream.range(0, lefts.size());
+        return (parallel ? indices.parallel() : indices).mapToObj(i -> {
+            BitSet compatible = new BitSet(rights.size());
+            BitSet rows = rows(lefts.get(i));
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (Objects.nonNull(row2rights[row])) { compatible.or(row2rights[row]); }
+            }
+            return compatible;
+        }).toList();
     }
 
-
     public boolean ask(Op op) {
-        boolean inTxn = this.assignmentsDataset.isInTransaction();
-        if (!inTxn) this.assignmentsDataset.begin(ReadWrite.READ);
-
-        Op checking = ReturningOpVisitorRouter.visit(new Op2SAChecker(this.toQuads), op);
-
-        Plan plan = QueryEngineMain.getFactory().create(checking,
-                assignmentsDataset.asDatasetGraph(),
-                BindingRoot.create(),
-                assignmentsDataset.getContext().copy());
-
-        QueryIterator iterator = plan.iterator();
-
-        boolean result = iterator.hasNext();
+        return !rows(op).isEmpty();
+    }
 
-        if (!inTxn) {
-            this.assignmentsDataset.commit();
-            this.assignmentsDataset.end();
+    /**
+     * @param op A FedQPL expression, or a part of the original query.
+     * @return The rows of the source assignments that support the expression:
+     * each request to an endpoint constrains the graph variables of its
+     * triple patterns to this endpoint, and all constraints of a join must hold
+     * in a same row.
+     */
+    public BitSet rows(Op op) {
+        BitSet rows = op2rows.get(op);
+        if (Objects.isNull(rows)) { // computed out of the lock, at worst twice
+            rows = rows(op, null);
+            op2rows.put(op, rows);
         }
+        return (BitSet) rows.clone();
+    }
+
+    BitSet rows(Op op, Node endpoint) {
+        return switch (op) {
+            case OpTriple triple -> rows(findVar(triple), endpoint);
+            case OpBGP bgp -> {
+                BitSet rows = assignments.all();
+                toQuads.findVars(bgp).forEach(g -> rows.and(rows(g, endpoint)));
+                yield rows;
+            }
+            case OpService req -> rows(req.getSubOp(), req.getService());
+            case Mu mu -> {
+                BitSet rows = new BitSet();
+                mu.getElements().forEach(child -> rows.or(rows(child, endpoint)));
+                yield rows;
+            }
+            case Mj mj -> {
+                if (mj.getElements().isEmpty()) { yield new BitSet(); }
+                BitSet rows = assignments.all();
+                mj.getElements().forEach(child -> rows.and(rows(child, endpoint)));
+                yield rows;
+            }
+            case OpJoin join -> {
+                BitSet rows = rows(join.getLeft(), endpoint);
+                rows.and(rows(join.getRight(), endpoint));
+                yield rows;
+            }
+            case OpUnion union -> {
+                BitSet rows = rows(union.getLeft(), endpoint);
+                rows.or(rows(union.getRight(), endpoint));
+                yield rows;
+            }
+            case OpLeftJoin lj -> rows(lj.getLeft(), endpoint); // optional part never removes rows
+            case OpConditional cond -> rows(cond.getLeft(), endpoint);
+            case Op1 op1 -> rows(op1.getSubOp(), endpoint); // filters, projections, slices…
+            default -> throw new UnsupportedOperationException(op.getName());
+        };
+    }
 
-        return result;
+    BitSet rows(Var g, Node endpoint) {
+        return Objects.isNull(endpoint) ? assignments.rows(g) : assignments.rows(g, endpoint);
     }
 
     /* ************************************************************* */
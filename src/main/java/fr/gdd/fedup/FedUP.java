@@ -1,24 +1,27 @@
 package fr.gdd.fedup;
 
+import fr.gdd.fedqpl.AssignmentTable;
 import fr.gdd.fedqpl.FedQPL2FedX;
 import fr.gdd.fedqpl.FedQPL2SPARQL;
 import fr.gdd.fedqpl.SA2FedQPL;
 import fr.gdd.fedqpl.groups.*;
 import fr.gdd.fedqpl.visitors.ReturningOpVisitorRouter;
 import fr.gdd.fedup.adapters.TupleQueryResult2QueryIterator;
+import fr.gdd.fedup.asks.ASKCache;
+import fr.gdd.fedup.asks.EndpointGuard;
+import fr.gdd.fedup.asks.EndpointMonitor;
+import fr.gdd.fedup.collections.LongRowHashSet;
+import fr.gdd.fedup.summary.SourceSelectionEvaluator;
 import fr.gdd.fedup.summary.Summary;
 import fr.gdd.fedup.transforms.RemoveSequences;
 import fr.gdd.fedup.transforms.ToSourceSelectionTransforms;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.atlas.lib.tuple.TupleFactory;
+import org.apache.jena.graph.Node;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
 import org.apache.jena.query.QueryFactory;
-import org.apache.jena.query.ReadWrite;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.sparql.algebra.*;
 import org.apache.jena.sparql.algebra.op.OpTable;
 import org.apache.jena.sparql.algebra.optimize.TransformFilterConjunction;
@@ -27,8 +30,8 @@ import org.apache.jena.sparql.engine.QueryIterator;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.engine.binding.BindingRoot;
 import org.apache.jena.sparql.engine.main.QueryEngineMain;
+import org.apache.jena.sparql.exec.http.Service;
 import org.apache.jena.sparql.util.Context;
-import org.apache.jena.tdb2.TDB2Factory;
 import org.eclipse.rdf4j.federated.FedXConfig;
 import org.eclipse.rdf4j.federated.FedXFactory;
 import org.eclipse.rdf4j.federated.repository.FedXRepository;
@@ -40,6 +43,7 @@ import org.eclipse.rdf4j.query.resultio.sparqlxml.SPARQLResultsXMLParserFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.http.HttpClient;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -67,6 +71,24 @@ public class FedUP {
 
     // mostly for testing purposes when there are no real endpoints to query.
     Dataset ds4Asks = null;
+    // ASK answers shared with other queries, possibly other FedUP instances
+    ASKCache askCache = null;
+    // concurrency limits and circuit breakers of endpoints, shared with other queries
+    EndpointGuard endpointGuard = null;
+    // budget of ASKs in ms, after which unanswered ones keep their endpoint as candidate
+    Long askDeadline = null;
+    // client of ASKs and SERVICE clauses, whose connections are shared with other queries
+    HttpClient httpClient = null;
+    // liveness and latency of endpoints, probed in the background
+    EndpointMonitor endpointMonitor = null;
+    // one request per endpoint checks all its patterns
+    boolean batchedASKs = false;
+    // pairs of patterns that share a variable are also asked
+    boolean pairASKs = false;
+    // budget of each ASK of a pattern with its filter in ms, 0 disables them
+    long filterASKCost = 0;
+    // independent subtrees of the FedQPL plan are built on the fork-join pool
+    boolean parallelPlans = true;
 
     public FedUP (Summary summary) {
         this.summary = summary;
@@ -105,6 +127,91 @@ public class FedUP {
         return this;
     }
 
+    /**
+     * @param askCache The ASK answers to reuse and fill, shared across queries.
+     */
+    public FedUP setASKCache(ASKCache askCache) {
+        this.askCache = askCache;
+        return this;
+    }
+
+    /**
+     * @param endpointGuard The guard of endpoints against request bursts, and of
+     *                      planning against unhealthy endpoints, shared across queries.
+     */
+    public FedUP setEndpointGuard(EndpointGuard endpointGuard) {
+        this.endpointGuard = endpointGuard;
+        return this;
+    }
+
+    /**
+     * @param askDeadline The budget of ASKs in milliseconds. ASKs still running then are
+     *                    cancelled, and their endpoints are kept as candidates so the
+     *                    summary decides: planning time is bounded without losing results.
+     */
+    public FedUP setASKDeadline(Long askDeadline) {
+        this.askDeadline = askDeadline;
+        return this;
+    }
+
+    /**
+     * @param httpClient The client of ASKs and of SERVICE clauses executed with Jena, so
+     *                   connections to endpoints are reused across requests; null for
+     *                   Jena's default.
+     */
+    public FedUP setHttpClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    public HttpClient getHttpClient() { return httpClient; }
+
+    /**
+     * @param batchedASKs True to check all patterns of an endpoint with one request,
+     *                    instead of one ASK each.
+     */
+    public FedUP setBatchedASKs(boolean batchedASKs) {
+        this.batchedASKs = batchedASKs;
+        return this;
+    }
+
+    /**
+     * @param pairASKs True to also ask pairs of patterns that share a variable, so
+     *                 endpoints where they do not join are not assigned both.
+     */
+    public FedUP setPairASKs(boolean pairASKs) {
+        this.pairASKs = pairASKs;
+        return this;
+    }
+
+    /**
+     * @param filterASKCost The budget in milliseconds of each ASK of a pattern along
+     *                      with its single-variable filter; 0 to disable them.
+     */
+    public FedUP setFilterASKCost(long filterASKCost) {
+        this.filterASKCost = filterASKCost;
+        return this;
+    }
+
+    /**
+     * @param parallelPlans True to build independent subtrees of the plan on the
+     *                      fork-join pool.
+     */
+    public FedUP setParallelPlans(boolean parallelPlans) {
+        this.parallelPlans = parallelPlans;
+        return this;
+    }
+
+    /**
+     * @param endpointMonitor The health of endpoints: depending on its policy, endpoints
+     *                        that are down are neither asked nor assigned; the others are
+     *                        asked, and their services executed, from the fastest.
+     */
+    public FedUP setEndpointMonitor(EndpointMonitor endpointMonitor) {
+        this.endpointMonitor = endpointMonitor;
+        return this;
+    }
+
     public FedUP shouldFactorize() {
         this.shouldFactorize = true;
         return this;
@@ -209,11 +316,23 @@ public class FedUP {
 
     public Op queryToFedQPL (Op queryAsOp, Set<String> endpoints) {
         queryAsOp = ReturningOpVisitorRouter.visit(new RemoveSequences(), queryAsOp);
+        Function<String, String> toEndpoint = Objects.isNull(modifierOfEndpoints) ? e -> e : modifierOfEndpoints;
+        if (Objects.nonNull(endpointMonitor)) {
+            endpoints = endpointMonitor.prioritize(endpoints, toEndpoint);
+        }
         log.info("Start making ASK queries on {} endpoints…", endpoints.size());
-        // TODO use summary as first filter for ASKS
         ToSourceSelectionTransforms tsst = new ToSourceSelectionTransforms(summary.getStrategy(), true, endpoints)
                 .setDataset(ds4Asks) // for testing
-                .setModifierOfEndpoints(modifierOfEndpoints); // for difference between ingested graph and remote endpoint
+                .setModifierOfEndpoints(modifierOfEndpoints) // for difference between ingested graph and remote endpoint
+                .setGraphFilters(summary.getFilters()) // to skip ASKs that would answer false
+                .setSummary(summary) // to skip ASKs of graphs that the summary rules out
+                .setASKCache(askCache) // to skip ASKs that other queries already performed
+                .setEndpointGuard(endpointGuard) // to skip endpoints that failed repeatedly
+                .setASKDeadline(askDeadline) // to bound the time spent asking
+                .setHttpClient(httpClient) // to reuse connections to endpoints
+                .setBatchedASKs(batchedASKs)
+                .setPairASKs(pairASKs) // to prune endpoints where patterns do not join
+                .setFilterASKCost(filterASKCost); // to prune endpoints where filters reject everything
         Op ssQueryAsOp = tsst.transform(queryAsOp);
 
         log.info("Start executing the source selection query…");
@@ -221,19 +340,29 @@ public class FedUP {
 
         // TODO could be processed using a provenance query
         final List<Map<Var, String>> assignments = new ArrayList<>();
-        Set<Integer> seen = new TreeSet<>();
-
-        summary.querySummary(ssQueryAsOp).forEach(b -> {
-                    // TODO create FedQPL here
-                    // TODO but it's much more difficult in presence of OPTIONAL
-                    // TODO but could get faster time for first result when things are sure
-                    int hashcode = b.toString().hashCode();
-                    if (!seen.contains(hashcode)) {
-                        seen.add(hashcode);
-                        assignments.add(bindingToMap(b));
-                    }
+
+        SourceSelectionEvaluator.Assignments selected = summary.selectSources(ssQueryAsOp);
+        if (Objects.nonNull(selected)) { // already distinct, without going through bindings
+            selected.getRows().forEach(row -> assignments.add(rowToMap(selected, row)));
+        } else {
+            // TODO create FedQPL here
+            // TODO but it's much more difficult in presence of OPTIONAL
+            // TODO but could get faster time for first result when things are sure
+            List<Var> vars = tsst.tqt.getVar2quad().keySet().stream().toList();
+            Map<Node, Integer> endpoint2id = new HashMap<>();
+            int[] ids = new int[vars.size()];
+            long[] key = new long[LongRowHashSet.packedWidth(vars.size())];
+            LongRowHashSet seen = new LongRowHashSet(key.length);
+            summary.querySummary(ssQueryAsOp, b -> { // bindings are consumed as they come
+                for (int i = 0; i < ids.length; ++i) {
+                    Node endpoint = b.get(vars.get(i));
+                    ids[i] = Objects.isNull(endpoint) ? -1 : endpoint2id.computeIfAbsent(endpoint, e -> endpoint2id.size());
                 }
-        );
+                if (seen.add(LongRowHashSet.pack(ids, key))) {
+                    assignments.add(bindingToMap(b));
+                }
+            });
+        }
 
         List<Map<Var, String>> assignments2 = assignments;
         // replacing found endpoints by their updated version
@@ -245,31 +374,20 @@ public class FedUP {
                     .toList();
         }
 
+        if (Objects.nonNull(endpointMonitor)) { // skips assignments to endpoints down, then fastest first
+            assignments2 = assignments2.stream()
+                    .filter(a -> a.values().stream().noneMatch(endpointMonitor::shouldSkip))
+                    .sorted(Comparator.comparingLong(a -> a.values().stream()
+                            .mapToLong(endpointMonitor::getLatency).max().orElse(0)))
+                    .toList();
+        }
+
         // log.info("Removing duplicates and inclusions in logical plan…");
         // assignments2 = removeInclusions(assignments2); // TODO double check if it can be improved
         log.debug("Assignments comprising {} elements:\n{}", assignments2.size(), assignments2.stream().map(Object::toString).collect(Collectors.joining("\n")));
 
-        // TODO in dedicated class
-        // TODO built using a CONSTRUCT query
-        Dataset assignmentsAsGraph = TDB2Factory.createDataset();
-        assignmentsAsGraph.begin(ReadWrite.WRITE);
-        Model defaultModel = ModelFactory.createDefaultModel();
-        Integer rowNb = 0;
-        for (Map<Var, String> assignment : assignments2) {
-            rowNb += 1;
-            for (Map.Entry<Var, String> var2source : assignment.entrySet()) {
-                assignmentsAsGraph.getNamedModel(var2source.getValue()).add(
-                        ResourceFactory.createResource(var2source.getKey().getVarName()),
-                        ResourceFactory.createProperty("row"),
-                        String.valueOf(rowNb));
-            }
-        }
-        assignmentsAsGraph.setDefaultModel(defaultModel);
-        assignmentsAsGraph.commit();
-        assignmentsAsGraph.end();
-
         log.info("Building the FedQPL query…");
-        Op asFedQPL = SA2FedQPL.build(queryAsOp, tsst.tqt, assignmentsAsGraph);
+        Op asFedQPL = SA2FedQPL.build(queryAsOp, tsst.tqt, new AssignmentTable(assignments2), parallelPlans);
 
         log.info("Optimizing the resulting FedQPL plan…");
         FedQPLOptimizer optimizer = new FedQPLOptimizer()
@@ -321,9 +439,13 @@ public class FedUP {
     }
 
     public QueryIterator executeWithJena(Op queryAsJena) {
-        QueryEngineMain engine = new QueryEngineMain(queryAsJena, DatasetFactory.empty().asDatasetGraph(), BindingRoot.create(), new Context());
+        Context context = new Context();
+        if (Objects.nonNull(httpClient)) {
+            context.set(Service.httpQueryClient, httpClient); // SERVICE clauses reuse connections
+        }
+        QueryEngineMain engine = new QueryEngineMain(queryAsJena, DatasetFactory.empty().asDatasetGraph(), BindingRoot.create(), context);
         log.info("Running the query using Jena…");
-        return engine.eval(queryAsJena, DatasetFactory.empty().asDatasetGraph(), BindingRoot.create(), new Context());
+        return engine.eval(queryAsJena, DatasetFactory.empty().asDatasetGraph(), BindingRoot.create(), context);
     }
 
 
@@ -344,4 +466,20 @@ public class FedUP {
         return bindingAsMap;
     }
 
+    /**
+     * Same as {@link #bindingToMap(Binding)} for a row of the summary evaluator.
+     * @param assignments The result of source selection, to decode identifiers.
+     * @param row A row of the assignments.
+     * @return A map of [?g -> uri], without the variables that are unbound.
+     */
+    static Map<Var, String> rowToMap(SourceSelectionEvaluator.Assignments assignments, int[] row) {
+        Map<Var, String> rowAsMap = new HashMap<>();
+        for (int i = 0; i < row.length; ++i) {
+            if (row[i] != SourceSelectionEvaluator.UNBOUND) {
+                rowAsMap.put(assignments.getVars().get(i), assignments.getNode(row[i]).toString());
+            }
+        }
+        return rowAsMap;
+    }
+
 }
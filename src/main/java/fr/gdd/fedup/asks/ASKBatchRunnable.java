@@ -0,0 +1,133 @@
+package fr.gdd.fedup.asks;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.*;
+import org.apache.jena.sparql.exec.http.QueryExecutionHTTPBuilder;
+import org.apache.jena.sparql.util.FmtUtils;
+
+import java.net.http.HttpClient;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task of a thread that checks a batch of triple patterns against one endpoint
+ * with a single SELECT query, instead of one ASK query per triple pattern. Each
+ * pattern becomes a branch of a union that returns its index at most once, so
+ * the indexes in the results are those of the patterns that exist. Answers are
+ * registered in the shared map, as with {@link ASKRunnable}.
+ */
+public class ASKBatchRunnable implements Runnable {
+
+    static final String INDEX = "fedupAskIndex"; // unlikely to be a variable of patterns
+
+    ConcurrentHashMap<ImmutablePair<String, Triple>, Boolean> asks;
+    String endpoint;
+    List<Triple> triples;
+    Dataset dataset;
+    ASKCache cache = null; // shared across queries
+    EndpointGuard guard = new EndpointGuard(); // retries with backoff, possibly shared
+    HttpClient httpClient = null; // Jena's default
+    Set<ImmutablePair<String, Triple>> unknowns = ConcurrentHashMap.newKeySet(); // failed asks
+
+    public ASKBatchRunnable(ConcurrentHashMap<ImmutablePair<String, Triple>, Boolean> asks, String endpoint,
+                            List<Triple> triples, Dataset dataset) {
+        this.asks = asks;
+        this.endpoint = endpoint;
+        this.triples = triples;
+        this.dataset = dataset;
+    }
+
+    public ASKBatchRunnable setCache(ASKCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public ASKBatchRunnable setGuard(EndpointGuard guard) {
+        this.guard = guard;
+        return this;
+    }
+
+    public ASKBatchRunnable setHttpClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /**
+     * @param unknowns The shared set where the asks of a failed batch are registered,
+     *                 since their answers are unknown.
+     */
+    public ASKBatchRunnable setUnknowns(Set<ImmutablePair<String, Triple>> unknowns) {
+        this.unknowns = unknowns;
+        return this;
+    }
+
+    @Override
+    public void run() {
+        Set<Integer> existing = probe();
+        for (int i = 0; i < triples.size(); ++i) {
+            ImmutablePair<String, Triple> id = new ImmutablePair<>(endpoint, triples.get(i));
+            if (Objects.isNull(existing)) { // failed, so unknown: kept as candidate, and not cached
+                unknowns.add(id);
+            }
+            boolean exists = Objects.isNull(existing) || existing.contains(i);
+            this.asks.replace(id, false, exists); // unless the deadline passed
+            if (Objects.nonNull(existing) && Objects.nonNull(cache)) {
+                cache.put(endpoint, triples.get(i), exists);
+            }
+        }
+    }
+
+    /**
+     * @return The indexes of triple patterns that exist at the endpoint, or null
+     * if the endpoint failed to answer.
+     */
+    public Set<Integer> probe() {
+        Query query = QueryFactory.create(toSelect(triples, Objects.isNull(dataset) ? null : endpoint));
+        if (Objects.isNull(dataset)) { // remote
+            return guard.call(endpoint, () -> { // null when it failed to call the remote server
+                QueryExecutionHTTPBuilder builder = QueryExecutionHTTPBuilder.create().endpoint(endpoint);
+                if (Objects.nonNull(httpClient)) { builder.httpClient(httpClient); }
+                try (QueryExecution execution = builder
+                        .query(query).timeout(guard.getTimeout(), TimeUnit.MILLISECONDS).build()) {
+                    return indexes(execution.execSelect());
+                }
+            });
+        }
+
+        dataset.begin(ReadWrite.READ); // local
+        try (QueryExecution execution = QueryExecutionDatasetBuilder.create().dataset(dataset).query(query).build()) {
+            return indexes(execution.execSelect());
+        } finally {
+            dataset.end();
+        }
+    }
+
+    static Set<Integer> indexes(ResultSet results) {
+        Set<Integer> indexes = new HashSet<>();
+        results.forEachRemaining(solution -> indexes.add(solution.getLiteral(INDEX).getInt()));
+        return indexes;
+    }
+
+    /**
+     * @param triples The triple patterns to check.
+     * @param graph The graph to check them in when the endpoint is a local dataset, null otherwise.
+     * @return `SELECT ?i WHERE { { SELECT (0 AS ?i) WHERE { tp0 } LIMIT 1 } UNION … }`, with
+     * a less common name for ?i.
+     */
+    public static String toSelect(List<Triple> triples, String graph) {
+        StringBuilder builder = new StringBuilder("SELECT ?" + INDEX + " WHERE {\n");
+        for (int i = 0; i < triples.size(); ++i) {
+            String pattern = FmtUtils.stringForTriple(triples.get(i)) + " .";
+            if (Objects.nonNull(graph)) {
+                pattern = "GRAPH <" + graph + "> { " + pattern + " }";
+            }
+            builder.append(i == 0 ? "  " : "  UNION ")
+                    .append("{ SELECT (").append(i).append(" AS ?").append(INDEX).append(") WHERE { ")
+                    .append(pattern).append(" } LIMIT 1 }\n");
+        }
+        return builder.append("}").toString();
+    }
+
+}
@@ -0,0 +1,198 @@
+package fr.gdd.fedup.asks;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.sse.SSE;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Answers of ASK queries shared by every query that a FedUP instance or server
+ * processes. Answers expire after a time to live, and the least recently used
+ * ones are evicted beyond a maximal size. Concurrent requests for the same
+ * (endpoint, pattern) share a single in-flight ASK. Patterns are canonicalized,
+ * so patterns that differ only by the name of their variables share their answer.
+ * The cache can be saved to a local file and loaded back to survive restarts.
+ */
+public class ASKCache {
+
+    static final int MAGIC = 0x46534143; // FSAC
+
+    /**
+     * @param endpoint The endpoint asked.
+     * @param pattern The canonicalized triple pattern.
+     */
+    public record Key(String endpoint, Triple pattern) {
+        public Key {
+            pattern = canonicalize(pattern);
+        }
+    }
+
+    record Answer(boolean exists, long expiresAt) {}
+
+    final long ttl; // ms
+    final int maxSize;
+
+    final LinkedHashMap<Key, Answer> answers; // access order, guarded by itself
+    final ConcurrentHashMap<Key, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl The time to live of an answer, in milliseconds.
+     * @param maxSize The maximal number of answers kept.
+     */
+    public ASKCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+        this.answers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Answer> eldest) {
+                return size() > ASKCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return The answer if it is known and has not expired, null otherwise.
+     */
+    public Boolean getIfPresent(String endpoint, Triple pattern) {
+        Key key = new Key(endpoint, pattern);
+        synchronized (answers) {
+            Answer answer = answers.get(key);
+            if (Objects.isNull(answer)) { return null; }
+            if (answer.expiresAt() < System.currentTimeMillis()) {
+                answers.remove(key);
+                return null;
+            }
+            return answer.exists();
+        }
+    }
+
+    public void put(String endpoint, Triple pattern, boolean exists) {
+        put(new Key(endpoint, pattern), new Answer(exists, System.currentTimeMillis() + ttl));
+    }
+
+    void put(Key key, Answer answer) {
+        synchronized (answers) {
+            answers.put(key, answer);
+        }
+    }
+
+    /**
+     * @param ask The actual ASK, performed only if the answer is neither known nor
+     *            in flight. It returns null when the endpoint could not answer, in which
+     *            case nothing is cached.
+     * @return True if the pattern exists at the endpoint, false if it does not, null if
+     * the endpoint could not answer.
+     */
+    public Boolean get(String endpoint, Triple pattern, Supplier<Boolean> ask) {
+        Boolean known = getIfPresent(endpoint, pattern);
+        if (Objects.nonNull(known)) { return known; }
+
+        Key key = new Key(endpoint, pattern);
+        CompletableFuture<Boolean> created = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(key, created);
+        if (Objects.nonNull(running)) { // someone else asks
+            return running.join();
+        }
+
+        Boolean exists = null;
+        try {
+            exists = ask.get();
+            if (Objects.nonNull(exists)) {
+                put(key, new Answer(exists, System.currentTimeMillis() + ttl));
+            }
+        } finally {
+            inFlight.remove(key);
+            created.complete(exists);
+        }
+        return exists;
+    }
+
+    public int size() {
+        synchronized (answers) {
+            return answers.size();
+        }
+    }
+
+    /* ************************************************************************** */
+
+    /**
+     * @return The same triple pattern where variables are renamed in order of
+     * appearance, i.e., ?v0, ?v1, ?v2.
+     */
+    public static Triple canonicalize(Triple pattern) {
+        Map<Node, Node> renamed = new HashMap<>();
+        return Triple.create(rename(pattern.getSubject(), renamed),
+                rename(pattern.getPredicate(), renamed),
+                rename(pattern.getObject(), renamed));
+    }
+
+    static Node rename(Node node, Map<Node, Node> renamed) {
+        if (!node.isVariable()) { return node; }
+        return renamed.computeIfAbsent(node, n -> Var.alloc("v" + renamed.size()));
+    }
+
+    /**
+     * Saves the answers that have not expired yet.
+     */
+    public void save(Path path) throws IOException {
+        Map<Key, Answer> copy;
+        synchronized (answers) {
+            copy = new LinkedHashMap<>(answers); // from least to most recently used
+        }
+        long now = System.currentTimeMillis();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt((int) copy.values().stream().filter(a -> a.expiresAt() >= now).count());
+            for (Map.Entry<Key, Answer> entry : copy.entrySet()) {
+                if (entry.getValue().expiresAt() < now) { continue; }
+                out.writeUTF(entry.getKey().endpoint());
+                out.writeUTF(SSE.str(entry.getKey().pattern().getSubject()));
+                out.writeUTF(SSE.str(entry.getKey().pattern().getPredicate()));
+                out.writeUTF(SSE.str(entry.getKey().pattern().getObject()));
+                out.writeBoolean(entry.getValue().exists());
+                out.writeLong(entry.getValue().expiresAt());
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING); // never a half-written cache
+    }
+
+    /**
+     * Loads the answers saved at this path, if any, that have not expired yet.
+     * @return This cache.
+     */
+    public ASKCache load(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return this;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a file of ASK answers: " + path);
+            }
+            int nbAnswers = in.readInt();
+            for (int i = 0; i < nbAnswers; ++i) {
+                String endpoint = in.readUTF();
+                Triple pattern = Triple.create(SSE.parseNode(in.readUTF()), SSE.parseNode(in.readUTF()), SSE.parseNode(in.readUTF()));
+                Answer answer = new Answer(in.readBoolean(), in.readLong());
+                if (answer.expiresAt() >= now) {
+                    put(new Key(endpoint, pattern), answer);
+                }
+            }
+        }
+        return this;
+    }
+
+}
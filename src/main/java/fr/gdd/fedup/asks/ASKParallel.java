@@ -1,12 +1,20 @@
 package fr.gdd.fedup.asks;
 
+import fr.gdd.fedup.summary.GraphFilters;
+import fr.gdd.fedup.summary.Summary;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.QueryExecutionBuilder;
 import org.apache.jena.query.QueryExecutionDatasetBuilder;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.core.BasicPattern;
 import org.apache.jena.sparql.exec.http.QueryExecutionHTTPBuilder;
+import org.apache.jena.sparql.expr.ExprList;
 
+import java.net.http.HttpClient;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Function;
@@ -20,19 +28,36 @@ import java.util.stream.Collectors;
 public class ASKParallel {
 
     /**
-     * <endpoint, pattern> -> (true: exists; false: does not exist or running)
+     * <endpoint, pattern> -> (true: exists or unknown; false: does not exist or running)
      */
     ConcurrentHashMap<ImmutablePair<String, Triple>, Boolean> asks = new ConcurrentHashMap<>();
     Set<String> endpoints;
     Map<String, String> new2oldEndpoints = null;
     Predicate<Triple>[] filters;
+    GraphFilters graphFilters = null; // answers definite negatives without asking
+    Summary summary = null; // rules out graphs per pattern without asking
+    ASKCache cache = null; // answers shared across queries
+    EndpointGuard guard = new EndpointGuard(); // bounds requests per endpoint, possibly across queries
+    HttpClient httpClient = null; // connections shared across queries, Jena's default otherwise
+    boolean batched = false; // one request per endpoint instead of one per (endpoint, pattern)
+    boolean pairs = false; // also asks pairs of patterns that share a variable
+    long filterCost = 0; // ms, the budget of each ask of a pattern with its filter; 0 disables them
+
+    public static int BATCH_SIZE = 100; // patterns per request at most
+
+    /**
+     * <endpoint, <pattern, pattern>> -> (true: possibly joins; false: does not join)
+     */
+    ConcurrentHashMap<ImmutablePair<String, ImmutablePair<Triple, Triple>>, Boolean> pairAsks = new ConcurrentHashMap<>();
 
     /**
      * For debug and testing purposes, the query builder can be changed to something else than
      * HTTP, as long as it `ask()`.
      */
     QueryExecutionBuilder builder = QueryExecutionHTTPBuilder.create();
-    Long timeout = Long.MAX_VALUE;
+    Long timeout = Long.MAX_VALUE; // ms, the budget of all asks of an execution
+    Long start = null; // ms, when the execution started, shared by its phases
+    Set<ImmutablePair<String, Triple>> unknowns = ConcurrentHashMap.newKeySet(); // failed, skipped, or cancelled
     Dataset dataset;
 
     public ASKParallel(Set<String> endpoints, Predicate<Triple>... filters) {
@@ -50,17 +75,113 @@ public class ASKParallel {
         if (Objects.isNull(lambda) || Objects.nonNull(dataset)) return this;
 
         this.new2oldEndpoints = endpoints.stream().map(e -> Map.entry(lambda.apply(e), e))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new)); // keeps the order
         this.endpoints = new2oldEndpoints.keySet();
 
         return this;
     }
 
+    /**
+     * @param graphFilters The filters built along with the summary, consulted before
+     *                     sending an ASK; null to ask every endpoint.
+     */
+    public ASKParallel setGraphFilters(GraphFilters graphFilters) {
+        this.graphFilters = graphFilters;
+        return this;
+    }
+
+    /**
+     * @param summary The summary, evaluated on each pattern alone before sending ASKs, so
+     *                only graphs that it cannot rule out are asked; null to ask every endpoint.
+     */
+    public ASKParallel setSummary(Summary summary) {
+        this.summary = summary;
+        return this;
+    }
+
+    /**
+     * @param cache The answers shared across queries, consulted before sending an ASK
+     *              and filled with its answer; null to ask every time.
+     */
+    public ASKParallel setCache(ASKCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * @param guard The concurrency limits, retries, and circuit breakers of endpoints,
+     *              to share across queries so unhealthy endpoints are skipped at once.
+     */
+    public ASKParallel setGuard(EndpointGuard guard) {
+        this.guard = guard;
+        return this;
+    }
+
+    /**
+     * @param httpClient The client of remote asks, to share its connections with other
+     *                   queries and with SERVICE clauses; null for Jena's default.
+     */
+    public ASKParallel setHttpClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /**
+     * @param batched True to check all patterns of an endpoint with a single SELECT
+     *                query per batch, see {@link ASKBatchRunnable}.
+     */
+    public ASKParallel setBatched(boolean batched) {
+        this.batched = batched;
+        return this;
+    }
+
+    /**
+     * @param pairs True to also check, after single patterns, if pairs of patterns
+     *              that share a variable join at endpoints, see {@link #executePairs(List)}.
+     */
+    public ASKParallel setPairs(boolean pairs) {
+        this.pairs = pairs;
+        return this;
+    }
+
+    /**
+     * @param filterCost The time budget of each ask of a triple pattern with its filter,
+     *                   in milliseconds, see {@link #executeFiltered(Map)}; 0 to disable them.
+     */
+    public ASKParallel setFilterCost(long filterCost) {
+        this.filterCost = filterCost;
+        return this;
+    }
+
+    /**
+     * @param timeout The deadline of all asks of an execution, in milliseconds from its
+     *                start, see {@link #start()}. Asks still running at the deadline are cancelled and their
+     *                pattern is considered possibly present at the endpoint.
+     */
     public ASKParallel setTimeout(Long timeout) {
         this.timeout = timeout;
         return this;
     }
 
+    /**
+     * Starts the execution now, so its phases, i.e., {@link #execute}, {@link #executePairs},
+     * then {@link #executeFiltered}, share a single deadline: each only gets the time that
+     * the previous ones left. Otherwise, each phase starts its own.
+     */
+    public ASKParallel start() {
+        this.start = System.currentTimeMillis();
+        return this;
+    }
+
+    /**
+     * @return The deadline in milliseconds since the epoch, of the execution if started,
+     * otherwise of a phase starting now.
+     */
+    long deadline() {
+        long from = Objects.isNull(start) ? System.currentTimeMillis() : start;
+        return timeout >= Long.MAX_VALUE - from ? Long.MAX_VALUE : from + timeout;
+    }
+
     /**
      * Means local execution.
      * @param dataset The local dataset to perform asks on.
@@ -80,6 +201,14 @@ public class ASKParallel {
         return this;
     }
 
+    /**
+     * @return The asks that failed, that were skipped since their endpoint is unhealthy,
+     * or that were cancelled at the deadline, all considered true.
+     */
+    public Set<ImmutablePair<String, Triple>> getUnknowns() {
+        return unknowns;
+    }
+
     public Map<ImmutablePair<String, Triple>, Boolean> getAsks() {
         if (Objects.isNull(new2oldEndpoints)) {
             return asks;
@@ -97,36 +226,192 @@ public class ASKParallel {
             triples = triples.stream().filter(filter).toList();
         }
 
-        List<Future<Void>> futures = new ArrayList<>();
-        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        Map<Triple, Set<String>> candidates = new HashMap<>(); // graphs that the summary cannot rule out
+        if (Objects.nonNull(summary)) {
+            triples.forEach(triple -> candidates.computeIfAbsent(triple, summary::getGraphs));
+        }
+
+        long deadline = deadline();
+        Map<Future<?>, List<ImmutablePair<String, Triple>>> futures = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
             for (String endpoint : endpoints) { // one per endpoint per triple
+                List<Triple> toAsk = new ArrayList<>();
+                boolean unhealthy = Objects.isNull(dataset) && !guard.isHealthy(endpoint); // skipped without waiting
                 for (Triple triple : triples) {
                     ImmutablePair<String, Triple> id = new ImmutablePair<>(endpoint, triple); // id of the ask
                     if (!this.asks.containsKey(id)) {
                         this.asks.put(id, false);
-                        ASKRunnable runnable = new ASKRunnable(this.asks, endpoint, triple, dataset);
-                        Future future = executor.submit(runnable);
-                        futures.add(future);
+                        if (Objects.nonNull(graphFilters) && !graphFilters.mightContain(toGraph(endpoint), triple)) {
+                            continue; // definitely absent, no need to ask
+                        }
+                        if (Objects.nonNull(summary) && !candidates.get(triple).contains(toGraph(endpoint))) {
+                            continue; // absent from the summary, hence from the endpoint
+                        }
+                        Boolean known = Objects.isNull(cache) ? null : cache.getIfPresent(endpoint, triple);
+                        if (Objects.nonNull(known)) {
+                            this.asks.put(id, known);
+                            continue; // already asked by a previous query
+                        }
+                        if (unhealthy) { // unknown, so kept as candidate, and not cached
+                            unknowns.add(id);
+                            this.asks.put(id, true);
+                        } else {
+                            toAsk.add(triple);
+                        }
                     }
+                }
 
+                if (batched) { // one per endpoint per batch of triples
+                    for (int i = 0; i < toAsk.size(); i += BATCH_SIZE) {
+                        List<Triple> batch = toAsk.subList(i, Math.min(toAsk.size(), i + BATCH_SIZE));
+                        Future<?> future = executor.submit(new ASKBatchRunnable(this.asks, endpoint, batch, dataset)
+                                .setCache(cache).setGuard(guard).setHttpClient(httpClient).setUnknowns(unknowns));
+                        futures.put(future, batch.stream().map(t -> new ImmutablePair<>(endpoint, t)).toList());
+                    }
+                } else {
+                    for (Triple triple : toAsk) {
+                        ASKRunnable runnable = new ASKRunnable(this.asks, endpoint, triple, dataset)
+                                .setCache(cache).setGuard(guard).setHttpClient(httpClient).setUnknowns(unknowns);
+                        Future<?> future = executor.submit(runnable);
+                        futures.put(future, List.of(new ImmutablePair<>(endpoint, triple)));
+                    }
+                }
+            }
+
+            for (Map.Entry<Future<?>, List<ImmutablePair<String, Triple>>> future : futures.entrySet()) { // join threads
+                try {
+                    future.getKey().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    break; // the deadline passed, every remaining ask is unknown
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
                 }
             }
-        } // virtual !
+        } finally {
+            executor.shutdownNow(); // virtual ! and does not wait for the cancelled ones
+        }
 
-        futures.forEach(f -> { // join threads
-            try {
-                f.get(timeout, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                throw new RuntimeException(e);
+        futures.forEach((future, ids) -> {
+            if (!future.isDone() && future.cancel(true)) {
+                // unknown, so kept as candidate: the summary decides; answers that
+                // arrive late are ignored since they only replace `false`
+                ids.forEach(id -> this.asks.put(id, true));
+                unknowns.addAll(ids);
             }
         });
     }
 
+    /**
+     * An endpoint where both patterns of a pair exist may still have no result for
+     * their join, then assigning both patterns to this endpoint is useless. Only pairs
+     * whose patterns were both asked and found are checked: they have constants, so
+     * their join is selective. Pairs asked after the deadline are kept.
+     * @param pairs The pairs of triple patterns that share a variable.
+     */
+    public void executePairs(List<ImmutablePair<Triple, Triple>> pairs) {
+        if (!this.pairs) { return; }
+        List<Runnable> tasks = new ArrayList<>();
+        for (String endpoint : endpoints) {
+            if (Objects.isNull(dataset) && !guard.isHealthy(endpoint)) { continue; }
+            for (ImmutablePair<Triple, Triple> pair : pairs) {
+                ImmutablePair<String, Triple> left = new ImmutablePair<>(endpoint, pair.getLeft());
+                ImmutablePair<String, Triple> right = new ImmutablePair<>(endpoint, pair.getRight());
+                ImmutablePair<String, ImmutablePair<Triple, Triple>> id = new ImmutablePair<>(endpoint, pair);
+                if (pairAsks.containsKey(id) || !get(endpoint, pair.getLeft()) || !get(endpoint, pair.getRight()) ||
+                        unknowns.contains(left) || unknowns.contains(right)) {
+                    continue; // already pruned, or unknown anyway
+                }
+                pairAsks.put(id, true);
+                Op join = new OpBGP(BasicPattern.wrap(List.of(pair.getLeft(), pair.getRight())));
+                tasks.add(new ASKPatternRunnable<>(pairAsks, id, endpoint, join, dataset)
+                        .setGuard(guard).setHttpClient(httpClient));
+            }
+        }
+        runUntilDeadline(tasks); // remaining pairs are kept
+    }
+
+    /**
+     * A triple pattern may exist at an endpoint while none of its values pass the
+     * filter of the query on its variable, e.g., `FILTER regex(?label, "pyrenees")`,
+     * then assigning the pattern to this endpoint is useless. Filtered asks may scan
+     * a lot at endpoints, so each has a budget, the cost threshold, beyond which the
+     * pattern is kept.
+     * @param filtered Triple patterns with the filters on one of their variables,
+     *                 meaningful only if the pattern appears once in the query.
+     */
+    public void executeFiltered(Map<Triple, ExprList> filtered) {
+        if (filterCost <= 0) { return; }
+        List<Runnable> tasks = new ArrayList<>();
+        for (String endpoint : endpoints) {
+            boolean unhealthy = Objects.isNull(dataset) && !guard.isHealthy(endpoint);
+            for (Map.Entry<Triple, ExprList> entry : filtered.entrySet()) {
+                ImmutablePair<String, Triple> id = new ImmutablePair<>(endpoint, entry.getKey());
+                if (Boolean.FALSE.equals(asks.get(id)) || unknowns.contains(id)) {
+                    continue; // already pruned, or unknown anyway
+                }
+                asks.put(id, true); // possibly not asked alone, since it may have no constant
+                if (unhealthy) { continue; } // kept
+                Op pattern = OpFilter.filterBy(entry.getValue(), new OpBGP(BasicPattern.wrap(List.of(entry.getKey()))));
+                tasks.add(new ASKPatternRunnable<>(asks, id, endpoint, pattern, dataset)
+                        .setGuard(guard).setHttpClient(httpClient).setTimeout(filterCost));
+            }
+        }
+        runUntilDeadline(tasks); // remaining patterns are kept
+    }
+
+    /**
+     * Runs the tasks concurrently until they all finish, or the deadline passes, then
+     * the remaining ones are cancelled.
+     */
+    void runUntilDeadline(List<Runnable> tasks) {
+        long deadline = deadline();
+        if (tasks.isEmpty() || deadline <= System.currentTimeMillis()) { return; } // no time left
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<?>> futures = tasks.stream().<Future<?>>map(executor::submit).toList();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    break;
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return For each pair of triple patterns, the endpoints, as ingested in the summary,
+     * where both patterns exist but do not join.
+     */
+    public Map<ImmutablePair<Triple, Triple>, List<String>> getNegativePairs() {
+        Map<ImmutablePair<Triple, Triple>, List<String>> negatives = new HashMap<>();
+        pairAsks.forEach((id, joins) -> {
+            if (!joins) {
+                negatives.computeIfAbsent(id.getRight(), k -> new ArrayList<>()).add(toGraph(id.getLeft()));
+            }
+        });
+        return negatives;
+    }
+
+    /**
+     * @param endpoint The endpoint as asked, possibly modified.
+     * @return The graph of the endpoint as ingested in the summary.
+     */
+    String toGraph(String endpoint) {
+        return Objects.isNull(new2oldEndpoints) ? endpoint : new2oldEndpoints.get(endpoint);
+    }
+
     /**
      * Check if the endpoint had the triple pattern when execute was executed.
      * @param endpoint The endpoint URI as String.
      * @param triple The triple pattern.
-     * @return True if it existed; false if it timed out, or does not exist.
+     * @return True if it existed, or if its answer is unknown since the ask failed, the
+     * endpoint was unhealthy, or the deadline passed; false if it does not exist.
      */
     public boolean get(String endpoint, Triple triple) {
         ImmutablePair<String, Triple> id = new ImmutablePair<>(endpoint, triple);
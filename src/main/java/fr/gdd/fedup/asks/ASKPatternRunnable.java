@@ -0,0 +1,114 @@
+package fr.gdd.fedup.asks;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.*;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpAsQuery;
+import org.apache.jena.sparql.algebra.op.OpGraph;
+import org.apache.jena.sparql.exec.http.QueryExecutionHTTPBuilder;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task of a thread that checks if a pattern larger than a triple pattern, e.g.,
+ * a pair of joined triple patterns, or a triple pattern with its filter, has
+ * results at an endpoint, with a single ASK query. The pattern is considered to
+ * have results until the endpoint answers that it does not, so only definite
+ * answers register: failures and timeouts keep it.
+ */
+public class ASKPatternRunnable<K> implements Runnable {
+
+    Map<K, Boolean> answers;
+    K id;
+    String endpoint;
+    Op pattern;
+    Dataset dataset;
+    EndpointGuard guard = new EndpointGuard(); // retries with backoff, possibly shared
+    HttpClient httpClient = null; // Jena's default
+    Long timeout = null; // ms, the guard's otherwise
+
+    /**
+     * @param answers The shared map where the answer is registered, from true to false.
+     * @param id The key of the answer in the map.
+     */
+    public ASKPatternRunnable(Map<K, Boolean> answers, K id, String endpoint, Op pattern, Dataset dataset) {
+        this.answers = answers;
+        this.id = id;
+        this.endpoint = endpoint;
+        this.pattern = pattern;
+        this.dataset = dataset;
+    }
+
+    public ASKPatternRunnable<K> setGuard(EndpointGuard guard) {
+        this.guard = guard;
+        return this;
+    }
+
+    public ASKPatternRunnable<K> setHttpClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /**
+     * @param timeout The time budget of the ASK in milliseconds, beyond which the
+     *                pattern is kept without counting as a failure of the endpoint.
+     */
+    public ASKPatternRunnable<K> setTimeout(Long timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    @Override
+    public void run() {
+        if (Boolean.FALSE.equals(ask())) { // failed asks keep the pattern
+            answers.replace(id, true, false);
+        }
+    }
+
+    /**
+     * @return True if the pattern has results at the endpoint, false if it does not,
+     * null if the endpoint failed to answer in time.
+     */
+    public Boolean ask() {
+        if (Objects.isNull(dataset)) { // remote
+            Query query = OpAsQuery.asQuery(pattern);
+            query.setQueryAskType();
+            long budget = Objects.isNull(timeout) ? guard.getTimeout() : timeout;
+            return guard.call(endpoint, () -> {
+                QueryExecutionHTTPBuilder builder = QueryExecutionHTTPBuilder.create().endpoint(endpoint);
+                if (Objects.nonNull(httpClient)) { builder.httpClient(httpClient); }
+                try {
+                    return builder.query(query).timeout(budget, TimeUnit.MILLISECONDS).ask();
+                } catch (QueryException e) {
+                    if (Objects.nonNull(timeout) && isTimeout(e)) { return null; } // too costly, not a failure
+                    throw e;
+                }
+            });
+        }
+
+        Query query = OpAsQuery.asQuery(new OpGraph(NodeFactory.createURI(endpoint), pattern)); // local
+        query.setQueryAskType();
+        dataset.begin(ReadWrite.READ);
+        try {
+            QueryExecutionDatasetBuilder builder = QueryExecutionDatasetBuilder.create().dataset(dataset).query(query);
+            if (Objects.nonNull(timeout)) { builder.timeout(timeout, TimeUnit.MILLISECONDS); }
+            return builder.ask();
+        } catch (QueryCancelledException e) {
+            return null;
+        } finally {
+            dataset.end();
+        }
+    }
+
+    static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (cause instanceof HttpTimeoutException || cause instanceof QueryCancelledException) { return true; }
+        }
+        return false;
+    }
+
+}
@@ -11,7 +11,9 @@ import org.apache.jena.sparql.algebra.op.OpSlice;
 import org.apache.jena.sparql.algebra.op.OpTriple;
 import org.apache.jena.sparql.exec.http.QueryExecutionHTTPBuilder;
 
+import java.net.http.HttpClient;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -26,6 +28,9 @@ public class ASKRunnable implements Runnable {
     String endpoint;
     QueryExecutionBuilder builder;
     Dataset dataset;
+    ASKCache cache = null; // shared across queries
+    EndpointGuard guard = new EndpointGuard(); // retries with backoff, possibly shared
+    Set<ImmutablePair<String, Triple>> unknowns = ConcurrentHashMap.newKeySet(); // failed asks
 
     public static Integer RETRY = 5;
 
@@ -43,25 +48,58 @@ public class ASKRunnable implements Runnable {
         this.dataset = dataset;
     }
 
+    public ASKRunnable setCache(ASKCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public ASKRunnable setGuard(EndpointGuard guard) {
+        this.guard = guard;
+        return this;
+    }
+
+    /**
+     * @param unknowns The shared set where failed asks are registered, since their
+     *                 answer is unknown.
+     */
+    public ASKRunnable setUnknowns(Set<ImmutablePair<String, Triple>> unknowns) {
+        this.unknowns = unknowns;
+        return this;
+    }
+
+    /**
+     * @param httpClient The client whose connections are shared; null for Jena's default.
+     */
+    public ASKRunnable setHttpClient(HttpClient httpClient) {
+        if (Objects.nonNull(httpClient) && builder instanceof QueryExecutionHTTPBuilder b) {
+            b.httpClient(httpClient);
+        }
+        return this;
+    }
+
     @Override
     public void run() {
         ImmutablePair<String, Triple> id = new ImmutablePair<>(endpoint, triple);
-        boolean response = switch (builder) {
+        Boolean response = Objects.isNull(cache) ? ask() : cache.get(endpoint, triple, this::ask);
+        if (Objects.isNull(response)) { // failed, so unknown: kept as candidate, and not cached
+            unknowns.add(id);
+            response = true;
+        }
+        this.asks.replace(id, false, response); // unless the deadline passed meanwhile
+    }
+
+    /**
+     * @return True if the triple pattern exists at the endpoint, false if it does not,
+     * null if the endpoint failed to answer.
+     */
+    public Boolean ask() {
+        return switch (builder) {
             case QueryExecutionHTTPBuilder b -> { // remote
-                int retry = RETRY;
                 Query query = OpAsQuery.asQuery(new OpTriple(triple));
                 // Query query = OpAsQuery.asQuery(new OpSlice(new OpTriple(triple), 0, 1));
                 query.setQueryAskType();
-                while (retry > 0) {
-                    try {
-                        // var results = b.query(query).timeout(5, TimeUnit.SECONDS).select();
-                        // yield results.hasNext();
-                        yield b.query(query).timeout(5000, TimeUnit.MILLISECONDS).ask();
-                    } catch (QueryException e) {
-                        retry -= 1;
-                    }
-                }
-                yield false; // failed to call the remote server, default to false
+                // null when it failed to call the remote server, or when its circuit is open
+                yield guard.call(endpoint, () -> b.query(query).timeout(guard.getTimeout(), TimeUnit.MILLISECONDS).ask());
             }
             case QueryExecutionDatasetBuilder b -> { // local
                 Node graph = NodeFactory.createURI(endpoint);
@@ -75,7 +113,6 @@ public class ASKRunnable implements Runnable {
             }
             default -> throw new UnsupportedOperationException();
         };
-        this.asks.replace(id, response);
     }
 
 }
@@ -1,15 +1,24 @@
 package fr.gdd.fedup.asks;
 
 import fr.gdd.fedqpl.visitors.OpVisitorUnimplemented;
+import fr.gdd.fedup.summary.GraphFilters;
+import fr.gdd.fedup.summary.Summary;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.op.*;
+import org.apache.jena.sparql.algebra.walker.Walker;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.*;
+import org.apache.jena.sparql.util.VarUtils;
 
+import java.net.http.HttpClient;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 
@@ -21,6 +30,9 @@ public class ASKVisitor extends OpVisitorUnimplemented {
 
     ASKParallel asks;
     List<Triple> triples = new ArrayList<>();
+    List<ImmutablePair<Triple, Triple>> pairs = new ArrayList<>(); // that share a variable
+    Map<Triple, ExprList> filtered = new HashMap<>(); // triple patterns with filters on one of their variables
+    Map<Triple, Integer> occurrences = new HashMap<>();
 
     public ASKVisitor(Set<String> endpoints) {
         this.asks = new ASKParallel(endpoints); // default filter: only constants subject || object
@@ -31,6 +43,55 @@ public class ASKVisitor extends OpVisitorUnimplemented {
         return this;
     }
 
+    public ASKVisitor setGraphFilters(GraphFilters graphFilters) {
+        this.asks.setGraphFilters(graphFilters);
+        return this;
+    }
+
+    public ASKVisitor setSummary(Summary summary) {
+        this.asks.setSummary(summary);
+        return this;
+    }
+
+    public ASKVisitor setCache(ASKCache cache) {
+        this.asks.setCache(cache);
+        return this;
+    }
+
+    public ASKVisitor setGuard(EndpointGuard guard) {
+        this.asks.setGuard(guard);
+        return this;
+    }
+
+    public ASKVisitor setHttpClient(HttpClient httpClient) {
+        this.asks.setHttpClient(httpClient);
+        return this;
+    }
+
+    public ASKVisitor setBatched(boolean batched) {
+        this.asks.setBatched(batched);
+        return this;
+    }
+
+    public ASKVisitor setPairs(boolean pairs) {
+        this.asks.setPairs(pairs);
+        return this;
+    }
+
+    public ASKVisitor setFilterCost(long filterCost) {
+        this.asks.setFilterCost(filterCost);
+        return this;
+    }
+
+    /**
+     * @param deadline The budget of all asks of {@link #visit(Op)}, in milliseconds,
+     *                 null for none.
+     */
+    public ASKVisitor setDeadline(Long deadline) {
+        if (Objects.nonNull(deadline)) { this.asks.setTimeout(deadline); }
+        return this;
+    }
+
     public void setDataset(Dataset dataset) {
         this.asks.setDataset(dataset);
     }
@@ -39,11 +100,63 @@ public class ASKVisitor extends OpVisitorUnimplemented {
         return this.asks.getAsks();
     }
 
+    public Map<ImmutablePair<Triple, Triple>, List<String>> getNegativePairs() {
+        return this.asks.getNegativePairs();
+    }
+
     public void visit(Op op) {
         op.visit(this);
-        // TODO change triples so when they have the same pattern
-        // TODO but the variable name changes, they are considered the same
+        this.asks.start(); // the deadline bounds source selection as a whole
+        // patterns that differ only by their variable names share a single
+        // ASK when there is a cache, since it canonicalizes them
         this.asks.execute(triples);
+        this.asks.executePairs(pairs); // when enabled
+        filtered.keySet().removeIf(triple -> occurrences.get(triple) > 1); // the filter may not apply elsewhere
+        this.asks.executeFiltered(filtered); // when enabled
+    }
+
+    /**
+     * Single-variable filters are attached to a triple pattern that binds their variable,
+     * when this pattern is mandatory below the filter, i.e., not optional.
+     * @param exprs The expressions of the filter.
+     * @param group The triple patterns directly below the filter.
+     */
+    void addFiltered(ExprList exprs, List<Triple> group) {
+        for (Expr expr : exprs) {
+            Set<Var> vars = expr.getVarsMentioned();
+            if (vars.size() != 1 || hasPattern(expr)) { continue; }
+            Var var = vars.iterator().next();
+            group.stream().filter(t -> VarUtils.getVars(t).contains(var)).findFirst()
+                    .ifPresent(t -> filtered.computeIfAbsent(t, k -> new ExprList()).add(expr));
+        }
+    }
+
+    /**
+     * @return True if the expression has a graph pattern, e.g., EXISTS, that cannot be
+     * checked with the triple pattern alone.
+     */
+    static boolean hasPattern(Expr expr) {
+        boolean[] found = {false};
+        Walker.walk(expr, new ExprVisitorBase() {
+            @Override
+            public void visit(ExprFunctionOp funcOp) { found[0] = true; }
+        });
+        return found[0];
+    }
+
+    /**
+     * @param group Triple patterns joined together, e.g., of a basic graph pattern.
+     */
+    void addPairs(List<Triple> group) {
+        for (int i = 0; i < group.size(); ++i) {
+            for (int j = i + 1; j < group.size(); ++j) {
+                Set<Var> shared = VarUtils.getVars(group.get(i));
+                shared.retainAll(VarUtils.getVars(group.get(j)));
+                if (!shared.isEmpty()) {
+                    pairs.add(new ImmutablePair<>(group.get(i), group.get(j)));
+                }
+            }
+        }
     }
 
     /* ******************************************************* */
@@ -66,11 +179,14 @@ public class ASKVisitor extends OpVisitorUnimplemented {
     @Override
     public void visit(OpBGP opBGP) {
         this.triples.addAll(opBGP.getPattern().getList());
+        opBGP.getPattern().getList().forEach(t -> occurrences.merge(t, 1, Integer::sum));
+        addPairs(opBGP.getPattern().getList());
     }
 
     @Override
     public void visit(OpQuad opQuad) {
         this.triples.add(opQuad.getQuad().asTriple());
+        occurrences.merge(opQuad.getQuad().asTriple(), 1, Integer::sum);
     }
 
     @Override
@@ -104,11 +220,21 @@ public class ASKVisitor extends OpVisitorUnimplemented {
 
     @Override
     public void visit(OpFilter opFilter) {
+        List<Triple> group = switch (opFilter.getSubOp()) {
+            case OpBGP opBGP -> opBGP.getPattern().getList();
+            case OpQuad opQuad -> List.of(opQuad.getQuad().asTriple());
+            case OpSequence opSequence -> opSequence.getElements().stream()
+                    .filter(op -> op instanceof OpQuad).map(op -> ((OpQuad) op).getQuad().asTriple()).toList();
+            default -> List.of(); // e.g., optional patterns, whose variables may stay unbound
+        };
+        addFiltered(opFilter.getExprs(), group);
         opFilter.getSubOp().visit(this);
     }
 
     @Override
     public void visit(OpSequence opSequence) {
         opSequence.getElements().forEach(op -> op.visit(this));
+        addPairs(opSequence.getElements().stream()
+                .filter(op -> op instanceof OpQuad).map(op -> ((OpQuad) op).getQuad().asTriple()).toList());
     }
 }
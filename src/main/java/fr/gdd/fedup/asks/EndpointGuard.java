@@ -0,0 +1,172 @@
+package fr.gdd.fedup.asks;
+
+import org.apache.jena.query.QueryException;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Protects remote endpoints from the requests of source selection, and source
+ * selection from slow or failing endpoints. Each endpoint gets a bounded
+ * number of concurrent requests; failed requests are retried after an
+ * exponential backoff with jitter; and after a number of consecutive failures,
+ * the circuit of the endpoint opens: it is considered unhealthy and is not
+ * requested anymore until a cool-down period elapses. Then, requests are
+ * let through again, and the first success closes the circuit.
+ */
+public class EndpointGuard {
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+    public static final long DEFAULT_COOL_DOWN = 30_000; // ms
+
+    int concurrency = DEFAULT_CONCURRENCY;
+    long coolDown = DEFAULT_COOL_DOWN;
+    int failureThreshold = 3; // consecutive failures that open the circuit
+    int attempts = ASKRunnable.RETRY;
+    long baseBackoff = 100; // ms, doubled at each attempt
+    long maxBackoff = 2_000; // ms
+    long timeout = 5_000; // ms, of each request
+
+    /**
+     * Health of an endpoint, shared by the threads that request it.
+     */
+    static class State {
+        final Semaphore permits;
+        int consecutiveFailures = 0;
+        long openUntil = 0; // ms, the circuit is closed when in the past
+
+        State(int concurrency) {
+            this.permits = new Semaphore(concurrency);
+        }
+    }
+
+    final Map<String, State> states = new ConcurrentHashMap<>();
+
+    public EndpointGuard setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public EndpointGuard setCoolDown(long coolDown) {
+        this.coolDown = coolDown;
+        return this;
+    }
+
+    public EndpointGuard setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    /**
+     * @param attempts The maximal number of tries of a request.
+     * @param baseBackoff The wait before the second try, in ms, doubled for each next try.
+     * @param maxBackoff The maximal wait between two tries, in ms.
+     */
+    public EndpointGuard setRetries(int attempts, long baseBackoff, long maxBackoff) {
+        this.attempts = attempts;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+        return this;
+    }
+
+    public EndpointGuard setTimeout(long timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public long getTimeout() { return timeout; }
+
+    State state(String endpoint) {
+        return states.computeIfAbsent(endpoint, e -> new State(concurrency));
+    }
+
+    /**
+     * @return False if the circuit of the endpoint is open, i.e., it failed
+     * repeatedly and its cool-down period did not elapse yet.
+     */
+    public boolean isHealthy(String endpoint) {
+        State state = state(endpoint);
+        synchronized (state) {
+            return state.openUntil <= System.currentTimeMillis();
+        }
+    }
+
+    void succeeded(String endpoint) {
+        State state = state(endpoint);
+        synchronized (state) {
+            state.consecutiveFailures = 0;
+            state.openUntil = 0;
+        }
+    }
+
+    void failed(String endpoint) {
+        State state = state(endpoint);
+        synchronized (state) {
+            state.consecutiveFailures += 1;
+            if (state.consecutiveFailures >= failureThreshold) {
+                state.openUntil = System.currentTimeMillis() + coolDown;
+            }
+        }
+    }
+
+    /**
+     * @param attempt The number of tries that failed already, starting at 1.
+     * @return The wait before the next try, in ms: exponential, capped, with full jitter.
+     */
+    long backoff(int attempt) {
+        long bound = Math.min(maxBackoff, baseBackoff << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * @param endpoint The endpoint requested.
+     * @param request The request, that throws a {@link QueryException} when the endpoint fails.
+     * @return The answer to the request, or null if the endpoint is unhealthy or
+     * failed on every try.
+     */
+    public <T> T call(String endpoint, Supplier<T> request) {
+        State state = state(endpoint);
+        for (int attempt = 1; attempt <= attempts; ++attempt) {
+            if (!isHealthy(endpoint)) {
+                return null; // without waiting
+            }
+            try {
+                state.permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            try {
+                T result = request.get();
+                succeeded(endpoint);
+                return result;
+            } catch (QueryException e) {
+                failed(endpoint);
+            } finally {
+                state.permits.release();
+            }
+            if (attempt < attempts) {
+                try {
+                    Thread.sleep(backoff(attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of requests running on the endpoint.
+     */
+    public int running(String endpoint) {
+        State state = states.get(endpoint);
+        return Objects.isNull(state) ? 0 : concurrency - state.permits.availablePermits();
+    }
+
+}
@@ -0,0 +1,205 @@
+package fr.gdd.fedup.asks;
+
+import org.apache.jena.sparql.exec.http.QueryExecutionHTTPBuilder;
+
+import java.net.http.HttpClient;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Probes endpoints in the background, so dead or overloaded endpoints are known
+ * before user queries reach them. Each round sends a cheap `ASK {}` to every
+ * tracked endpoint, within a timeout. Endpoints that fail consecutive rounds are
+ * down until a probe succeeds again; the latency of the others is smoothed over
+ * rounds. Depending on the {@link Policy}, source selection skips endpoints that
+ * are down, and it orders endpoints from the fastest to the slowest.
+ */
+public class EndpointMonitor implements AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL = 10_000; // ms
+    public static final long DEFAULT_TIMEOUT = 2_000; // ms
+
+    /**
+     * What source selection does with endpoints that are down.
+     */
+    public enum Policy {
+        REPORT, // nothing, they are only reported
+        SKIP // they are neither asked nor assigned, so results they would provide are missing
+    }
+
+    public enum Status { UNKNOWN, UP, DOWN }
+
+    /**
+     * @param latency The smoothed latency of successful probes, in ms.
+     * @param lastCheck The time of the last probe, in ms since epoch, 0 if never probed.
+     * @param error The reason of the last failure, if any.
+     */
+    public record Health(Status status, long latency, long lastCheck, int consecutiveFailures, String error) {
+        static final Health UNKNOWN = new Health(Status.UNKNOWN, 0, 0, 0, null);
+    }
+
+    final Map<String, Health> health = new ConcurrentHashMap<>();
+    Policy policy = Policy.SKIP;
+    long interval = DEFAULT_INTERVAL;
+    long timeout = DEFAULT_TIMEOUT;
+    int downAfter = 2; // consecutive failed rounds
+    HttpClient httpClient = null; // Jena's default
+    Predicate<String> probe = this::ask; // throws or false when the endpoint fails
+
+    ScheduledExecutorService scheduler = null;
+
+    public EndpointMonitor setPolicy(Policy policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    public EndpointMonitor setInterval(long interval) {
+        this.interval = interval;
+        return this;
+    }
+
+    public EndpointMonitor setTimeout(long timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public EndpointMonitor setDownAfter(int downAfter) {
+        this.downAfter = downAfter;
+        return this;
+    }
+
+    public EndpointMonitor setHttpClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /**
+     * For testing purposes, the probe can be something else than an HTTP ASK.
+     */
+    public EndpointMonitor setProbe(Predicate<String> probe) {
+        this.probe = probe;
+        return this;
+    }
+
+    public Policy getPolicy() { return policy; }
+
+    /**
+     * @param endpoints The endpoints to probe from the next round on.
+     */
+    public EndpointMonitor track(Collection<String> endpoints) {
+        endpoints.forEach(e -> health.putIfAbsent(e, Health.UNKNOWN));
+        return this;
+    }
+
+    /**
+     * Probes the tracked endpoints every interval, starting now.
+     */
+    public synchronized EndpointMonitor start() {
+        if (Objects.isNull(scheduler)) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fedup-endpoint-monitor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::probeAll, 0, interval, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (Objects.nonNull(scheduler)) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /* ************************************************************************** */
+
+    /**
+     * One round: probes every tracked endpoint concurrently, and waits for all of them.
+     */
+    public void probeAll() {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            health.keySet().forEach(endpoint -> executor.submit(() -> probe(endpoint)));
+        }
+    }
+
+    void probe(String endpoint) {
+        long start = System.currentTimeMillis();
+        String error = null;
+        try {
+            if (!probe.test(endpoint)) { error = "unexpected answer"; }
+        } catch (RuntimeException e) {
+            error = Objects.isNull(e.getMessage()) ? e.getClass().getSimpleName() : e.getMessage();
+        }
+        long now = System.currentTimeMillis();
+        String reason = error;
+        health.compute(endpoint, (e, previous) -> {
+            Health last = Objects.isNull(previous) ? Health.UNKNOWN : previous;
+            if (Objects.isNull(reason)) {
+                long latency = last.lastCheck() == 0 || last.status() != Status.UP ?
+                        now - start : (3 * last.latency() + (now - start)) / 4; // smoothed
+                return new Health(Status.UP, latency, now, 0, null);
+            }
+            int failures = last.consecutiveFailures() + 1;
+            Status status = failures >= downAfter ? Status.DOWN : last.status();
+            return new Health(status, last.latency(), now, failures, reason);
+        });
+    }
+
+    boolean ask(String endpoint) {
+        QueryExecutionHTTPBuilder builder = QueryExecutionHTTPBuilder.create().endpoint(endpoint);
+        if (Objects.nonNull(httpClient)) { builder.httpClient(httpClient); }
+        return builder.query("ASK {}").timeout(timeout, TimeUnit.MILLISECONDS).ask();
+    }
+
+    /* ************************************************************************** */
+
+    public Health getHealth(String endpoint) {
+        return health.getOrDefault(endpoint, Health.UNKNOWN);
+    }
+
+    /**
+     * @return The health of tracked endpoints, sorted by endpoint.
+     */
+    public Map<String, Health> getHealthTable() {
+        return new TreeMap<>(health);
+    }
+
+    public boolean isDown(String endpoint) {
+        return getHealth(endpoint).status() == Status.DOWN;
+    }
+
+    /**
+     * @return True if the policy is to skip endpoints that are down, and this one is.
+     */
+    public boolean shouldSkip(String endpoint) {
+        return policy == Policy.SKIP && isDown(endpoint);
+    }
+
+    /**
+     * @return The latency of the endpoint in ms, the timeout when it is not known.
+     */
+    public long getLatency(String endpoint) {
+        Health h = getHealth(endpoint);
+        return h.status() == Status.UP ? h.latency() : timeout;
+    }
+
+    /**
+     * @param endpoints The endpoints as named in the summary.
+     * @param toEndpoint The actual endpoint of each, as probed.
+     * @return The endpoints that should not be skipped, from the fastest to the slowest.
+     */
+    public Set<String> prioritize(Set<String> endpoints, Function<String, String> toEndpoint) {
+        track(endpoints.stream().map(toEndpoint).toList()); // probed from the next round on
+        Set<String> ordered = new LinkedHashSet<>();
+        endpoints.stream().filter(e -> !shouldSkip(toEndpoint.apply(e)))
+                .sorted(Comparator.comparingLong(e -> getLatency(toEndpoint.apply(e))))
+                .forEach(ordered::add);
+        return ordered;
+    }
+
+}
@@ -0,0 +1,276 @@
+package fr.gdd.fedup.asks;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP client shared by ASKs and SERVICE clauses, so connections to endpoints
+ * are kept alive and reused, or multiplexed with HTTP/2, across requests and
+ * queries. Each endpoint, i.e., scheme, host, and port, gets a pool of at most
+ * `poolSize` concurrent requests; a request holds its place in the pool until its
+ * response body is consumed or closed. A request waits for a place at most its own
+ * timeout, or the connect timeout by default. Pools record their utilisation, see
+ * {@link #getMetrics()}.
+ */
+public class SharedHttpClient extends HttpClient {
+
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * Requests in flight to an endpoint, and counters since the start.
+     */
+    public static class Pool {
+        final int size;
+        final Semaphore permits;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong busyTime = new AtomicLong(); // ns, cumulated time of requests
+
+        Pool(int size) {
+            this.size = size;
+            this.permits = new Semaphore(size);
+        }
+
+        void acquired() {
+            requests.incrementAndGet();
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        }
+
+        void released(long start, boolean failed) {
+            if (failed) { failures.incrementAndGet(); }
+            busyTime.addAndGet(System.nanoTime() - start);
+            inFlight.decrementAndGet();
+            permits.release();
+        }
+
+        public int getSize() { return size; }
+        public int getInFlight() { return inFlight.get(); }
+        public int getPeak() { return peak.get(); }
+        public long getRequests() { return requests.get(); }
+        public long getFailures() { return failures.get(); }
+        public long getBusyTime() { return TimeUnit.NANOSECONDS.toMillis(busyTime.get()); }
+
+        /**
+         * @return The ratio of the pool in use, or 0 when the pool is unbounded.
+         */
+        public double getUtilisation() {
+            return size == UNBOUNDED ? 0. : (double) inFlight.get() / size;
+        }
+    }
+
+    final HttpClient delegate;
+    final int poolSize;
+    final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    final ExecutorService waiters = Executors.newVirtualThreadPerTaskExecutor(); // of async requests
+
+    /**
+     * @param version HTTP/2 is tried first, then HTTP/1.1 keep-alive is the fallback.
+     * @param connectTimeout The timeout of opening a connection, including TLS handshakes.
+     * @param poolSize The maximal number of concurrent requests per endpoint.
+     */
+    public SharedHttpClient(Version version, Duration connectTimeout, int poolSize) {
+        this(HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(Redirect.NORMAL)
+                .build(), poolSize);
+    }
+
+    public SharedHttpClient(HttpClient delegate, int poolSize) {
+        this.delegate = delegate;
+        this.poolSize = poolSize;
+    }
+
+    public SharedHttpClient() {
+        this(Version.HTTP_2, DEFAULT_CONNECT_TIMEOUT, UNBOUNDED);
+    }
+
+    /**
+     * @return The pools of endpoints requested so far, sorted by endpoint.
+     */
+    public Map<String, Pool> getMetrics() {
+        return new TreeMap<>(pools);
+    }
+
+    Pool pool(URI uri) {
+        return pools.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), e -> new Pool(poolSize));
+    }
+
+    /**
+     * @return The time a request waits for a place in the pool of its endpoint: its
+     * own timeout, or else the connect timeout of the client.
+     */
+    Duration waiting(HttpRequest request) {
+        return request.timeout().or(this::connectTimeout).orElse(DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Takes a place in the pool of the endpoint of the request, waiting a bounded time.
+     * @throws HttpTimeoutException when the pool stayed full the whole time.
+     */
+    void acquire(Pool pool, HttpRequest request) throws HttpTimeoutException, InterruptedException {
+        Duration waiting = waiting(request);
+        if (!pool.permits.tryAcquire(waiting.toNanos(), TimeUnit.NANOSECONDS)) {
+            throw new HttpTimeoutException(String.format("No place left in the pool of %s after %s ms.",
+                    request.uri().getAuthority(), waiting.toMillis()));
+        }
+        pool.acquired();
+    }
+
+    /* ************************************************************************** */
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        Pool pool = pool(request.uri());
+        acquire(pool, request);
+        long start = System.nanoTime();
+        try {
+            return track(pool, start, delegate.send(request, handler));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            pool.released(start, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return sendAsync(request, handler, null);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        Pool pool = pool(request.uri());
+        return CompletableFuture.runAsync(() -> {
+            try {
+                acquire(pool, request);
+            } catch (HttpTimeoutException | InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        }, waiters).thenCompose(ignored -> {
+            long start = System.nanoTime();
+            return delegate.sendAsync(request, handler, pushPromiseHandler).handle((response, e) -> {
+                if (e != null) {
+                    pool.released(start, true);
+                    throw new CompletionException(e);
+                }
+                return track(pool, start, response);
+            });
+        });
+    }
+
+    /**
+     * @return The response, whose place in the pool is released at once, or when
+     * its body is consumed or closed when it is streamed.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> HttpResponse<T> track(Pool pool, long start, HttpResponse<T> response) {
+        boolean failed = response.statusCode() >= 400;
+        if (!(response.body() instanceof InputStream body)) {
+            pool.released(start, failed);
+            return response;
+        }
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable release = () -> { if (released.compareAndSet(false, true)) { pool.released(start, failed); } };
+        InputStream tracked = new FilterInputStream(body) {
+            @Override
+            public int read() throws IOException {
+                int read = super.read();
+                if (read < 0) { release.run(); }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read < 0) { release.run(); }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release.run();
+                }
+            }
+        };
+        return new TrackedResponse<>(response, (T) tracked);
+    }
+
+    /**
+     * Same response with a tracked body.
+     */
+    record TrackedResponse<T>(HttpResponse<T> response, T body) implements HttpResponse<T> {
+        @Override public int statusCode() { return response.statusCode(); }
+        @Override public HttpRequest request() { return response.request(); }
+        @Override public Optional<HttpResponse<T>> previousResponse() { return response.previousResponse(); }
+        @Override public HttpHeaders headers() { return response.headers(); }
+        @Override public Optional<SSLSession> sslSession() { return response.sslSession(); }
+        @Override public URI uri() { return response.uri(); }
+        @Override public Version version() { return response.version(); }
+    }
+
+    /* ************************************************************************** */
+
+    @Override public Optional<CookieHandler> cookieHandler() { return delegate.cookieHandler(); }
+    @Override public Optional<Duration> connectTimeout() { return delegate.connectTimeout(); }
+    @Override public Redirect followRedirects() { return delegate.followRedirects(); }
+    @Override public Optional<ProxySelector> proxy() { return delegate.proxy(); }
+    @Override public SSLContext sslContext() { return delegate.sslContext(); }
+    @Override public SSLParameters sslParameters() { return delegate.sslParameters(); }
+    @Override public Optional<Authenticator> authenticator() { return delegate.authenticator(); }
+    @Override public Version version() { return delegate.version(); }
+    @Override public Optional<Executor> executor() { return delegate.executor(); }
+
+    @Override
+    public void shutdown() {
+        waiters.shutdown();
+        delegate.shutdown();
+    }
+
+    @Override
+    public void shutdownNow() {
+        waiters.shutdownNow();
+        delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean awaitTermination(Duration duration) throws InterruptedException {
+        long deadline = System.nanoTime() + duration.toNanos();
+        return waiters.awaitTermination(duration.toNanos(), TimeUnit.NANOSECONDS) &&
+                delegate.awaitTermination(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return waiters.isTerminated() && delegate.isTerminated();
+    }
+
+}
@@ -2,8 +2,8 @@ package fr.gdd.fedup.cli;
 
 import fr.gdd.fedup.FedUP;
 import fr.gdd.fedup.fuseki.FedUPConstants;
-import fr.gdd.fedup.summary.ModuloOnSuffix;
 import fr.gdd.fedup.summary.Summary;
+import fr.gdd.fedup.summary.SummaryFactory;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
@@ -64,7 +64,7 @@ public class FedUPCLI {
             order = 3,
             names = {"-s", "--summary"},
             paramLabel = "<path/to/TDB2>",
-            description = "Path to the TDB2 dataset summary.")
+            description = "Path to the TDB2 dataset summary, or to the memory-mapped summary file.")
     String summaryPath;
 
     // options.addOption("t", "type", true, "The summary type (example: ModuloOnSuffix(1)).");
@@ -137,7 +137,10 @@ public class FedUPCLI {
         ResultSetReaderRegistry.init();
 
         // TODO, no necessarily modulo on suffix…
-        Summary summary = new Summary(new ModuloOnSuffix(1), Location.create(Path.of(options.summaryPath)));
+        Path summaryPath = Path.of(options.summaryPath);
+        Summary summary = summaryPath.toFile().isFile() ?
+                SummaryFactory.createModuloOnSuffix(1, summaryPath) :
+                SummaryFactory.createModuloOnSuffix(1, Location.create(summaryPath)); // with its refinements
 
         FedUP fedup = new FedUP(summary);
 
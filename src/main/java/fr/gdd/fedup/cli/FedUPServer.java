@@ -1,10 +1,16 @@
 package fr.gdd.fedup.cli;
 
+import fr.gdd.fedup.asks.ASKCache;
+import fr.gdd.fedup.asks.EndpointGuard;
+import fr.gdd.fedup.asks.EndpointMonitor;
+import fr.gdd.fedup.asks.SharedHttpClient;
 import fr.gdd.fedup.fuseki.FedUPConstants;
 import fr.gdd.fedup.fuseki.FedUPEngine;
+import fr.gdd.fedup.fuseki.FedUPHealthServlet;
+import fr.gdd.fedup.fuseki.FedUPMetricsServlet;
 import fr.gdd.fedup.fuseki.FedUPPlanAndNormalJSON;
-import fr.gdd.fedup.summary.ModuloOnSuffix;
 import fr.gdd.fedup.summary.Summary;
+import fr.gdd.fedup.summary.SummaryFactory;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
@@ -16,6 +22,8 @@ import org.apache.jena.riot.resultset.ResultSetReaderRegistry;
 import org.apache.jena.riot.rowset.RowSetWriterRegistry;
 import org.apache.jena.sparql.mgt.Explain;
 
+import java.io.IOException;
+import java.net.http.HttpClient;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -36,7 +44,7 @@ public class FedUPServer {
                 "print this message"));
 
         Option summariesOpt = new Option("s", "summaries", true,
-                "Path(s) to TDB2 dataset summary(ies).");
+                "Path(s) to TDB2 dataset summary(ies), or to memory-mapped summary file(s).");
         summariesOpt.setArgs(Option.UNLIMITED_VALUES);
         summariesOpt.setValueSeparator(',');
         options.addOption(summariesOpt);
@@ -50,6 +58,36 @@ public class FedUPServer {
                 "The port of this FedUP server (default: 3330).");
         options.addOption("m", "modify", true,
                 "Lambda expression to apply to graphs in summaries in order to call actual endpoints.");
+        options.addOption(null, "ask-concurrency", true,
+                "Maximal number of concurrent ASKs per endpoint (default: 8).");
+        options.addOption(null, "cool-down", true,
+                "Seconds during which an endpoint that failed repeatedly is skipped (default: 30).");
+        options.addOption(null, "deadline", true,
+                "Milliseconds after which unanswered ASKs keep their endpoint as candidate (default: none).");
+        options.addOption(null, "batch-asks", false,
+                "Check all triple patterns of a query against an endpoint with one request, instead of one ASK each.");
+        options.addOption(null, "filter-asks", true,
+                "Also ASK triple patterns along with their single-variable FILTER, each within this budget in milliseconds (default: disabled).");
+        options.addOption(null, "pair-asks", false,
+                "Also ASK pairs of triple patterns sharing a variable, so endpoints where they do not join are not assigned both.");
+        options.addOption(null, "http-version", true,
+                "HTTP version of requests to endpoints, connections being shared by ASKs and SERVICE clauses (default: 2, falls back to 1.1; 1.1).");
+        options.addOption(null, "http-pool-size", true,
+                "Maximal number of concurrent HTTP requests per endpoint, its utilisation is served at " +
+                        FedUPMetricsServlet.PATH + " (default: unbounded).");
+        options.addOption(null, "health-interval", true,
+                "Seconds between background probes of endpoints, their health is served at " +
+                        FedUPHealthServlet.PATH + " (default: not monitored).");
+        options.addOption(null, "health-timeout", true,
+                "Milliseconds after which a probe of an endpoint fails (default: 2000).");
+        options.addOption(null, "down-policy", true,
+                "What source selection does with monitored endpoints that are down (default: skip; report).");
+        options.addOption(null, "ask-cache", true,
+                "Share ASK answers across queries, keeping at most this number of answers (default: no cache).");
+        options.addOption(null, "ask-cache-ttl", true,
+                "Time to live of shared ASK answers, in seconds (default: 3600).");
+        options.addOption(null, "ask-cache-file", true,
+                "File where shared ASK answers are loaded from at startup, and saved to at shutdown.");
 
 
         CommandLineParser parser = new DefaultParser();
@@ -64,11 +102,59 @@ public class FedUPServer {
         // TODO create a fedup factory
         // TODO parse the arg
         // TODO or encode it within the dataset by default.
-        ModuloOnSuffix strategy = new ModuloOnSuffix(1);
+        int modulo = 1;
+
+        EndpointGuard endpointGuard = new EndpointGuard() // shared by all requests
+                .setConcurrency(cmd.hasOption("ask-concurrency") ?
+                        Integer.parseInt(cmd.getOptionValue("ask-concurrency")) : EndpointGuard.DEFAULT_CONCURRENCY)
+                .setCoolDown(cmd.hasOption("cool-down") ?
+                        Long.parseLong(cmd.getOptionValue("cool-down")) * 1000 : EndpointGuard.DEFAULT_COOL_DOWN);
+
+        SharedHttpClient httpClient = new SharedHttpClient( // shared by all requests
+                "1.1".equals(cmd.getOptionValue("http-version")) ? HttpClient.Version.HTTP_1_1 : HttpClient.Version.HTTP_2,
+                SharedHttpClient.DEFAULT_CONNECT_TIMEOUT,
+                cmd.hasOption("http-pool-size") ?
+                        Integer.parseInt(cmd.getOptionValue("http-pool-size")) : SharedHttpClient.UNBOUNDED);
+
+        EndpointMonitor endpointMonitor = null;
+        if (cmd.hasOption("health-interval")) {
+            endpointMonitor = new EndpointMonitor() // shared by all requests
+                    .setInterval(Long.parseLong(cmd.getOptionValue("health-interval")) * 1000)
+                    .setTimeout(cmd.hasOption("health-timeout") ?
+                            Long.parseLong(cmd.getOptionValue("health-timeout")) : EndpointMonitor.DEFAULT_TIMEOUT)
+                    .setPolicy("report".equalsIgnoreCase(cmd.getOptionValue("down-policy")) ?
+                            EndpointMonitor.Policy.REPORT : EndpointMonitor.Policy.SKIP)
+                    .setHttpClient(httpClient);
+        }
+
+        ASKCache askCache = null;
+        if (cmd.hasOption("ask-cache")) {
+            long ttl = cmd.hasOption("ask-cache-ttl") ? Long.parseLong(cmd.getOptionValue("ask-cache-ttl")) : 3600;
+            askCache = new ASKCache(ttl * 1000, Integer.parseInt(cmd.getOptionValue("ask-cache")));
+            if (cmd.hasOption("ask-cache-file")) {
+                Path file = Path.of(cmd.getOptionValue("ask-cache-file"));
+                try {
+                    askCache.load(file);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                System.out.println("ASK answers loaded: " + askCache.size());
+                ASKCache toSave = askCache;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        toSave.save(file);
+                    } catch (IOException e) {
+                        System.err.println("Could not save ASK answers: " + e.getMessage());
+                    }
+                }));
+            }
+        }
 
         List<Pair<String, Summary>> summaries = new ArrayList<>();
         for (Path path: Arrays.stream(cmd.getOptionValues('s')).map(Path::of).toList()) {
-            Summary s = new Summary(strategy, Location.create(path));
+            Summary s = path.toFile().isFile() ?
+                    SummaryFactory.createModuloOnSuffix(modulo, path) : // read-only memory-mapped file
+                    SummaryFactory.createModuloOnSuffix(modulo, Location.create(path)); // with its refinements
             // Export the results in the HTTP response?
             s.getSummary().getContext().set(FedUPConstants.EXPORT_PLANS, cmd.hasOption("x"));
             // Which engine use once the sources are assigned?
@@ -78,7 +164,22 @@ public class FedUPServer {
                 s.getSummary().getContext().set(FedUPConstants.EXECUTION_ENGINE, FedUPConstants.APACHE_JENA);
             }
             s.getSummary().getContext().set(ARQ.optimization, false);
+            s.getSummary().getContext().set(FedUPConstants.SUMMARY, s); // with its filters and index
+            s.getSummary().getContext().set(FedUPConstants.ENDPOINT_GUARD, endpointGuard);
+            s.getSummary().getContext().set(FedUPConstants.HTTP_CLIENT, httpClient);
+            s.getSummary().getContext().set(FedUPConstants.BATCHED_ASKS, cmd.hasOption("batch-asks"));
+            s.getSummary().getContext().set(FedUPConstants.PAIR_ASKS, cmd.hasOption("pair-asks"));
+            if (cmd.hasOption("filter-asks")) {
+                s.getSummary().getContext().set(FedUPConstants.FILTER_ASK_COST, Long.parseLong(cmd.getOptionValue("filter-asks")));
+            }
+            if (cmd.hasOption("deadline")) {
+                s.getSummary().getContext().set(FedUPConstants.ASK_DEADLINE, Long.parseLong(cmd.getOptionValue("deadline")));
+            }
+            if (Objects.nonNull(askCache)) {
+                s.getSummary().getContext().set(FedUPConstants.ASK_CACHE, askCache);
+            }
             summaries.add(new ImmutablePair<>(path.getFileName().toString(), s));
+            Function<String, String> toEndpoint = FedUPEngine.DEFAULT_MODIFY_ENDPOINTS;
             if (cmd.hasOption("m")) {
                 // When graphs in summaries differ from actual endpoints, it's useful to
                 // be able to change them at runtime, without re-ingesting the summary.
@@ -88,6 +189,11 @@ public class FedUPServer {
                     throw new UnsupportedOperationException("The lambda expression does not seem valid.");
                 }
                 s.getSummary().getContext().set(FedUPConstants.MODIFY_ENDPOINTS, lambda);
+                toEndpoint = lambda;
+            }
+            if (Objects.nonNull(endpointMonitor)) { // probed before the first query
+                endpointMonitor.track(s.getGraphs().stream().map(toEndpoint).toList());
+                s.getSummary().getContext().set(FedUPConstants.ENDPOINT_MONITOR, endpointMonitor);
             }
         }
 
@@ -101,7 +207,11 @@ public class FedUPServer {
         var builder = FusekiServer.create()
                 .port(port)
                 .enableCors(true, "")
-                .verbose(true);
+                .verbose(true)
+                .addServlet(FedUPMetricsServlet.PATH, new FedUPMetricsServlet(httpClient));
+        if (Objects.nonNull(endpointMonitor)) {
+            builder.addServlet(FedUPHealthServlet.PATH, new FedUPHealthServlet(endpointMonitor.start()));
+        }
 
         for (Pair<String, Summary> nameAndSummary : summaries) {
             System.out.println("Summary available: " + nameAndSummary.getLeft());
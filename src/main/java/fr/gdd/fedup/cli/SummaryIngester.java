@@ -1,17 +1,39 @@
 package fr.gdd.fedup.cli;
 
+import fr.gdd.fedup.summary.AdaptiveModuloOnSuffix;
+import fr.gdd.fedup.summary.DumpReader;
+import fr.gdd.fedup.summary.GraphFilters;
+import fr.gdd.fedup.summary.IngestionPipeline;
+import fr.gdd.fedup.summary.MappedSummary;
+import fr.gdd.fedup.summary.QuadDeduplicator;
 import fr.gdd.fedup.summary.Summary;
 import fr.gdd.fedup.summary.SummaryFactory;
 import org.apache.commons.cli.*;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.atlas.iterator.IteratorCloseable;
 import org.apache.jena.dboe.base.file.Location;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.ReadWrite;
+import org.apache.jena.riot.system.AsyncParser;
 import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
 import org.apache.jena.tdb2.TDB2Factory;
 
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * A class that contains a main to enable easy ingestion of
@@ -23,32 +45,88 @@ import java.util.Iterator;
 public class SummaryIngester {
 
     // mvn exec:java -Dmain.class="fr.gdd.fedup.summary.SummaryIngester"
-    public static void main(String[] args) throws ParseException {
+    public static void main(String[] args) throws ParseException, IOException {
         Options options = new Options();
 
         options.addOption(new Option("h", "help", false, "print this message"));
 
         options.addOption(new Option("hash",true,"The modulo value of the hash that summarizes (default: 0)."));
-        options.addOption(new Option("i", "input", true, "The path to the TDB2 dataset to summarize."));
+        options.addOption(new Option("i", "input", true, "The path to the TDB2 dataset to summarize, or comma-separated paths to N-Triples/N-Quads dumps (.nt, .nq, optionally .gz)."));
+        options.addOption(new Option("g", "graph", true, "The graph that triples of N-Triples dumps belong to."));
         options.addOption(new Option("o", "output", true, "The path to the TDB2 dataset summarized."));
+        options.addOption(new Option("t", "threads", true, "The number of threads summarizing graphs in parallel (default: 1)."));
+        options.addOption(new Option("c", "counts", false, "Keep reference counts of summarized quads to allow incremental updates (sequential)."));
+        options.addOption(new Option("a", "additions", true, "The N-Quads file of quads added since the summary was built (update mode, no input needed)."));
+        options.addOption(new Option("d", "deletions", true, "The N-Quads file of quads removed since the summary was built (update mode, no input needed)."));
+        options.addOption(new Option("s", "split", true, "The folder where to write one partial summary file per graph of the input, instead of a TDB2 output."));
+        options.addOption(new Option("m", "merge", true, "Comma-separated paths to partial summary files to merge into the binary summary file (no input needed)."));
+        options.addOption(new Option(null, "statistics", false, "Store the number of triples, distinct subjects, and distinct objects of summarized quads and graphs."));
+        options.addOption(new Option(null, "filters", true, "Build Bloom filters of subjects and objects per graph to skip ASKs, sized for this number of distinct subjects, objects, and predicate-object pairs per graph (e.g., 1000000)."));
+        options.addOption(new Option(null, "refine", true, "The finer modulo of authorities that appear in many graphs, or in many queries of the workload."));
+        options.addOption(new Option(null, "refine-min", true, "The number of graphs, or of occurrences in the workload, from which an authority is refined (default: 2)."));
+        options.addOption(new Option(null, "workload", true, "Comma-separated paths to SPARQL query files whose constants drive refinements."));
+        options.addOption(new Option(null, "offheap", false, "Deduplicate summarized quads in sets allocated outside the heap."));
+        options.addOption(new Option("b", "binary", true, "The path to the read-only memory-mapped summary file to export (optional)."));
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options, args);
 
-        if (cmd.hasOption("help") || cmd.getOptions().length==0 || !cmd.hasOption("input") || !cmd.hasOption("output")) {
+        boolean updateMode = cmd.hasOption("additions") || cmd.hasOption("deletions");
+        boolean mergeMode = cmd.hasOption("merge") && cmd.hasOption("binary");
+        boolean splitMode = cmd.hasOption("split") && cmd.hasOption("input");
+        if (cmd.hasOption("help") || cmd.getOptions().length==0 ||
+                (!mergeMode && !splitMode && (!cmd.hasOption("output") || (!cmd.hasOption("input") && !updateMode)))) {
             HelpFormatter formatter = new HelpFormatter();
             formatter.printHelp("fedup-ingester -i <path> -o <path>", options);
             return;
         }
 
-        Path inputAsPath = Path.of(cmd.getOptionValue("input"));
-        if (!inputAsPath.toFile().isDirectory()) {
+        if (cmd.hasOption("refine") && cmd.hasOption("binary")) {
+            System.out.println("Refinements are not exported, so a refined summary cannot be a read-only summary file.");
+            return;
+        }
+
+        if (mergeMode) {
+            List<Path> partials = Arrays.stream(cmd.getOptionValue("merge").split(",")).map(Path::of).toList();
+            Path mergedAsPath = Path.of(cmd.getOptionValue("binary"));
+            int hashModulo = Integer.parseInt(cmd.getOptionValue("hash", "0" ));
+            Summary merged = SummaryFactory.merge(hashModulo, mergedAsPath, partials);
+            System.out.printf("Merged %s partial summaries into %s: %s graphs.%n", partials.size(), mergedAsPath,
+                    merged.getGraphs().size());
+            return;
+        }
+
+        if (splitMode) {
+            Path inputAsPath = Path.of(cmd.getOptionValue("input"));
+            Path splitAsPath = Path.of(cmd.getOptionValue("split"));
+            if (!inputAsPath.toFile().isDirectory() || (!splitAsPath.toFile().isDirectory() && !splitAsPath.toFile().mkdirs())) {
+                System.out.printf("Input TDB2 folder %s or output folder %s is not available…%n", inputAsPath, splitAsPath);
+                return;
+            }
+            int hashModulo = Integer.parseInt(cmd.getOptionValue("hash", "0" ));
+            Long expected = cmd.hasOption("filters") ? Long.parseLong(cmd.getOptionValue("filters")) : null;
+            split(TDB2Factory.connectDataset(Location.create(inputAsPath)), SummaryFactory.createModuloOnSuffix(hashModulo), splitAsPath, expected);
+            return;
+        }
+
+        if (updateMode) {
+            int hashModulo = Integer.parseInt(cmd.getOptionValue("hash", "0" ));
+            Summary summary = SummaryFactory.createModuloOnSuffix(hashModulo, Location.create(Path.of(cmd.getOptionValue("output"))));
+            update(summary, cmd.getOptionValue("additions"), cmd.getOptionValue("deletions"));
+            return;
+        }
+
+        List<Path> dumps = Arrays.stream(cmd.getOptionValue("input").split(",")).map(Path::of).toList();
+        boolean dumpMode = dumps.stream().allMatch(p -> p.toFile().isFile());
+
+        Path inputAsPath = dumps.getFirst();
+        if (!dumpMode && !inputAsPath.toFile().isDirectory()) {
             System.out.printf("Input TDB2 folder %s does not seem to exist…%n", inputAsPath.getFileName().toString());
             return;
         }
 
         Path outputAsPath = Path.of(cmd.getOptionValue("output"));
-        if (!inputAsPath.toFile().isDirectory()) {
+        if (!outputAsPath.toFile().isDirectory()) {
             boolean createFolder = outputAsPath.toFile().mkdirs();
             if (!createFolder) {
                 System.out.printf("There was an issue while creating the output TDB2 folder %s.%n", outputAsPath.getFileName().toString());
@@ -58,9 +136,96 @@ public class SummaryIngester {
 
         int hashModulo = Integer.parseInt(cmd.getOptionValue("hash", "0" ));
         Summary summary = SummaryFactory.createModuloOnSuffix(hashModulo, Location.create(outputAsPath));
+        if (cmd.hasOption("refine")) {
+            Map<Node, Integer> refinements = refine(cmd, dumpMode ? null : inputAsPath);
+            System.out.printf("Refining %s authorities.%n", refinements.size());
+            summary.getSummary().close();
+            summary = SummaryFactory.createAdaptiveModuloOnSuffix(hashModulo, refinements, Location.create(outputAsPath));
+        }
+
+        int nbThreads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+        boolean offHeap = cmd.hasOption("offheap");
+        boolean statistics = cmd.hasOption("statistics");
+        GraphFilters filters = cmd.hasOption("filters") ? new GraphFilters(Long.parseLong(cmd.getOptionValue("filters"))) : null;
+
+        if (dumpMode) {
+            Node graph = cmd.hasOption("graph") ? NodeFactory.createURI(cmd.getOptionValue("graph")) : null;
+            summarizeDumps(dumps, graph, summary, nbThreads, offHeap, cmd.hasOption("counts"), statistics, filters);
+        } else {
+            summarizeDataset(TDB2Factory.connectDataset(Location.create(inputAsPath)), summary, nbThreads, offHeap,
+                    cmd.hasOption("counts"), statistics, filters);
+        }
+
+        if (Objects.nonNull(filters)) {
+            filters.save(outputAsPath.resolve(GraphFilters.FILE_NAME));
+            System.out.printf("Saved the filters of graphs in %s.%n", outputAsPath);
+        }
 
-        Dataset inputDataset = TDB2Factory.connectDataset(Location.create(inputAsPath));
+        summary.getSummary().begin(ReadWrite.READ);
+        System.out.printf("Number of statements: %s.%n", summary.getSummary().getUnionModel().size());
+        summary.getSummary().commit();
+        summary.getSummary().close();
+
+        if (cmd.hasOption("binary")) {
+            Path binaryAsPath = Path.of(cmd.getOptionValue("binary"));
+            summary.getSummary().begin(ReadWrite.READ);
+            MappedSummary.write(summary.getSummary().asDatasetGraph(), binaryAsPath);
+            summary.getSummary().commit();
+            summary.getSummary().close();
+            System.out.printf("Exported the summary to %s.%n", binaryAsPath);
+            if (Objects.nonNull(filters)) {
+                filters.save(GraphFilters.sidecarOf(binaryAsPath));
+            }
+        }
+    }
 
+    static void summarizeDataset(Dataset inputDataset, Summary summary, int nbThreads, boolean offHeap,
+                                 boolean counts, boolean statistics, GraphFilters filters) {
+        // statistics and filters are collected by the workers of the pipeline
+        boolean pipelined = nbThreads > 1 || statistics || Objects.nonNull(filters);
+        if (counts && statistics) {
+            System.out.println("Statistics include reference counts, ignoring the counting option.");
+        } else if (counts && pipelined) {
+            System.out.println("Reference counts are computed sequentially, use statistics to get them in parallel.");
+        }
+        int nbGraphs = counts && !pipelined ?
+                summarizeWithCounts(inputDataset, summary) :
+                pipelined ?
+                        summarizeInParallel(inputDataset, summary, nbThreads, offHeap, statistics, filters) :
+                        summarize(inputDataset, summary, offHeap);
+        System.out.printf("Number of graphs in summary: %s.%n", nbGraphs);
+    }
+
+    /**
+     * Streams dump files straight into the summary, without loading them first.
+     * Each file is cut into chunks that are parsed and summarized in parallel.
+     * Reference counts come with statistics, since chunks are summarized concurrently.
+     */
+    static void summarizeDumps(List<Path> dumps, Node graph, Summary summary, int nbThreads, boolean offHeap,
+                               boolean counts, boolean statistics, GraphFilters filters) throws IOException {
+        if (counts && !statistics) {
+            System.out.println("Reference counts of dumps are collected along with statistics.");
+        }
+        IngestionPipeline pipeline = new IngestionPipeline(summary, nbThreads).setOffHeap(offHeap)
+                .setStatistics(counts || statistics).setFilters(filters);
+        try (pipeline) {
+            DumpReader reader = new DumpReader(pipeline, nbThreads);
+            for (int i = 0; i < dumps.size(); ++i) {
+                System.out.printf("%s: Started streaming %s…%n", i + 1, dumps.get(i));
+                long nbLines = reader.read(dumps.get(i), graph);
+                System.out.printf("%s: Read %s lines from %s.%n", i + 1, nbLines, dumps.get(i));
+            }
+        }
+        System.out.printf("Summarized %s quads into %s quads (compression ratio: %.1f).%n",
+                pipeline.getNbRead(), pipeline.getNbWritten(), pipeline.getCompressionRatio());
+    }
+
+    /**
+     * Summarizes graphs one after the other.
+     * @return The number of graphs summarized.
+     */
+    static int summarize(Dataset inputDataset, Summary summary, boolean offHeap) {
+        QuadDeduplicator deduplicator = new QuadDeduplicator(offHeap);
         inputDataset.begin(ReadWrite.READ);
         Iterator<Node> graphs = inputDataset.asDatasetGraph().listGraphNodes();
         int nbGraphs = 0;
@@ -79,15 +244,169 @@ public class SummaryIngester {
 
             System.out.printf("%s: Summary contains %s triples for this graph.%n", nbGraphs, graphSize);
 
-            summary.add(quads);
+            summary.add(quads, deduplicator);
         }
         inputDataset.commit();
         inputDataset.close();
-        System.out.printf("Number of graphs in summary: %s.%n", nbGraphs);
+        System.out.printf("Summarized %s quads into %s quads (compression ratio: %.1f).%n",
+                deduplicator.getNbIn(), deduplicator.getNbOut(), deduplicator.getCompressionRatio());
+        return nbGraphs;
+    }
 
-        summary.getSummary().begin(ReadWrite.READ);
-        System.out.printf("Number of statements: %s.%n", summary.getSummary().getUnionModel().size());
-        summary.getSummary().commit();
-        summary.getSummary().close();
+    /**
+     * Summarizes graphs concurrently, each worker reading its own graph within its
+     * own read transaction, while a single writer fills the summary.
+     * @return The number of graphs summarized.
+     */
+    static int summarizeInParallel(Dataset inputDataset, Summary summary, int nbThreads, boolean offHeap,
+                                   boolean statistics, GraphFilters filters) {
+        inputDataset.begin(ReadWrite.READ);
+        List<Node> graphs = new ArrayList<>();
+        inputDataset.asDatasetGraph().listGraphNodes().forEachRemaining(graphs::add);
+        inputDataset.commit();
+        inputDataset.end();
+
+        IngestionPipeline pipeline = new IngestionPipeline(summary, nbThreads).setOffHeap(offHeap)
+                .setStatistics(statistics).setFilters(filters);
+        try (pipeline) {
+            for (int i = 0; i < graphs.size(); ++i) {
+                Node graphNode = graphs.get(i);
+                int nbGraph = i + 1;
+                pipeline.submit(() -> {
+                    System.out.printf("%s: Started summarizing %s…%n", nbGraph, graphNode.getURI());
+                    inputDataset.begin(ReadWrite.READ);
+                    Iterator<Triple> triples = inputDataset.asDatasetGraph().getGraph(graphNode).find();
+                    return new Iterator<>() {
+                        boolean open = true;
+
+                        @Override
+                        public boolean hasNext() {
+                            if (open && !triples.hasNext()) { // the worker is done with this graph
+                                inputDataset.end();
+                                open = false;
+                            }
+                            return open;
+                        }
+
+                        @Override
+                        public Quad next() {
+                            Triple t = triples.next();
+                            return Quad.create(graphNode, t.getSubject(), t.getPredicate(), t.getObject());
+                        }
+                    };
+                });
+            }
+        }
+        System.out.printf("Summarized %s quads into %s quads (compression ratio: %.1f).%n",
+                pipeline.getNbRead(), pipeline.getNbWritten(), pipeline.getCompressionRatio());
+        return graphs.size();
+    }
+
+    /**
+     * Writes one partial summary file per graph of the input, so they can be
+     * built on different machines and merged afterwards.
+     * @param summary The summary whose strategy transforms quads; it is not modified.
+     * @param expected The expected number of constants per graph to size filters; null for no filters.
+     */
+    static void split(Dataset inputDataset, Summary summary, Path folder, Long expected) throws IOException {
+        inputDataset.begin(ReadWrite.READ);
+        List<Node> graphs = new ArrayList<>();
+        inputDataset.asDatasetGraph().listGraphNodes().forEachRemaining(graphs::add);
+        for (int i = 0; i < graphs.size(); ++i) {
+            Node graphNode = graphs.get(i);
+            Path partial = folder.resolve(partialFileName(graphNode));
+            System.out.printf("%s: Started summarizing %s into %s…%n", i + 1, graphNode.getURI(), partial);
+            Iterator<Quad> quads = inputDataset.asDatasetGraph().find(graphNode, Node.ANY, Node.ANY, Node.ANY);
+            if (Objects.isNull(expected)) {
+                summary.writePartial(quads, partial);
+            } else {
+                GraphFilters filters = new GraphFilters(expected);
+                summary.writePartial(Iter.map(quads, q -> { filters.add(q); return q; }), partial);
+                filters.save(GraphFilters.sidecarOf(partial));
+            }
+        }
+        inputDataset.end();
+        inputDataset.close();
+        System.out.printf("Wrote %s partial summaries into %s.%n", graphs.size(), folder);
+    }
+
+    static String partialFileName(Node graph) {
+        return URLEncoder.encode(graph.getURI(), StandardCharsets.UTF_8) + ".fsu";
+    }
+
+    /**
+     * @param input The TDB2 input to scan for authorities spread over many graphs; null
+     *              if it cannot be scanned beforehand.
+     * @return The authorities to summarize with a finer modulo.
+     */
+    static Map<Node, Integer> refine(CommandLine cmd, Path input) throws IOException {
+        int fineModulo = Integer.parseInt(cmd.getOptionValue("refine"));
+        int min = Integer.parseInt(cmd.getOptionValue("refine-min", "2"));
+        if (cmd.hasOption("workload")) {
+            List<String> queries = new ArrayList<>();
+            for (String path : cmd.getOptionValue("workload").split(",")) {
+                queries.add(Files.readString(Path.of(path)));
+            }
+            return AdaptiveModuloOnSuffix.refineHotAuthorities(queries, min, fineModulo);
+        }
+        if (Objects.isNull(input)) {
+            System.out.println("Dumps are read once, so refinements need a workload.");
+            return Map.of();
+        }
+        Dataset inputDataset = TDB2Factory.connectDataset(Location.create(input));
+        return Txn.calculateRead(inputDataset, () -> AdaptiveModuloOnSuffix.refineSpreadAuthorities(
+                inputDataset.asDatasetGraph().find(), min, fineModulo));
+    }
+
+    /**
+     * Summarizes graphs one after the other, while counting the source quads of
+     * each summarized quad so the summary can be updated incrementally later on.
+     * @return The number of graphs summarized.
+     */
+    static int summarizeWithCounts(Dataset inputDataset, Summary summary) {
+        inputDataset.begin(ReadWrite.READ);
+        Iterator<Node> graphs = inputDataset.asDatasetGraph().listGraphNodes();
+        int nbGraphs = 0;
+        while (graphs.hasNext()) {
+            Node graphNode = graphs.next();
+            ++nbGraphs;
+            System.out.printf("%s: Started summarizing %s with reference counts…%n", nbGraphs, graphNode.getURI());
+            summary.update(inputDataset.asDatasetGraph().find(graphNode, Node.ANY, Node.ANY, Node.ANY),
+                    Collections.emptyIterator());
+        }
+        inputDataset.commit();
+        inputDataset.close();
+        return nbGraphs;
+    }
+
+    /**
+     * Applies the delta files to an existing summary.
+     * @param additions The path to the N-Quads file of added quads, or null.
+     * @param deletions The path to the N-Quads file of removed quads, or null.
+     */
+    static void update(Summary summary, String additions, String deletions) {
+        IteratorCloseable<Quad> added = parse(additions);
+        IteratorCloseable<Quad> removed = parse(deletions);
+        try {
+            summary.update(namedOnly(added), namedOnly(removed));
+        } finally {
+            added.close();
+            removed.close();
+        }
+        System.out.println("Applied the updates to the summary.");
+    }
+
+    static IteratorCloseable<Quad> parse(String path) {
+        return Objects.isNull(path) ? Iter.empty() : AsyncParser.asyncParseQuads(path);
+    }
+
+    static Iterator<Quad> namedOnly(Iterator<Quad> quads) {
+        return Iter.filter(quads, q -> {
+            if (q.isDefaultGraph()) {
+                System.out.printf("Ignoring %s since it does not belong to a named graph.%n", q);
+                return false;
+            }
+            return true;
+        });
     }
 }
@@ -0,0 +1,116 @@
+package fr.gdd.fedup.collections;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over 64-bit hashes of values. It answers that a value was
+ * definitely not added, or that it might have been, with a false positive
+ * probability chosen at creation. The `k` probes are derived from a single
+ * hash by double hashing. Bits are set atomically, so several threads can add
+ * values concurrently.
+ */
+public class BloomFilter {
+
+    final AtomicLongArray words;
+    final long nbBits;
+    final int nbHashes;
+
+    /**
+     * @param expected The expected number of distinct values.
+     * @param falsePositiveProbability The targeted probability of false positives when full.
+     */
+    public BloomFilter(long expected, double falsePositiveProbability) {
+        long bits = (long) Math.ceil(-Math.max(1, expected) * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int nbWords = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + 63) / 64));
+        this.words = new AtomicLongArray(nbWords);
+        this.nbBits = (long) nbWords * 64;
+        this.nbHashes = Math.max(1, (int) Math.round((double) nbBits / Math.max(1, expected) * Math.log(2)));
+    }
+
+    BloomFilter(long[] words, int nbHashes) {
+        this.words = new AtomicLongArray(words);
+        this.nbBits = (long) words.length * 64;
+        this.nbHashes = nbHashes;
+    }
+
+    /**
+     * @param hash A well-mixed hash of the value, see {@link #hash(CharSequence)}.
+     */
+    public void add(long hash) {
+        long h1 = hash;
+        long h2 = LongRowHashSet.mix(hash) | 1L;
+        for (int i = 0; i < nbHashes; ++i) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, nbBits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+                current = words.get(word);
+            }
+        }
+    }
+
+    /**
+     * @param hash A well-mixed hash of the value, see {@link #hash(CharSequence)}.
+     * @return False if the value was definitely not added; true if it might have been.
+     */
+    public boolean mightContain(long hash) {
+        long h1 = hash;
+        long h2 = LongRowHashSet.mix(hash) | 1L;
+        for (int i = 0; i < nbHashes; ++i) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, nbBits);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param other A filter created with the same parameters; its values are added to this one.
+     */
+    public void merge(BloomFilter other) {
+        if (other.nbBits != nbBits || other.nbHashes != nbHashes) {
+            throw new IllegalArgumentException("Cannot merge filters of different sizes.");
+        }
+        for (int i = 0; i < words.length(); ++i) {
+            long theirs = other.words.get(i);
+            words.getAndAccumulate(i, theirs, (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * @return The 64-bit FNV-1a hash of the characters, mixed with SplitMix64.
+     */
+    public static long hash(CharSequence value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); ++i) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return LongRowHashSet.mix(h);
+    }
+
+    /* ********************************************************************** */
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(nbHashes);
+        out.writeInt(words.length());
+        for (int i = 0; i < words.length(); ++i) {
+            out.writeLong(words.get(i));
+        }
+    }
+
+    public static BloomFilter read(DataInputStream in) throws IOException {
+        int nbHashes = in.readInt();
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; ++i) {
+            words[i] = in.readLong();
+        }
+        return new BloomFilter(words, nbHashes);
+    }
+
+}
@@ -0,0 +1,74 @@
+package fr.gdd.fedup.collections;
+
+/**
+ * HyperLogLog sketch that estimates the number of distinct values it saw
+ * in constant memory: 2^precision registers of one byte each. The relative
+ * standard error is about 1.04 / sqrt(2^precision). Sketches with the same
+ * precision can be merged, e.g., when several threads build them. Not
+ * thread-safe.
+ */
+public class HyperLogLog {
+
+    final int precision;
+    final byte[] registers;
+
+    /**
+     * @param precision The number of bits that select a register, in [4, 16].
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be within [4, 16].");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * @param hash A well-mixed 64-bit hash of the value, e.g., from {@link LongRowHashSet#mix}.
+     */
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        long remaining = hash << precision;
+        int rank = Math.min(Long.numberOfLeadingZeros(remaining), 64 - precision) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * @param other The sketch to absorb, of the same precision.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of different precisions.");
+        }
+        for (int i = 0; i < registers.length; ++i) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    /**
+     * @return The estimated number of distinct values added so far.
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0.;
+        int nbZeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1., -register);
+            if (register == 0) { ++nbZeros; }
+        }
+        double alpha = switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1. + 1.079 / m);
+        };
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && nbZeros > 0) { // small ranges are better served by linear counting
+            estimate = m * Math.log((double) m / nbZeros);
+        }
+        return Math.round(estimate);
+    }
+
+}
@@ -0,0 +1,204 @@
+package fr.gdd.fedup.collections;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Open-addressing hash set of fixed-width rows of primitive longs. Rows are
+ * compared entirely on collision, so membership is exact. Storage is either
+ * a plain `long[]`, or a direct buffer allocated outside the Java heap so large
+ * sets do not put pressure on the garbage collector.
+ *
+ * Each slot holds the hash of the row, with its lowest bit forced to 1 so
+ * that 0 means empty, followed by the row itself. Not thread-safe.
+ */
+public class LongRowHashSet {
+
+    static final double LOAD_FACTOR = 0.6;
+
+    final int width; // number of longs per row
+    final int slotWidth; // width + 1 for the hash
+    final boolean offHeap;
+    LongBuffer slots;
+    int capacity; // number of slots, a power of 2
+    int size = 0;
+
+    /**
+     * @param width The number of longs in a row.
+     * @param expected The expected number of rows, to avoid growing too often.
+     * @param offHeap True to store rows in a direct buffer outside the heap.
+     */
+    public LongRowHashSet(int width, int expected, boolean offHeap) {
+        this.width = width;
+        this.slotWidth = width + 1;
+        this.offHeap = offHeap;
+        this.capacity = Math.max(16, Integer.highestOneBit((int) Math.ceil(expected / LOAD_FACTOR)) << 1);
+        this.slots = allocate(capacity);
+    }
+
+    public LongRowHashSet(int width) {
+        this(width, 1024, false);
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public int getWidth() { return width; }
+
+    /**
+     * @param row The row to add, of length `width`.
+     * @return True if the row was not already in the set.
+     */
+    public boolean add(long... row) {
+        if (size + 1 > capacity * LOAD_FACTOR) {
+            grow();
+        }
+        long hash = hash(row);
+        int slot = find(hash, row, slots, capacity);
+        if (slots.get(slot * slotWidth) != 0L) {
+            return false;
+        }
+        write(slots, slot, hash, row);
+        ++size;
+        return true;
+    }
+
+    /**
+     * @param row The row to look for, of length `width`.
+     * @return True if the row is in the set.
+     */
+    public boolean contains(long... row) {
+        long hash = hash(row);
+        return slots.get(find(hash, row, slots, capacity) * slotWidth) != 0L;
+    }
+
+    /**
+     * @param i The index of the slot, in [0, capacity).
+     * @param into The array of length `width` to fill with the row.
+     * @return True if the slot was occupied and `into` was filled.
+     */
+    boolean get(int i, long[] into) {
+        int base = i * slotWidth;
+        if (slots.get(base) == 0L) {
+            return false;
+        }
+        for (int j = 0; j < width; ++j) {
+            into[j] = slots.get(base + 1 + j);
+        }
+        return true;
+    }
+
+    /**
+     * Calls the consumer on every row of the set, in no particular order. The
+     * array given to the consumer is reused between calls.
+     */
+    public void forEach(Consumer<long[]> consumer) {
+        long[] row = new long[width];
+        for (int i = 0; i < capacity; ++i) {
+            if (get(i, row)) {
+                consumer.accept(row);
+            }
+        }
+    }
+
+    /* ************************************************************************ */
+
+    final LongBuffer allocate(int nbSlots) {
+        long size = (long) nbSlots * slotWidth;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The set of rows is too large.");
+        }
+        return offHeap ?
+                ByteBuffer.allocateDirect((int) size * Long.BYTES).asLongBuffer() : // zeroed
+                LongBuffer.wrap(new long[(int) size]);
+    }
+
+    int find(long hash, long[] row, LongBuffer in, int nbSlots) {
+        int mask = nbSlots - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (true) { // linear probing, the load factor guarantees an empty slot
+            int base = slot * slotWidth;
+            long stored = in.get(base);
+            if (stored == 0L || stored == hash && equals(in, base + 1, row)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    boolean equals(LongBuffer in, int offset, long[] row) {
+        for (int j = 0; j < width; ++j) {
+            if (in.get(offset + j) != row[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void write(LongBuffer in, int slot, long hash, long[] row) {
+        int base = slot * slotWidth;
+        in.put(base, hash);
+        for (int j = 0; j < width; ++j) {
+            in.put(base + 1 + j, row[j]);
+        }
+    }
+
+    void grow() {
+        int newCapacity = capacity << 1;
+        LongBuffer newSlots = allocate(newCapacity);
+        long[] row = new long[width];
+        for (int i = 0; i < capacity; ++i) {
+            if (get(i, row)) {
+                long hash = slots.get(i * slotWidth);
+                write(newSlots, find(hash, row, newSlots, newCapacity), hash, row);
+            }
+        }
+        this.slots = newSlots;
+        this.capacity = newCapacity;
+    }
+
+    /**
+     * @return A well-mixed hash of the row whose lowest bit is 1.
+     */
+    static long hash(long[] row) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (long value : row) {
+            h = mix(h ^ value) * 0x9E3779B97F4A7C15L;
+        }
+        return mix(h) | 1L;
+    }
+
+    /**
+     * Packs two 32-bit identifiers per long, so rows of identifiers take half the width.
+     * Packing is injective, negative identifiers included.
+     * @param ints The identifiers.
+     * @param packed The row to fill, of length `(ints.length + 1) / 2` at least.
+     * @return The packed row.
+     */
+    public static long[] pack(int[] ints, long[] packed) {
+        for (int i = 0; i < ints.length; i += 2) {
+            long high = Integer.toUnsignedLong(ints[i]) << 32;
+            long low = i + 1 < ints.length ? Integer.toUnsignedLong(ints[i + 1]) : 0L;
+            packed[i >> 1] = high | low;
+        }
+        return packed;
+    }
+
+    /**
+     * @return The number of longs needed to pack this number of identifiers, at least 1.
+     */
+    public static int packedWidth(int nbInts) {
+        return Math.max(1, (nbInts + 1) / 2);
+    }
+
+    /**
+     * Finalizer of SplitMix64.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -8,9 +8,19 @@ import org.apache.jena.sparql.util.Symbol;
  */
 public class FedUPConstants {
 
+    public static final Symbol SUMMARY = Symbol.create("FedUP_Summary");
     public static final Symbol EXECUTION_ENGINE = Symbol.create("FedUP_ExecutionEngine");
     public static final Symbol EXPORT_PLANS = Symbol.create("FedUP_ExportPlans");
     public static final Symbol MODIFY_ENDPOINTS = Symbol.create("FedUP_ModifyEndpoints");
+    public static final Symbol ASK_CACHE = Symbol.create("FedUP_ASKCache");
+    public static final Symbol ENDPOINT_GUARD = Symbol.create("FedUP_EndpointGuard");
+    public static final Symbol ASK_DEADLINE = Symbol.create("FedUP_ASKDeadline");
+    public static final Symbol HTTP_CLIENT = Symbol.create("FedUP_HttpClient");
+    public static final Symbol ENDPOINT_MONITOR = Symbol.create("FedUP_EndpointMonitor");
+    public static final Symbol BATCHED_ASKS = Symbol.create("FedUP_BatchedASKs");
+    public static final Symbol PAIR_ASKS = Symbol.create("FedUP_PairASKs");
+    public static final Symbol FILTER_ASK_COST = Symbol.create("FedUP_FilterASKCost");
+    public static final Symbol PARALLEL_PLANS = Symbol.create("FedUP_ParallelPlans");
 
     public static final String APACHE_JENA = "Jena";
     public static final String FEDX = "FedX";
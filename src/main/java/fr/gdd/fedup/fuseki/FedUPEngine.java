@@ -1,8 +1,8 @@
 package fr.gdd.fedup.fuseki;
 
 import fr.gdd.fedup.FedUP;
-import fr.gdd.fedup.summary.ModuloOnSuffix;
 import fr.gdd.fedup.summary.Summary;
+import fr.gdd.fedup.summary.SummaryFactory;
 import fr.gdd.fedup.transforms.RemoveGraphsTransform;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.query.DatasetFactory;
@@ -14,20 +14,32 @@ import org.apache.jena.sparql.core.DatasetImpl;
 import org.apache.jena.sparql.engine.*;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.engine.binding.BindingRoot;
+import org.apache.jena.sparql.engine.main.QueryEngineMain;
+import org.apache.jena.sparql.exec.http.Service;
 import org.apache.jena.sparql.util.Context;
-import org.apache.jena.tdb2.solver.QueryEngineTDB;
-import org.apache.jena.tdb2.store.DatasetGraphTDB;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 
+import java.util.Objects;
 import java.util.function.Function;
 
-public class FedUPEngine extends QueryEngineTDB {
+/**
+ * Query engine of summaries served by Fuseki: instead of evaluating the query on the
+ * summary, it builds the federated query and executes it. Summaries can be TDB2 datasets
+ * or read-only memory-mapped files.
+ */
+public class FedUPEngine extends QueryEngineMain {
 
-    protected FedUPEngine(Op op, DatasetGraphTDB dataset, Binding input, Context context) {
+    /**
+     * The default behavior when the server does not modify endpoints, kept so it does not break anything.
+     */
+    public static final Function<String, String> DEFAULT_MODIFY_ENDPOINTS =
+            e -> "http://localhost:5555/sparql?default-graph-uri=" + (e.substring(0, e.length() - 1));
+
+    protected FedUPEngine(Op op, DatasetGraph dataset, Binding input, Context context) {
         super(op, dataset, input, context);
     }
 
-    protected FedUPEngine(Query query, DatasetGraphTDB dataset, Binding input, Context context) {
+    protected FedUPEngine(Query query, DatasetGraph dataset, Binding input, Context context) {
         super(query, dataset, input, context);
     }
 
@@ -43,16 +55,39 @@ public class FedUPEngine extends QueryEngineTDB {
     public QueryIterator eval(Op op, DatasetGraph dsg, Binding input, Context context) {
         op = Transformer.transform(new RemoveGraphsTransform(), op);
 
-        // TODO fedup factory builds this in main
-        FedUP fedup = new FedUP(new Summary(new ModuloOnSuffix(1), DatasetImpl.wrap(dsg)))
-                .shouldNotFactorize();
+        // the summary opened by the server, along with its filters and index, is shared by all requests
+        Summary summary = context.isDefined(FedUPConstants.SUMMARY) ?
+                context.get(FedUPConstants.SUMMARY) :
+                SummaryFactory.createModuloOnSuffix(1, DatasetImpl.wrap(dsg)); // with its refinements
+        FedUP fedup = new FedUP(summary).shouldNotFactorize();
 
         if (context.isDefined(FedUPConstants.MODIFY_ENDPOINTS)) {
             Function<String, String> lambda = context.get(FedUPConstants.MODIFY_ENDPOINTS);
             fedup.modifyEndpoints(lambda);
         } else {
-            // we keep the default behavior so it does not break anything
-            fedup.modifyEndpoints(e -> "http://localhost:5555/sparql?default-graph-uri=" + (e.substring(0, e.length() - 1)));
+            fedup.modifyEndpoints(DEFAULT_MODIFY_ENDPOINTS);
+        }
+
+        if (context.isDefined(FedUPConstants.ASK_CACHE)) { // shared by all requests
+            fedup.setASKCache(context.get(FedUPConstants.ASK_CACHE));
+        }
+        if (context.isDefined(FedUPConstants.ENDPOINT_GUARD)) { // shared by all requests
+            fedup.setEndpointGuard(context.get(FedUPConstants.ENDPOINT_GUARD));
+        }
+        if (context.isDefined(FedUPConstants.ASK_DEADLINE)) {
+            fedup.setASKDeadline(context.get(FedUPConstants.ASK_DEADLINE));
+        }
+        if (context.isDefined(FedUPConstants.HTTP_CLIENT)) { // shared by all requests
+            fedup.setHttpClient(context.get(FedUPConstants.HTTP_CLIENT));
+        }
+        if (context.isDefined(FedUPConstants.ENDPOINT_MONITOR)) { // shared by all requests
+            fedup.setEndpointMonitor(context.get(FedUPConstants.ENDPOINT_MONITOR));
+        }
+        fedup.setBatchedASKs(context.isTrue(FedUPConstants.BATCHED_ASKS))
+                .setPairASKs(context.isTrue(FedUPConstants.PAIR_ASKS))
+                .setParallelPlans(!context.isFalse(FedUPConstants.PARALLEL_PLANS));
+        if (context.isDefined(FedUPConstants.FILTER_ASK_COST)) {
+            fedup.setFilterASKCost(context.get(FedUPConstants.FILTER_ASK_COST));
         }
 
         if (context.get(FedUPConstants.EXECUTION_ENGINE).equals(FedUPConstants.FEDX)) {
@@ -70,36 +105,47 @@ public class FedUPEngine extends QueryEngineTDB {
         // default engine is Jena:
         Op serviceQueryAsOp = fedup.queryJenaToJena(op);
         context.set(FedUPConstants.EXPORTED, serviceQueryAsOp); // it costs barely nothing
-        return super.eval(serviceQueryAsOp, DatasetFactory.empty().asDatasetGraph(), BindingRoot.create(), new Context());
+        Context serviceContext = new Context();
+        if (Objects.nonNull(fedup.getHttpClient())) { // SERVICE clauses reuse the connections of ASKs
+            serviceContext.set(Service.httpQueryClient, fedup.getHttpClient());
+        }
+        return super.eval(serviceQueryAsOp, DatasetFactory.empty().asDatasetGraph(), BindingRoot.create(), serviceContext);
     }
 
     /* ******************** Factory ********************** */
     public static QueryEngineFactory factory = new FedUPEngineFactory();
 
-    public static class FedUPEngineFactory extends QueryEngineFactoryTDB {
+    public static class FedUPEngineFactory implements QueryEngineFactory {
 
         @Override
         public Plan create(Query query, DatasetGraph dataset, Binding input, Context context) {
-            QueryEngineBase engine = new FedUPEngine(query, dsgToQuery(dataset), input, context);
+            QueryEngineBase engine = new FedUPEngine(query, dataset, input, context);
             return engine.getPlan();
         }
 
         @Override
         public Plan create(Op op, DatasetGraph dataset, Binding binding, Context context) {
-            QueryEngineBase engine = new FedUPEngine(op, dsgToQuery(dataset), binding, context);
+            QueryEngineBase engine = new FedUPEngine(op, dataset, binding, context);
             return engine.getPlan();
         }
 
         @Override
         public boolean accept(Op op, DatasetGraph dataset, Context context) {
-            return !dataset.isEmpty() && super.accept(op, dataset, context);
+            return isSummary(context) && !dataset.isEmpty();
         }
 
         @Override
         public boolean accept(Query query, DatasetGraph dataset, Context context) {
             return onlySELECT(query) &&
-                    !dataset.isEmpty() &&
-                    super.accept(query, dataset, context);
+                    isSummary(context) &&
+                    !dataset.isEmpty();
+        }
+
+        /**
+         * @return True if the dataset has been registered as a summary by the server.
+         */
+        private static boolean isSummary(Context context) {
+            return Objects.nonNull(context) && context.isDefined(FedUPConstants.EXECUTION_ENGINE);
         }
 
         private static boolean onlySELECT(Query query) {
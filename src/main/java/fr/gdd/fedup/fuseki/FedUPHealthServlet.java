@@ -0,0 +1,58 @@
+package fr.gdd.fedup.fuseki;
+
+import fr.gdd.fedup.asks.EndpointMonitor;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serves the health of endpoints, as probed in the background, as JSON, one
+ * entry per endpoint, e.g., at `/$/fedup/health`.
+ */
+public class FedUPHealthServlet extends HttpServlet {
+
+    public static final String PATH = "/$/fedup/health";
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    final transient EndpointMonitor monitor;
+
+    public FedUPHealthServlet(EndpointMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        JsonBuilder builder = JsonBuilder.create().startObject()
+                .pair("policy", monitor.getPolicy().name())
+                .key("endpoints").startObject();
+        for (Map.Entry<String, EndpointMonitor.Health> entry : monitor.getHealthTable().entrySet()) {
+            EndpointMonitor.Health health = entry.getValue();
+            builder.key(entry.getKey()).startObject()
+                    .pair("status", health.status().name())
+                    .pair("latencyMs", health.latency())
+                    .pair("lastCheck", health.lastCheck())
+                    .pair("consecutiveFailures", health.consecutiveFailures());
+            if (Objects.nonNull(health.error())) {
+                builder.pair("error", health.error());
+            }
+            builder.finishObject();
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        try (OutputStream out = response.getOutputStream()) {
+            JSON.write(out, builder.finishObject().finishObject().build());
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package fr.gdd.fedup.fuseki;
+
+import fr.gdd.fedup.asks.SharedHttpClient;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.util.Map;
+
+/**
+ * Serves the utilisation of the connection pools of the shared HTTP client as
+ * JSON, one entry per endpoint, e.g., at `/$/fedup/metrics`.
+ */
+public class FedUPMetricsServlet extends HttpServlet {
+
+    public static final String PATH = "/$/fedup/metrics";
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    final transient SharedHttpClient httpClient; // servlets are not serialized
+
+    public FedUPMetricsServlet(SharedHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        JsonBuilder builder = JsonBuilder.create().startObject();
+        for (Map.Entry<String, SharedHttpClient.Pool> entry : httpClient.getMetrics().entrySet()) {
+            SharedHttpClient.Pool pool = entry.getValue();
+            builder.key(entry.getKey()).startObject()
+                    .pair("size", pool.getSize() == SharedHttpClient.UNBOUNDED ? -1 : pool.getSize())
+                    .pair("inFlight", pool.getInFlight())
+                    .pair("peak", pool.getPeak())
+                    .pair("utilisation", pool.getUtilisation())
+                    .pair("requests", pool.getRequests())
+                    .pair("failures", pool.getFailures())
+                    .pair("busyTimeMs", pool.getBusyTime())
+                    .finishObject();
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        try (OutputStream out = response.getOutputStream()) {
+            JSON.write(out, builder.finishObject().build());
+        }
+    }
+
+}
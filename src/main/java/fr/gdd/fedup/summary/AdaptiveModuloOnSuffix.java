@@ -0,0 +1,159 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.OpVisitorBase;
+import org.apache.jena.sparql.algebra.OpWalker;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpQuadPattern;
+import org.apache.jena.sparql.algebra.op.OpTriple;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+
+import java.util.*;
+
+/**
+ * Hashing on URI suffix with a resolution that depends on the authority. Most
+ * authorities keep the coarse modulo, but the ones that are hot or ambiguous,
+ * i.e., that appear in many graphs so the coarse summary cannot tell graphs
+ * apart, are hashed with a finer modulo. The summary stays small while patterns
+ * about refined authorities get the pruning power of a large modulo.
+ *
+ * Query constants go through the same function as ingested quads, so a single
+ * query on the summary looks at the coarse level for most constants and at the
+ * fine level only for refined authorities. Refinements are stored in the default
+ * graph of the summary, and {@link SummaryFactory} picks them up when opening it.
+ */
+public class AdaptiveModuloOnSuffix extends ModuloOnSuffix {
+
+    final ModuloOnSuffix authorities = new ModuloOnSuffix(1); // scheme://host of URIs
+    final ModuloOnSuffix coarse;
+    final Map<Node, ModuloOnSuffix> refined = new HashMap<>(); // authority -> finer strategy
+    final Map<Node, Integer> refinements;
+
+    /**
+     * @param modulo The coarse modulo applied to most authorities.
+     * @param refinements The authority, e.g., `http://www.vendor1.fr`, to its finer modulo.
+     */
+    public AdaptiveModuloOnSuffix(Integer modulo, Map<Node, Integer> refinements) {
+        super(modulo);
+        this.coarse = new ModuloOnSuffix(modulo);
+        this.refinements = Map.copyOf(refinements);
+        Map<Integer, ModuloOnSuffix> byModulo = new HashMap<>(); // shares caches
+        refinements.forEach((authority, fine) ->
+                refined.put(authority, byModulo.computeIfAbsent(fine, ModuloOnSuffix::new)));
+    }
+
+    public Map<Node, Integer> getRefinements() {
+        return refinements;
+    }
+
+    @Override
+    public Node transform(Node node) {
+        if (node.isURI() && !refined.isEmpty()) {
+            ModuloOnSuffix fine = refined.get(authorities.transform(node));
+            if (Objects.nonNull(fine)) {
+                return fine.transform(node);
+            }
+        }
+        return coarse.transform(node);
+    }
+
+    /* ************************************************************************* */
+
+    /**
+     * Refines the authorities whose URIs appear in many graphs, since the coarse
+     * summary cannot prune any graph for them.
+     * @param quads The source quads, usually a first pass over the data to summarize.
+     * @param minGraphs The number of graphs from which an authority is refined.
+     * @param fineModulo The modulo of refined authorities.
+     * @return The refinements.
+     */
+    public static Map<Node, Integer> refineSpreadAuthorities(Iterator<Quad> quads, int minGraphs, int fineModulo) {
+        ModuloOnSuffix authorities = new ModuloOnSuffix(1);
+        Map<Node, Set<Node>> authority2graphs = new HashMap<>();
+        quads.forEachRemaining(q -> {
+            for (Node node : List.of(q.getSubject(), q.getObject())) {
+                if (node.isURI()) {
+                    authority2graphs.computeIfAbsent(authorities.transform(node), a -> new HashSet<>()).add(q.getGraph());
+                }
+            }
+        });
+        Map<Node, Integer> refinements = new HashMap<>();
+        authority2graphs.forEach((authority, graphs) -> {
+            if (graphs.size() >= minGraphs) {
+                refinements.put(authority, fineModulo);
+            }
+        });
+        return refinements;
+    }
+
+    /**
+     * Refines the authorities of the constants that queries of the workload use the most.
+     * @param queries The SPARQL queries observed on the federation.
+     * @param minOccurrences The number of constants in triple patterns from which an authority is refined.
+     * @param fineModulo The modulo of refined authorities.
+     * @return The refinements.
+     */
+    public static Map<Node, Integer> refineHotAuthorities(List<String> queries, int minOccurrences, int fineModulo) {
+        ModuloOnSuffix authorities = new ModuloOnSuffix(1);
+        Map<Node, Integer> occurrences = new HashMap<>();
+        for (String query : queries) {
+            List<Triple> triples = new ArrayList<>();
+            OpWalker.walk(Algebra.compile(QueryFactory.create(query)), new OpVisitorBase() {
+                @Override public void visit(OpBGP opBGP) { triples.addAll(opBGP.getPattern().getList()); }
+                @Override public void visit(OpTriple opTriple) { triples.add(opTriple.getTriple()); }
+                @Override public void visit(OpQuadPattern opQuadPattern) { triples.addAll(opQuadPattern.getBasicPattern().getList()); }
+            });
+            for (Triple triple : triples) {
+                for (Node node : List.of(triple.getSubject(), triple.getObject())) {
+                    if (node.isURI()) {
+                        occurrences.merge(authorities.transform(node), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        Map<Node, Integer> refinements = new HashMap<>();
+        occurrences.forEach((authority, nb) -> {
+            if (nb >= minOccurrences) {
+                refinements.put(authority, fineModulo);
+            }
+        });
+        return refinements;
+    }
+
+    /* ************************************************************************* */
+
+    /**
+     * @param summary The summary dataset whose default graph holds metadata.
+     * @return The refinements stored in the summary, possibly empty.
+     */
+    public static Map<Node, Integer> read(Dataset summary) {
+        Map<Node, Integer> refinements = new HashMap<>();
+        Txn.executeRead(summary, () -> summary.asDatasetGraph().getDefaultGraph()
+                .find(Node.ANY, SummaryVocabulary.REFINED_MODULO, Node.ANY)
+                .forEachRemaining(t -> refinements.put(t.getSubject(),
+                        ((Number) t.getObject().getLiteralValue()).intValue())));
+        return refinements;
+    }
+
+    /**
+     * Stores the refinements in the summary, replacing previous ones. It must happen
+     * before ingestion, since the summary cannot be refined afterward.
+     * @param summary The summary dataset whose default graph holds metadata.
+     */
+    public void write(Dataset summary) {
+        Txn.executeWrite(summary, () -> {
+            Graph metadata = summary.asDatasetGraph().getDefaultGraph();
+            metadata.remove(Node.ANY, SummaryVocabulary.REFINED_MODULO, Node.ANY);
+            refinements.forEach((authority, fine) ->
+                    metadata.add(authority, SummaryVocabulary.REFINED_MODULO, NodeFactory.createLiteralByValue(fine)));
+        });
+    }
+
+}
@@ -0,0 +1,157 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams N-Triples or N-Quads dump files, possibly gzipped, into an
+ * {@link IngestionPipeline}, so summaries can be built without loading
+ * the dumps into a TDB2 dataset first.
+ *
+ * Both formats have one statement per line, so a single thread cuts the
+ * file into chunks of lines that workers parse and summarize in parallel.
+ * The number of chunks waiting for a worker is bounded to keep the memory
+ * footprint low, whatever the size of the dump. Blank node labels are kept
+ * as given, so they remain consistent across chunks of a same file.
+ */
+public class DumpReader {
+
+    final IngestionPipeline pipeline;
+    final int chunkSize;
+    final Semaphore inFlight;
+
+    /**
+     * @param pipeline The pipeline that summarizes and writes the parsed quads.
+     * @param chunkSize The number of lines per chunk.
+     * @param maxChunksInFlight The number of chunks read but not parsed yet before reading blocks.
+     */
+    public DumpReader(IngestionPipeline pipeline, int chunkSize, int maxChunksInFlight) {
+        this.pipeline = pipeline;
+        this.chunkSize = chunkSize;
+        this.inFlight = new Semaphore(maxChunksInFlight);
+    }
+
+    public DumpReader(IngestionPipeline pipeline, int nbWorkers) {
+        this(pipeline, 100_000, 2 * nbWorkers);
+    }
+
+    /**
+     * @param path The path to the dump, whose extension tells the format, e.g., `.nq.gz`.
+     * @return The language of the dump.
+     */
+    public static Lang langOf(Path path) {
+        String name = path.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - ".gz".length());
+        }
+        Lang lang = RDFLanguages.filenameToLang(name);
+        if (!Objects.equals(lang, Lang.NTRIPLES) && !Objects.equals(lang, Lang.NQUADS)) {
+            throw new IllegalArgumentException("Only N-Triples and N-Quads dumps can be streamed: " + path);
+        }
+        return lang;
+    }
+
+    /**
+     * Reads the whole dump and submits its chunks to the pipeline. It returns when
+     * the last chunk is submitted; closing the pipeline waits for them to be written.
+     * @param path The path to the dump file.
+     * @param graph The graph of triples, mandatory for N-Triples, optional for N-Quads.
+     * @return The number of lines read.
+     */
+    public long read(Path path, Node graph) throws IOException {
+        Lang lang = langOf(path);
+        if (Objects.equals(lang, Lang.NTRIPLES) && Objects.isNull(graph)) {
+            throw new IllegalArgumentException("N-Triples dumps need a graph to belong to: " + path);
+        }
+
+        long nbLines = 0;
+        try (BufferedReader reader = open(path)) {
+            StringBuilder chunk = new StringBuilder();
+            int nbLinesInChunk = 0;
+            String line;
+            while (Objects.nonNull(line = reader.readLine())) {
+                chunk.append(line).append('\n');
+                ++nbLines;
+                if (++nbLinesInChunk >= chunkSize) {
+                    submit(chunk.toString(), lang, graph);
+                    chunk.setLength(0);
+                    nbLinesInChunk = 0;
+                }
+            }
+            if (nbLinesInChunk > 0) {
+                submit(chunk.toString(), lang, graph);
+            }
+        }
+        return nbLines;
+    }
+
+    /* ********************************************************************** */
+
+    static BufferedReader open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        if (path.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    void submit(String chunk, Lang lang, Node graph) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        pipeline.submit(() -> {
+            try {
+                return parse(chunk, lang, graph).iterator();
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * @return The quads of the chunk, triples being put in `graph`. Statements
+     * that belong to no named graph are dropped, since the default graph of the
+     * summary holds its metadata.
+     */
+    static List<Quad> parse(String chunk, Lang lang, Node graph) {
+        List<Quad> quads = new ArrayList<>();
+        RDFParser.fromString(chunk, lang)
+                .labelToNode(LabelToNode.createUseLabelAsGiven())
+                .parse(new StreamRDFBase() {
+                    @Override
+                    public void triple(Triple triple) {
+                        if (Objects.nonNull(graph)) {
+                            quads.add(Quad.create(graph, triple));
+                        }
+                    }
+
+                    @Override
+                    public void quad(Quad quad) {
+                        if (!quad.isDefaultGraph()) {
+                            quads.add(quad);
+                        }
+                    }
+                });
+        return quads;
+    }
+
+}
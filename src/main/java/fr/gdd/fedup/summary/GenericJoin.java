@@ -0,0 +1,382 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpQuad;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.ExprVars;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import static fr.gdd.fedup.summary.SourceSelectionEvaluator.UNBOUND;
+
+/**
+ * Worst-case optimal join of the quad patterns of a sequence, one variable at a
+ * time, as in generic join or leapfrog triejoin. Each quad pattern is a trie over
+ * a permutation of its predicate partition whose column order follows the global
+ * order of variables. The values of a variable are those of the participant with
+ * the fewest candidates, looked up in the other participants by binary search, so
+ * intermediate results never exceed what the final result allows; unlike nested
+ * loops on cyclic queries, where every quad shares variables with the others.
+ */
+class GenericJoin implements SourceSelectionEvaluator.Step {
+
+    /**
+     * A quad pattern on the partition of its constant predicate, or a VALUES of a
+     * single variable.
+     */
+    static class Atom {
+        SummaryIndex.Partition partition; // null for VALUES
+        final int[] slots = {-1, -1, -1}; // by column: subject, object, graph; -1 if constant
+        final int[] constants = {UNBOUND, UNBOUND, UNBOUND};
+        int[] values; // sorted and distinct, for VALUES
+        int[] identity;
+    }
+
+    /**
+     * Filters only mention variables of their quad pattern, so they are checked as
+     * soon as these variables are bound.
+     */
+    record Filter(int[] slots, Predicate<int[]> condition) {}
+
+    /**
+     * The current range of rows of an atom, for the values bound so far.
+     */
+    static class Trie {
+        int[] rows; // row numbers in the order of levels
+        int[][] levels; // the column of each remaining level
+        int[] slots; // the variable of each level
+        int depth = 0;
+        int lo;
+        int hi;
+
+        int value(int position) { return levels[depth][rows[position]]; }
+
+        /**
+         * @return The first position in [from, to) whose value at the current depth is >= value.
+         */
+        int lower(int value, int from, int to) {
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (value(middle) < value) { from = middle + 1; } else { to = middle; }
+            }
+            return from;
+        }
+
+        /**
+         * @return The first position in [from, to) whose value at the current depth is > value.
+         */
+        int upper(int value, int from, int to) {
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (value(middle) <= value) { from = middle + 1; } else { to = middle; }
+            }
+            return from;
+        }
+    }
+
+    final List<Atom> atoms;
+    final List<Filter> filters;
+    final boolean empty; // a constant is not in the summary
+
+    GenericJoin(List<Atom> atoms, List<Filter> filters, boolean empty) {
+        this.atoms = atoms;
+        this.filters = filters;
+        this.empty = empty;
+    }
+
+    /**
+     * @param evaluator The evaluator that allocates variables and encodes constants.
+     * @param elements The elements of a sequence.
+     * @return The join of the elements, or null if an element is not a quad pattern
+     * with a constant predicate, a filter on such quad pattern, or a VALUES of one variable.
+     */
+    static GenericJoin create(SourceSelectionEvaluator evaluator, List<Op> elements) {
+        List<Atom> atoms = new ArrayList<>();
+        List<Filter> filters = new ArrayList<>();
+        boolean empty = false;
+        for (Op element : elements) {
+            Op op = element;
+            if (op instanceof OpFilter opFilter && opFilter.getSubOp() instanceof OpQuad opQuad) {
+                Set<Var> mentioned = ExprVars.getVarsMentioned(opFilter.getExprs());
+                Set<Var> quadVars = new HashSet<>();
+                for (Node node : List.of(opQuad.getQuad().getGraph(), opQuad.getQuad().getSubject(), opQuad.getQuad().getObject())) {
+                    if (node.isVariable()) { quadVars.add(Var.alloc(node)); }
+                }
+                if (!quadVars.containsAll(mentioned)) {
+                    return null; // depends on the order of evaluation
+                }
+                filters.add(new Filter(mentioned.stream().mapToInt(evaluator::slot).toArray(),
+                        evaluator.condition(opFilter.getExprs())));
+                op = opQuad;
+            }
+            switch (op) {
+                case OpQuad opQuad -> {
+                    Atom atom = atom(evaluator, opQuad.getQuad());
+                    if (Objects.isNull(atom)) { return null; }
+                    empty |= Objects.isNull(atom.partition);
+                    atoms.add(atom);
+                }
+                case OpTable opTable when opTable.isJoinIdentity() -> {}
+                case OpTable opTable -> {
+                    Atom atom = values(evaluator, opTable);
+                    if (Objects.isNull(atom)) { return null; }
+                    atoms.add(atom);
+                }
+                default -> { return null; }
+            }
+        }
+        return new GenericJoin(atoms, filters, empty);
+    }
+
+    static Atom atom(SourceSelectionEvaluator evaluator, Quad quad) {
+        if (!quad.getPredicate().isURI()) {
+            return null;
+        }
+        Atom atom = new Atom();
+        Node[] nodes = {quad.getSubject(), quad.getObject(), quad.getGraph()};
+        for (int c = 0; c < 3; ++c) {
+            if (nodes[c].isVariable()) {
+                atom.slots[c] = evaluator.slot(Var.alloc(nodes[c]));
+                for (int previous = 0; previous < c; ++previous) {
+                    if (atom.slots[previous] == atom.slots[c]) { return null; } // e.g., ?x <p> ?x
+                }
+            } else if (nodes[c].isConcrete()) {
+                atom.constants[c] = evaluator.index.getId(nodes[c]);
+            } else {
+                return null;
+            }
+        }
+        boolean absent = Arrays.stream(atom.constants).anyMatch(c -> c == SummaryIndex.ABSENT);
+        int predicate = evaluator.index.getId(quad.getPredicate());
+        atom.partition = absent ? null : evaluator.index.getPartition(predicate);
+        return atom;
+    }
+
+    static Atom values(SourceSelectionEvaluator evaluator, OpTable opTable) {
+        if (opTable.getTable().getVars().size() != 1) {
+            return null;
+        }
+        Var var = opTable.getTable().getVars().getFirst();
+        Atom atom = new Atom();
+        atom.slots[0] = evaluator.slot(var);
+        Set<Integer> values = new TreeSet<>();
+        Iterator<Binding> bindings = opTable.getTable().rows();
+        while (bindings.hasNext()) {
+            Node value = bindings.next().get(var);
+            if (Objects.isNull(value)) { return null; } // unbound in a row, compatible with anything
+            values.add(evaluator.encode(value));
+        }
+        atom.values = values.stream().mapToInt(Integer::intValue).toArray();
+        atom.identity = IntStream.range(0, atom.values.length).toArray();
+        return atom;
+    }
+
+    /* ************************************************************************* */
+
+    /**
+     * @return True if the hypergraph of variables is cyclic, using the GYO reduction:
+     * variables in a single atom are removed, then atoms included in another one,
+     * until nothing changes; acyclic queries end up with no atom left.
+     */
+    boolean isCyclic() {
+        List<Set<Integer>> edges = new ArrayList<>();
+        for (Atom atom : atoms) {
+            Set<Integer> edge = new HashSet<>();
+            for (int slot : atom.slots) {
+                if (slot >= 0) { edge.add(slot); }
+            }
+            edges.add(edge);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Map<Integer, Integer> occurrences = new HashMap<>();
+            edges.forEach(edge -> edge.forEach(v -> occurrences.merge(v, 1, Integer::sum)));
+            for (Set<Integer> edge : edges) {
+                changed |= edge.removeIf(v -> occurrences.get(v) == 1);
+            }
+            for (int i = 0; i < edges.size(); ++i) {
+                Set<Integer> edge = edges.get(i);
+                boolean included = edge.isEmpty();
+                for (int j = 0; !included && j < edges.size(); ++j) {
+                    included = i != j && edges.get(j).containsAll(edge);
+                }
+                if (included) {
+                    edges.remove(i);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return !edges.isEmpty();
+    }
+
+    @Override
+    public void eval(int[] row, Consumer<int[]> out) {
+        if (empty) {
+            return;
+        }
+        int[] current = row.clone();
+
+        // #1 variables that remain to be bound, the most shared first, connected to the previous ones
+        Map<Integer, Integer> occurrences = new HashMap<>();
+        for (Atom atom : atoms) {
+            for (int slot : atom.slots) {
+                if (slot >= 0 && current[slot] == UNBOUND) { occurrences.merge(slot, 1, Integer::sum); }
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        Set<Integer> connected = new HashSet<>();
+        while (order.size() < occurrences.size()) {
+            int best = -1;
+            for (int candidate : occurrences.keySet()) {
+                if (order.contains(candidate)) { continue; }
+                if (best < 0 || Boolean.compare(connected.contains(candidate), connected.contains(best)) > 0 ||
+                        (connected.contains(candidate) == connected.contains(best) &&
+                                (occurrences.get(candidate) > occurrences.get(best) ||
+                                        (occurrences.get(candidate).equals(occurrences.get(best)) && candidate < best)))) {
+                    best = candidate;
+                }
+            }
+            order.add(best);
+            for (Atom atom : atoms) {
+                if (Arrays.stream(atom.slots).anyMatch(s -> s == order.getLast())) {
+                    Arrays.stream(atom.slots).filter(s -> s >= 0).forEach(connected::add);
+                }
+            }
+        }
+
+        // #2 one trie per atom, positioned on the values already bound
+        List<Trie> tries = new ArrayList<>();
+        for (Atom atom : atoms) {
+            Trie trie = trie(atom, current, order);
+            if (Objects.isNull(trie)) {
+                return; // no result
+            }
+            tries.add(trie);
+        }
+
+        // #3 filters are checked once their variables are bound
+        List<List<Filter>> filtersByLevel = new ArrayList<>();
+        for (int i = 0; i <= order.size(); ++i) { filtersByLevel.add(new ArrayList<>()); }
+        for (Filter filter : filters) {
+            int level = 0;
+            for (int slot : filter.slots()) {
+                level = Math.max(level, current[slot] != UNBOUND ? 0 : order.indexOf(slot) + 1);
+            }
+            filtersByLevel.get(level).add(filter);
+        }
+        if (filtersByLevel.getFirst().stream().allMatch(f -> f.condition().test(current))) {
+            join(0, order, tries, filtersByLevel, current, out);
+        }
+    }
+
+    static Trie trie(Atom atom, int[] current, List<Integer> order) {
+        Trie trie = new Trie();
+        if (Objects.nonNull(atom.values)) {
+            int slot = atom.slots[0];
+            if (current[slot] != UNBOUND) {
+                if (Arrays.binarySearch(atom.values, current[slot]) < 0) { return null; }
+                trie.levels = new int[0][];
+                trie.slots = new int[0];
+            } else {
+                trie.levels = new int[][]{atom.values};
+                trie.slots = new int[]{slot};
+            }
+            trie.rows = atom.identity;
+            trie.hi = atom.values.length;
+            return trie;
+        }
+
+        // fixed columns first, then variables in the global order
+        List<Integer> fixed = new ArrayList<>();
+        List<Integer> variables = new ArrayList<>();
+        int[] values = new int[3];
+        for (int c = 0; c < 3; ++c) {
+            values[c] = atom.slots[c] >= 0 ? current[atom.slots[c]] : atom.constants[c];
+            (values[c] != UNBOUND ? fixed : variables).add(c);
+        }
+        variables.sort(Comparator.comparingInt(c -> order.indexOf(atom.slots[c])));
+        List<Integer> columns = new ArrayList<>(fixed);
+        columns.addAll(variables);
+
+        SummaryIndex.Partition partition = atom.partition;
+        trie.rows = partition.sortedBy(columns.stream().mapToInt(Integer::intValue).toArray());
+        trie.levels = columns.stream().map(partition::column).toArray(int[][]::new);
+        trie.slots = columns.stream().mapToInt(c -> atom.slots[c]).toArray();
+        trie.hi = partition.size();
+        for (int c : fixed) { // narrows down the range to the bound prefix
+            int from = trie.lower(values[c], trie.lo, trie.hi);
+            trie.hi = trie.upper(values[c], from, trie.hi);
+            trie.lo = from;
+            if (trie.lo >= trie.hi) { return null; }
+            ++trie.depth;
+        }
+        return trie;
+    }
+
+    static void join(int level, List<Integer> order, List<Trie> tries, List<List<Filter>> filtersByLevel,
+                     int[] row, Consumer<int[]> out) {
+        if (level >= order.size()) {
+            out.accept(row.clone());
+            return;
+        }
+        int var = order.get(level);
+        List<Trie> participants = new ArrayList<>();
+        Trie smallest = null;
+        for (Trie trie : tries) {
+            if (trie.depth < trie.slots.length && trie.slots[trie.depth] == var) {
+                participants.add(trie);
+                if (Objects.isNull(smallest) || trie.hi - trie.lo < smallest.hi - smallest.lo) { smallest = trie; }
+            }
+        }
+        int[] los = participants.stream().mapToInt(t -> t.lo).toArray();
+        int[] his = participants.stream().mapToInt(t -> t.hi).toArray();
+        int[] cursors = los.clone(); // values are increasing, so cursors only move forward
+
+        int position = smallest.lo;
+        int end = smallest.hi;
+        while (position < end) {
+            int value = smallest.value(position);
+            int next = smallest.upper(value, position, end);
+            boolean found = true;
+            for (int i = 0; found && i < participants.size(); ++i) {
+                Trie trie = participants.get(i);
+                if (trie == smallest) {
+                    trie.lo = position;
+                    trie.hi = next;
+                } else {
+                    int from = trie.lower(value, cursors[i], his[i]);
+                    int to = trie.upper(value, from, his[i]);
+                    cursors[i] = to;
+                    found = from < to;
+                    trie.lo = from;
+                    trie.hi = to;
+                }
+            }
+            if (found) {
+                participants.forEach(t -> ++t.depth);
+                row[var] = value;
+                if (filtersByLevel.get(level + 1).stream().allMatch(f -> f.condition().test(row))) {
+                    join(level + 1, order, tries, filtersByLevel, row, out);
+                }
+                participants.forEach(t -> --t.depth);
+            }
+            position = next;
+        }
+        for (int i = 0; i < participants.size(); ++i) {
+            participants.get(i).lo = los[i];
+            participants.get(i).hi = his[i];
+        }
+        row[var] = UNBOUND;
+    }
+
+}
@@ -0,0 +1,161 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.collections.BloomFilter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Quad;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One Bloom filter per graph over the constants the summary loses: full
+ * subject URIs, full object URIs, and (predicate, object URI) pairs. They
+ * answer ASK queries about triple patterns with a constant subject or object
+ * locally when the answer is definitely no, so only endpoints that might
+ * match are actually asked. Filters are built during ingestion, concurrently,
+ * and stored next to the summary.
+ */
+public class GraphFilters {
+
+    public static final String FILE_NAME = "fedup-filters.bin"; // within a TDB2 summary folder
+    public static final String EXTENSION = ".filters"; // next to a read-only summary file
+    static final int MAGIC = 0x46534246; // FSBF
+
+    static final char SUBJECT = 's';
+    static final char OBJECT = 'o';
+    static final char PAIR = 'p';
+
+    final long expected;
+    final double falsePositiveProbability;
+    final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * @param expected The expected number of distinct keys per graph, i.e., subjects,
+     *                 objects, and (predicate, object) pairs.
+     * @param falsePositiveProbability The targeted probability of asking for nothing.
+     */
+    public GraphFilters(long expected, double falsePositiveProbability) {
+        this.expected = expected;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    public GraphFilters(long expected) {
+        this(expected, 0.01);
+    }
+
+    /**
+     * @param source A quad read from a source, before being summarized.
+     */
+    public void add(Quad source) {
+        if (!source.getGraph().isURI()) {
+            return;
+        }
+        BloomFilter filter = filters.computeIfAbsent(source.getGraph().getURI(),
+                g -> new BloomFilter(expected, falsePositiveProbability));
+        if (source.getSubject().isURI()) {
+            filter.add(key(SUBJECT, source.getSubject()));
+        }
+        if (source.getObject().isURI()) {
+            filter.add(key(OBJECT, source.getObject()));
+            if (source.getPredicate().isURI()) {
+                filter.add(key(source.getPredicate(), source.getObject()));
+            }
+        }
+    }
+
+    /**
+     * @param graph The graph, i.e., the endpoint as ingested in the summary.
+     * @param pattern The triple pattern to ask for.
+     * @return False if the graph definitely has no triple matching the pattern; true
+     * if it might, or if there is no filter for this graph.
+     */
+    public boolean mightContain(String graph, Triple pattern) {
+        BloomFilter filter = filters.get(graph);
+        if (Objects.isNull(filter)) {
+            return true;
+        }
+        if (pattern.getSubject().isURI() && !filter.mightContain(key(SUBJECT, pattern.getSubject()))) {
+            return false;
+        }
+        if (pattern.getObject().isURI()) {
+            if (!filter.mightContain(key(OBJECT, pattern.getObject()))) {
+                return false;
+            }
+            return !pattern.getPredicate().isURI() ||
+                    filter.mightContain(key(pattern.getPredicate(), pattern.getObject()));
+        }
+        return true;
+    }
+
+    public boolean isEmpty() { return filters.isEmpty(); }
+
+    /**
+     * @param other Filters built with the same parameters, possibly on the same graphs.
+     */
+    public GraphFilters merge(GraphFilters other) {
+        other.filters.forEach((graph, filter) -> filters.merge(graph, filter, (mine, theirs) -> {
+            mine.merge(theirs);
+            return mine;
+        }));
+        return this;
+    }
+
+    static long key(char kind, Node node) {
+        return BloomFilter.hash(kind + node.getURI());
+    }
+
+    static long key(Node predicate, Node object) {
+        return BloomFilter.hash(PAIR + predicate.getURI() + ' ' + object.getURI());
+    }
+
+    /* ********************************************************************** */
+
+    /**
+     * @param mappedFile The path to a read-only summary file.
+     * @return The path to the filters that go along with it.
+     */
+    public static Path sidecarOf(Path mappedFile) {
+        return mappedFile.resolveSibling(mappedFile.getFileName() + EXTENSION);
+    }
+
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(expected);
+            out.writeDouble(falsePositiveProbability);
+            out.writeInt(filters.size());
+            for (Map.Entry<String, BloomFilter> entry : filters.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+    }
+
+    /**
+     * @param path The path to saved filters.
+     * @return The filters, or null if there are none at this path.
+     */
+    public static GraphFilters load(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a file of graph filters: " + path);
+            }
+            GraphFilters loaded = new GraphFilters(in.readLong(), in.readDouble());
+            int nbGraphs = in.readInt();
+            for (int i = 0; i < nbGraphs; ++i) {
+                String graph = in.readUTF();
+                loaded.filters.put(graph, BloomFilter.read(in));
+            }
+            return loaded;
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.sparql.core.Quad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Pipelined ingestion of quads into a summary. Worker threads read and
+ * transform their input concurrently using the strategy of the summary,
+ * then hand over deduplicated batches of summarized quads to a single writer
+ * through a bounded queue. The writer is the only one to open write
+ * transactions on the summary.
+ *
+ * Each worker deduplicates the summarized quads of its input with a
+ * {@link QuadDeduplicator}, so a summarized quad reaches the writer once
+ * per input. When asked to, workers also collect {@link SummaryStatistics}
+ * that are merged and written once every input is summarized.
+ */
+public final class IngestionPipeline implements AutoCloseable {
+
+    private final static Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    private final static List<Quad> END = List.of(); // poison pill of the writer
+
+    final Summary summary;
+    final int batchSize;
+    final ExecutorService workers;
+    final BlockingQueue<Collection<Quad>> queue;
+    final List<Future<?>> tasks = new ArrayList<>();
+    final Thread writer;
+    volatile Exception writerFailure = null;
+    boolean offHeap = false;
+    SummaryStatistics statistics = null; // null when not collected
+    GraphFilters filters = null; // null when not built
+
+    final AtomicLong nbRead = new AtomicLong();
+    final AtomicLong nbDeduplicated = new AtomicLong();
+    final AtomicLong nbWritten = new AtomicLong();
+
+    /**
+     * @param summary The summary to write into.
+     * @param nbWorkers The number of threads reading and transforming quads.
+     * @param batchSize The maximal number of summarized quads per batch.
+     * @param queueSize The number of batches that can wait for the writer before workers block.
+     */
+    public IngestionPipeline(Summary summary, int nbWorkers, int batchSize, int queueSize) {
+        this.summary = summary;
+        this.batchSize = batchSize;
+        this.workers = Executors.newFixedThreadPool(nbWorkers);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writer = new Thread(this::write, "fedup-summary-writer");
+        this.writer.start();
+    }
+
+    public IngestionPipeline(Summary summary, int nbWorkers) {
+        this(summary, nbWorkers, 10_000, 2 * nbWorkers);
+    }
+
+    /**
+     * @param offHeap True if deduplication sets of workers should live outside the heap.
+     */
+    public IngestionPipeline setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    /**
+     * @param collect True if cardinalities should be collected by workers, then
+     *                written next to the summarized quads when the pipeline closes.
+     */
+    public IngestionPipeline setStatistics(boolean collect) {
+        this.statistics = collect ? new SummaryStatistics() : null;
+        return this;
+    }
+
+    /**
+     * @param filters The filters of graphs that workers fill with the source quads they read.
+     */
+    public IngestionPipeline setFilters(GraphFilters filters) {
+        this.filters = filters;
+        return this;
+    }
+
+    /**
+     * Registers a new input to summarize. The supplier is called from within a
+     * worker thread, so it can open a read transaction there if need be.
+     * @param quads The supplier of the quads to summarize.
+     */
+    public IngestionPipeline submit(Supplier<Iterator<Quad>> quads) {
+        tasks.add(workers.submit(() -> {
+            Iterator<Quad> iterator = quads.get();
+            QuadDeduplicator deduplicator = new QuadDeduplicator(offHeap);
+            SummaryStatistics local = Objects.isNull(statistics) ? null : new SummaryStatistics();
+            List<Quad> batch = new ArrayList<>();
+            while (iterator.hasNext()) {
+                Quad source = iterator.next();
+                Quad summarized = summary.summarize(source);
+                if (Objects.nonNull(local)) {
+                    local.add(source, summarized);
+                }
+                if (Objects.nonNull(filters)) {
+                    filters.add(source);
+                }
+                if (deduplicator.add(summarized)) {
+                    batch.add(summarized);
+                }
+                if (batch.size() >= batchSize) {
+                    put(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                put(batch);
+            }
+            if (Objects.nonNull(local)) {
+                synchronized (statistics) {
+                    statistics.merge(local);
+                }
+            }
+            nbRead.addAndGet(deduplicator.getNbIn());
+            nbDeduplicated.addAndGet(deduplicator.getNbOut());
+            return null;
+        }));
+        return this;
+    }
+
+    /**
+     * Waits for every submitted input to be read and written into the summary.
+     */
+    @Override
+    public void close() {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            workers.shutdown();
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            workers.shutdownNow();
+            writer.interrupt();
+            throw new RuntimeException(e.getCause());
+        }
+        if (Objects.nonNull(writerFailure)) {
+            throw new RuntimeException(writerFailure);
+        }
+        if (Objects.nonNull(statistics)) {
+            summary.writeStatistics(statistics);
+        }
+        log.info("Summarized {} quads into {} written quads (compression ratio: {}).",
+                nbRead.get(), nbWritten.get(), String.format("%.1f", getCompressionRatio()));
+    }
+
+    /**
+     * @return The number of quads read by workers whose input is complete.
+     */
+    public long getNbRead() { return nbRead.get(); }
+
+    /**
+     * @return The number of input quads per summarized quad sent to the store.
+     */
+    public double getCompressionRatio() {
+        return nbDeduplicated.get() == 0 ? 1. : (double) nbRead.get() / nbDeduplicated.get();
+    }
+
+    /**
+     * @return The number of summarized quads sent to the store so far.
+     */
+    public long getNbWritten() { return nbWritten.get(); }
+
+    /* ********************************************************************** */
+
+    void put(Collection<Quad> batch) throws InterruptedException {
+        queue.put(batch);
+    }
+
+    /**
+     * Loop of the writer: coalesces the waiting batches into a single write transaction.
+     */
+    void write() {
+        List<Collection<Quad>> batches = new ArrayList<>();
+        boolean done = false;
+        while (!done) {
+            try {
+                batches.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batches);
+            done = batches.removeIf(batch -> batch == END);
+            if (Objects.nonNull(writerFailure)) { // keeps draining so workers never block
+                batches.clear();
+                continue;
+            }
+            try {
+                List<Quad> toWrite = batches.stream().flatMap(Collection::stream).toList();
+                summary.addSummarized(toWrite);
+                nbWritten.addAndGet(toWrite.size());
+            } catch (Exception e) {
+                log.error("The writer of the summary failed.", e);
+                writerFailure = e;
+            }
+            batches.clear();
+        }
+    }
+
+}
@@ -0,0 +1,501 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.util.NodeFactoryExtra;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact and read-only representation of a summary. Terms are dictionary-encoded
+ * in lexicographic order, and quads are stored as four columns of identifiers sorted
+ * by graph, subject, predicate, and object. The whole file is memory-mapped so opening
+ * it only costs reading its header; the OS page cache takes care of the rest.
+ *
+ * Layout: `magic | version | nbTerms | nbQuads | offsets[nbTerms+1] | terms | g[] | s[] | p[] | o[]`
+ * where terms are N-Triples strings encoded in UTF-8.
+ */
+public class MappedSummary {
+
+    public static final int MAGIC = 0x46535531; // FSU1
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    final Path path;
+    final int nbTerms;
+    final int nbQuads;
+    final IntBuffer offsets;
+    final ByteBuffer terms;
+    final IntBuffer[] columns = new IntBuffer[4]; // g, s, p, o
+    final Node[] decoded; // lazily decoded terms
+
+    MappedSummary(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Summary file is too large to be mapped: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a summary file, or unsupported version: " + path);
+            }
+            this.nbTerms = buffer.getInt(8);
+            this.nbQuads = buffer.getInt(12);
+            int position = HEADER_SIZE;
+            this.offsets = buffer.slice(position, (nbTerms + 1) * Integer.BYTES).asIntBuffer();
+            position += (nbTerms + 1) * Integer.BYTES;
+            int termsSize = offsets.get(nbTerms);
+            this.terms = buffer.slice(position, termsSize);
+            position += termsSize;
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i] = buffer.slice(position, nbQuads * Integer.BYTES).asIntBuffer();
+                position += nbQuads * Integer.BYTES;
+            }
+        } // the mapping remains valid after the channel is closed
+        this.decoded = new Node[nbTerms];
+    }
+
+    /**
+     * @param path The path to the summary file.
+     * @return The opened summary, ready to be queried.
+     */
+    public static MappedSummary open(Path path) throws IOException {
+        return new MappedSummary(path);
+    }
+
+    public int getNbQuads() { return nbQuads; }
+
+    public int getNbTerms() { return nbTerms; }
+
+    /* ********************************************************************* */
+
+    String string(int id) {
+        int start = offsets.get(id);
+        byte[] bytes = new byte[offsets.get(id + 1) - start];
+        terms.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param id The identifier of the term.
+     * @return The term as a Jena `Node`.
+     */
+    public Node node(int id) {
+        Node node = decoded[id];
+        if (Objects.isNull(node)) {
+            node = NodeFactoryExtra.parseNode(string(id));
+            decoded[id] = node; // racy but harmless, nodes are immutable
+        }
+        return node;
+    }
+
+    /**
+     * @param node The term to look for.
+     * @return The identifier of the term, or -1 if it does not exist in the summary.
+     */
+    public int id(Node node) {
+        String key = NodeFmtLib.strNT(node);
+        int low = 0;
+        int high = nbTerms - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = string(mid).compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param column The column to look into, i.e., 0 for graphs, 1 for subjects etc.
+     * @param row The row of the quad.
+     * @return The identifier of the term at this position.
+     */
+    public int get(int column, int row) {
+        return columns[column].get(row);
+    }
+
+    /**
+     * @return The first row in [from, to) whose value in `column` is not lower than `value`.
+     */
+    int lowerBound(int column, int value, int from, int to) {
+        IntBuffer c = columns[column];
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (c.get(mid) < value) { from = mid + 1; } else { to = mid; }
+        }
+        return from;
+    }
+
+    /**
+     * @return The set of graph identifiers, in increasing order.
+     */
+    public List<Integer> graphIds() {
+        List<Integer> graphs = new ArrayList<>();
+        int row = 0;
+        while (row < nbQuads) {
+            int g = get(0, row);
+            graphs.add(g);
+            row = lowerBound(0, g + 1, row, nbQuads);
+        }
+        return graphs;
+    }
+
+    /**
+     * @return A read-only dataset view over the summary file where each
+     * summarized graph is a named graph.
+     */
+    public DatasetGraph asDatasetGraph() {
+        DatasetGraph dsg = DatasetGraphFactory.createGeneral();
+        for (int g : graphIds()) {
+            dsg.addGraph(node(g), new MappedGraph(this, g));
+        }
+        return dsg;
+    }
+
+    /* ********************************************************************* */
+
+    /**
+     * A named graph of the summary file, i.e., a contiguous range of rows
+     * sharing the same graph identifier.
+     */
+    static class MappedGraph extends GraphBase {
+
+        final MappedSummary summary;
+        final int from;
+        final int to;
+
+        MappedGraph(MappedSummary summary, int graph) {
+            this.summary = summary;
+            this.from = summary.lowerBound(0, graph, 0, summary.nbQuads);
+            this.to = summary.lowerBound(0, graph + 1, from, summary.nbQuads);
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+            int s = toId(pattern.getSubject());
+            int p = toId(pattern.getPredicate());
+            int o = toId(pattern.getObject());
+            if (s == -1 || p == -1 || o == -1) {
+                return NiceIterator.emptyIterator();
+            }
+
+            int start = from;
+            int end = to;
+            if (s >= 0) { // subjects are sorted inside a graph
+                start = summary.lowerBound(1, s, from, to);
+                end = summary.lowerBound(1, s + 1, start, to);
+            }
+
+            return new RowIterator(summary, start, end, p, o);
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            return to - from;
+        }
+
+        /**
+         * @return -2 when the node is a wildcard; -1 when the node does not exist; its identifier otherwise.
+         */
+        int toId(Node node) {
+            if (Objects.isNull(node) || !node.isConcrete()) {
+                return -2;
+            }
+            return summary.id(node);
+        }
+    }
+
+    /**
+     * Iterates over the rows of a range that match the predicate and the object when they are set.
+     */
+    static class RowIterator extends NiceIterator<Triple> {
+
+        final MappedSummary summary;
+        final int last;
+        final int p; // negative means any
+        final int o;
+        int row;
+
+        RowIterator(MappedSummary summary, int first, int last, int p, int o) {
+            this.summary = summary;
+            this.last = last;
+            this.p = p;
+            this.o = o;
+            this.row = advance(first);
+        }
+
+        int advance(int candidate) {
+            while (candidate < last &&
+                    (p >= 0 && summary.get(2, candidate) != p ||
+                     o >= 0 && summary.get(3, candidate) != o)) {
+                ++candidate;
+            }
+            return candidate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return row < last;
+        }
+
+        @Override
+        public Triple next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            Triple triple = Triple.create(summary.node(summary.get(1, row)),
+                    summary.node(summary.get(2, row)),
+                    summary.node(summary.get(3, row)));
+            row = advance(row + 1);
+            return triple;
+        }
+    }
+
+    /* ********************************************************************* */
+
+    /**
+     * Writes the named graphs of the dataset as a summary file. The dataset must
+     * already be summarized, and in a read transaction when it supports them.
+     * @param dsg The summarized dataset.
+     * @param path The path to the file to create.
+     */
+    public static void write(DatasetGraph dsg, Path path) throws IOException {
+        write(dsg.findNG(Node.ANY, Node.ANY, Node.ANY, Node.ANY), path);
+    }
+
+    /**
+     * @param quads The already summarized quads, in any order and possibly duplicated.
+     * @param path The path to the file to create.
+     */
+    public static void write(Iterator<Quad> quads, Path path) throws IOException {
+        List<Node[]> rows = new ArrayList<>();
+        Map<String, Integer> dictionary = new TreeMap<>();
+        quads.forEachRemaining(q -> {
+            Node[] row = new Node[]{q.getGraph(), q.getSubject(), q.getPredicate(), q.getObject()};
+            for (Node node : row) {
+                dictionary.putIfAbsent(NodeFmtLib.strNT(node), 0);
+            }
+            rows.add(row);
+        });
+
+        List<byte[]> encoded = new ArrayList<>(dictionary.size());
+        int id = 0;
+        for (Map.Entry<String, Integer> entry : dictionary.entrySet()) { // sorted, so are ids
+            entry.setValue(id++);
+            encoded.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<int[]> ids = new ArrayList<>(rows.size());
+        for (Node[] row : rows) {
+            int[] asIds = new int[4];
+            for (int i = 0; i < 4; ++i) {
+                asIds[i] = dictionary.get(NodeFmtLib.strNT(row[i]));
+            }
+            ids.add(asIds);
+        }
+        write(encoded, ids, path);
+    }
+
+    /**
+     * @param terms The encoded terms, sorted.
+     * @param rows The rows of identifiers pointing to `terms`, in any order and possibly duplicated.
+     * @param path The path to the file to create.
+     */
+    static void write(List<byte[]> terms, List<int[]> rows, Path path) throws IOException {
+        rows.sort(MappedSummary::compareRows);
+        int[][] columns = new int[4][rows.size()];
+        int nbRows = 0;
+        for (int[] row : rows) {
+            if (nbRows == 0 || !equals(columns, nbRows - 1, row)) {
+                for (int column = 0; column < 4; ++column) {
+                    columns[column][nbRows] = row[column];
+                }
+                ++nbRows;
+            }
+        }
+        write(terms, columns, nbRows, path);
+    }
+
+    /**
+     * @param terms The encoded terms, sorted.
+     * @param columns The columns g, s, p, o of identifiers pointing to `terms`,
+     *                whose rows are sorted and distinct.
+     * @param nbRows The number of rows to write out of the columns.
+     * @param path The path to the file to create.
+     */
+    static void write(List<byte[]> terms, int[][] columns, int nbRows, Path path) throws IOException {
+        long termsSize = terms.stream().mapToLong(t -> t.length).sum();
+        long size = HEADER_SIZE + (long) (terms.size() + 1) * Integer.BYTES + termsSize +
+                4L * nbRows * Integer.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Summary is too large to be written as a single file.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(terms.size()).putInt(nbRows);
+        int offset = 0;
+        for (byte[] term : terms) {
+            buffer.putInt(offset);
+            offset += term.length;
+        }
+        buffer.putInt(offset);
+        terms.forEach(buffer::put);
+        for (int column = 0; column < 4; ++column) {
+            buffer.asIntBuffer().put(columns[column], 0, nbRows);
+            buffer.position(buffer.position() + nbRows * Integer.BYTES);
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    static boolean equals(int[][] columns, int row, int[] other) {
+        for (int column = 0; column < 4; ++column) {
+            if (columns[column][row] != other[column]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* ********************************************************************* */
+
+    /**
+     * Unions partial summaries into a single summary file, e.g., one partial summary
+     * per endpoint built independently. Quads are not transformed again, so partial
+     * summaries must have been built with the same strategy.
+     *
+     * Dictionaries being sorted, their k-way merge gives a global dictionary along
+     * with increasing mappings from local to global identifiers. Rows of each part
+     * therefore remain sorted once mapped, and a second k-way merge unions them
+     * while removing duplicates, without any sort.
+     * @param parts The partial summaries to union.
+     * @param path The path to the file to create.
+     */
+    public static void merge(List<MappedSummary> parts, Path path) throws IOException {
+        List<byte[]> terms = new ArrayList<>();
+        int[][] remaps = new int[parts.size()][];
+        PriorityQueue<TermCursor> termCursors = new PriorityQueue<>(Comparator.comparing(c -> c.current));
+        for (int i = 0; i < parts.size(); ++i) {
+            remaps[i] = new int[parts.get(i).nbTerms];
+            if (parts.get(i).nbTerms > 0) {
+                termCursors.add(new TermCursor(parts.get(i), i));
+            }
+        }
+        String last = null;
+        while (!termCursors.isEmpty()) {
+            TermCursor cursor = termCursors.poll();
+            if (!cursor.current.equals(last)) {
+                last = cursor.current;
+                terms.add(last.getBytes(StandardCharsets.UTF_8));
+            }
+            remaps[cursor.part][cursor.index] = terms.size() - 1;
+            if (cursor.advance()) {
+                termCursors.add(cursor);
+            }
+        }
+
+        int maxRows = parts.stream().mapToInt(MappedSummary::getNbQuads).sum();
+        int[][] columns = new int[4][maxRows];
+        int nbRows = 0;
+        PriorityQueue<RowCursor> rowCursors = new PriorityQueue<>((l, r) -> compareRows(l.current, r.current));
+        for (int i = 0; i < parts.size(); ++i) {
+            if (parts.get(i).nbQuads > 0) {
+                rowCursors.add(new RowCursor(parts.get(i), remaps[i]));
+            }
+        }
+        while (!rowCursors.isEmpty()) {
+            RowCursor cursor = rowCursors.poll();
+            if (nbRows == 0 || !equals(columns, nbRows - 1, cursor.current)) {
+                for (int column = 0; column < 4; ++column) {
+                    columns[column][nbRows] = cursor.current[column];
+                }
+                ++nbRows;
+            }
+            if (cursor.advance()) {
+                rowCursors.add(cursor);
+            }
+        }
+
+        write(terms, columns, nbRows, path);
+    }
+
+    /**
+     * Position in the sorted dictionary of a part.
+     */
+    static class TermCursor {
+        final MappedSummary summary;
+        final int part;
+        int index = 0;
+        String current;
+
+        TermCursor(MappedSummary summary, int part) {
+            this.summary = summary;
+            this.part = part;
+            this.current = summary.string(0);
+        }
+
+        boolean advance() {
+            if (++index >= summary.nbTerms) { return false; }
+            current = summary.string(index);
+            return true;
+        }
+    }
+
+    /**
+     * Position in the sorted rows of a part, with identifiers mapped to the global dictionary.
+     */
+    static class RowCursor {
+        final MappedSummary summary;
+        final int[] remap;
+        final int[] current = new int[4];
+        int row = 0;
+
+        RowCursor(MappedSummary summary, int[] remap) {
+            this.summary = summary;
+            this.remap = remap;
+            read();
+        }
+
+        void read() {
+            for (int column = 0; column < 4; ++column) {
+                current[column] = remap[summary.get(column, row)];
+            }
+        }
+
+        boolean advance() {
+            if (++row >= summary.nbQuads) { return false; }
+            read();
+            return true;
+        }
+    }
+
+    static int compareRows(int[] left, int[] right) {
+        return Arrays.compare(left, right);
+    }
+
+}
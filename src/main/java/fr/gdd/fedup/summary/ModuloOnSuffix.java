@@ -11,6 +11,7 @@ import org.apache.jena.sparql.core.Var;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Objects;
 
 /**
  * Good old hashing on URI suffix.
@@ -30,24 +31,148 @@ public class ModuloOnSuffix extends LeavePredicateUntouched {
 
     public Node transform(Node node) {
         if (node.isURI()) {
-            try {
-                URI uri = new URI(node.getURI());
-                int hashcode = Math.abs(uri.toString().hashCode());
-                if (modulo == 0 || modulo == 1) {
-                    return NodeFactory.createURI(uri.getScheme() + "://" + uri.getHost());
-                } else {
-                    return NodeFactory.createURI(uri.getScheme() + "://" + uri.getHost() + "/" + (hashcode % modulo));
-                }
-            } catch (URISyntaxException e) {
-                return NodeFactory.createURI("https://donotcare.com/whatever");
-            }
+            Node fast = transformFast(node.getURI());
+            return Objects.nonNull(fast) ? fast : transformWithURI(node);
         } else if (node.isLiteral()) {
-            return NodeFactory.createLiteral("any");
+            return ANY_LITERAL;
         } else {
             return Var.alloc(node.getName());
         }
     }
 
+    /**
+     * The reference implementation that parses the whole URI. Kept as the fallback of
+     * {@link #transformFast(String)} for URIs that it does not handle.
+     */
+    Node transformWithURI(Node node) {
+        try {
+            URI uri = new URI(node.getURI());
+            int hashcode = Math.abs(uri.toString().hashCode());
+            if (modulo == 0 || modulo == 1) {
+                return NodeFactory.createURI(uri.getScheme() + "://" + uri.getHost());
+            } else {
+                return NodeFactory.createURI(uri.getScheme() + "://" + uri.getHost() + "/" + (hashcode % modulo));
+            }
+        } catch (URISyntaxException e) {
+            return NodeFactory.createURI("https://donotcare.com/whatever");
+        }
+    }
+
+    /* ************************************************************************* */
+
+    static final Node ANY_LITERAL = NodeFactory.createLiteral("any");
+
+    static final int CACHE_SIZE = 4096; // power of 2
+    final CachedAuthority[] cache = new CachedAuthority[CACHE_SIZE];
+
+    /**
+     * @param prefix The scheme and host of URIs, e.g., `http://example.org`.
+     * @param bucket The hash bucket of the suffix, or -1 without modulo.
+     * @param node The summarized node.
+     */
+    record CachedAuthority(String prefix, int bucket, Node node) {}
+
+    /**
+     * Extracts the scheme and host of common URIs by scanning the string once, without
+     * allocating. The resulting nodes live in a bounded direct-mapped cache indexed by
+     * scheme and host, so the usual case allocates nothing at all. Writes to the cache
+     * are racy but harmless since entries are immutable.
+     * @param uri The URI to transform.
+     * @return The same node as {@link #transformWithURI(Node)}, or null when the URI
+     * is not simple enough to be sure of it, e.g., it has user information, an IP address,
+     * or characters that need escaping.
+     */
+    Node transformFast(String uri) {
+        int length = uri.length();
+        // #1 scheme = alpha *( alpha | digit | "+" | "-" | "." ) ":"
+        if (length == 0 || !isAlpha(uri.charAt(0))) { return null; }
+        int colon = 1;
+        while (colon < length && isSchemeChar(uri.charAt(colon))) { ++colon; }
+        if (colon >= length || uri.charAt(colon) != ':') { return null; }
+
+        boolean noModulo = modulo == 0 || modulo == 1;
+        int bucket = noModulo ? -1 : Math.abs(uri.hashCode()) % modulo; // negative for Integer.MIN_VALUE
+
+        if (colon + 1 < length && uri.charAt(colon + 1) != '/') { // opaque, e.g., `urn:isbn:…` has no host
+            if (uri.charAt(colon + 1) == '#' || !areLegalChars(uri, colon + 1, length)) { return null; }
+            String summarized = uri.substring(0, colon) + "://null";
+            return NodeFactory.createURI(noModulo ? summarized : summarized + "/" + bucket);
+        }
+        if (colon + 2 >= length || uri.charAt(colon + 1) != '/' || uri.charAt(colon + 2) != '/') { return null; }
+
+        // #2 host = 1*( label "." ) toplabel, where labels are alphanumeric with inner dashes
+        int hostStart = colon + 3;
+        int position = hostStart;
+        int lastLabel = -1;
+        while (true) {
+            int labelStart = position;
+            while (position < length && (isAlphaNum(uri.charAt(position)) || uri.charAt(position) == '-')) { ++position; }
+            if (position == labelStart || uri.charAt(labelStart) == '-' || uri.charAt(position - 1) == '-') { return null; }
+            lastLabel = labelStart;
+            if (position < length && uri.charAt(position) == '.') { ++position; } else { break; }
+        }
+        if (lastLabel > hostStart && !isAlpha(uri.charAt(lastLabel))) { return null; } // maybe an IP address
+        int hostEnd = position;
+
+        // #3 optional port, then the rest must not need escaping
+        if (position < length && uri.charAt(position) == ':') {
+            int portStart = ++position;
+            while (position < length && isDigit(uri.charAt(position))) { ++position; }
+            if (position - portStart > 9) { return null; }
+        }
+        if (position < length && uri.charAt(position) != '/' && uri.charAt(position) != '?' && uri.charAt(position) != '#') {
+            return null;
+        }
+        if (!areLegalChars(uri, position, length)) { return null; }
+
+        // #4 look up the cache, indexed by scheme and host
+        int hash = bucket;
+        for (int i = 0; i < hostEnd; ++i) { hash = 31 * hash + uri.charAt(i); }
+        int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        CachedAuthority cached = cache[index];
+        if (Objects.nonNull(cached) && cached.bucket == bucket && cached.prefix.length() == hostEnd &&
+                uri.regionMatches(0, cached.prefix, 0, hostEnd)) {
+            return cached.node;
+        }
+        String prefix = uri.substring(0, hostEnd);
+        Node node = NodeFactory.createURI(noModulo ? prefix : prefix + "/" + bucket);
+        cache[index] = new CachedAuthority(prefix, bucket, node);
+        return node;
+    }
+
+    /**
+     * @return True if the characters in [from, to) are legal in the path, query, and
+     * fragment of a URI without being escaped, with valid percent-escapes and a single
+     * fragment.
+     */
+    static boolean areLegalChars(String uri, int from, int to) {
+        boolean inFragment = false;
+        for (int i = from; i < to; ++i) {
+            char c = uri.charAt(i);
+            if (isAlphaNum(c) || "-_.!~*'();/?:@&=+$,".indexOf(c) >= 0) {
+                continue;
+            }
+            if (c == '%' && i + 2 < to && isHex(uri.charAt(i + 1)) && isHex(uri.charAt(i + 2))) {
+                i += 2;
+            } else if (c == '#' && !inFragment) {
+                inFragment = true;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isAlpha(char c) { return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'); }
+
+    static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+
+    static boolean isAlphaNum(char c) { return isAlpha(c) || isDigit(c); }
+
+    static boolean isHex(char c) { return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'); }
+
+    static boolean isSchemeChar(char c) { return isAlphaNum(c) || c == '+' || c == '-' || c == '.'; }
+
     /* ************************************************************************* */
 
     @Override
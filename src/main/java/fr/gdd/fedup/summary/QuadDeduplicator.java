@@ -0,0 +1,66 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.collections.LongRowHashSet;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ingestion stage that filters out summarized quads that were already sent to
+ * the store. Since most input quads collapse onto a few summarized quads, this
+ * saves most of the index lookups of the store.
+ *
+ * Nodes are dictionary-encoded locally, and a quad is keyed by its four
+ * identifiers packed into two primitive longs, so the membership test is exact.
+ * The set of keys can live outside the heap. Not thread-safe: use one per worker.
+ */
+public class QuadDeduplicator {
+
+    final Map<Node, Integer> dictionary = new HashMap<>();
+    final LongRowHashSet seen;
+
+    long nbIn = 0L;
+
+    public QuadDeduplicator(boolean offHeap) {
+        this.seen = new LongRowHashSet(2, 1 << 16, offHeap);
+    }
+
+    public QuadDeduplicator() {
+        this(false);
+    }
+
+    /**
+     * @param summarized The summarized quad.
+     * @return True if the quad was never seen before, hence must be written.
+     */
+    public boolean add(Quad summarized) {
+        ++nbIn;
+        long graphAndSubject = ((long) id(summarized.getGraph()) << 32) | id(summarized.getSubject());
+        long predicateAndObject = ((long) id(summarized.getPredicate()) << 32) | id(summarized.getObject());
+        return seen.add(graphAndSubject, predicateAndObject);
+    }
+
+    /**
+     * @return The number of quads given to this stage.
+     */
+    public long getNbIn() { return nbIn; }
+
+    /**
+     * @return The number of distinct quads that passed this stage.
+     */
+    public long getNbOut() { return seen.size(); }
+
+    /**
+     * @return The number of input quads per distinct summarized quad.
+     */
+    public double getCompressionRatio() {
+        return seen.isEmpty() ? 1. : (double) nbIn / seen.size();
+    }
+
+    int id(Node node) {
+        return dictionary.computeIfAbsent(node, n -> dictionary.size());
+    }
+
+}
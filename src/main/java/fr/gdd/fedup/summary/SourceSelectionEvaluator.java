@@ -0,0 +1,430 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.collections.LongRowHashSet;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.*;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.*;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Evaluates source selection queries, as produced by
+ * {@link fr.gdd.fedup.transforms.ToSourceSelectionTransforms}, directly on a
+ * {@link SummaryIndex}. Bindings are arrays of identifiers indexed by variable,
+ * extended in place of Jena's `Binding` objects; and quad patterns are matched
+ * on the partition of their predicate.
+ *
+ * Only the shape of source selection queries is supported: quad patterns, VALUES,
+ * sequences, joins, unions, optionals, and filters made of equalities between
+ * variables and URIs. Any other operator makes {@link #evaluate(Op)} return null,
+ * so the caller falls back to the generic engine.
+ */
+public class SourceSelectionEvaluator {
+
+    public static final int UNBOUND = -1;
+
+    /**
+     * How sequences of quad patterns are joined.
+     */
+    public enum JoinStrategy {
+        NESTED_LOOPS, // one quad pattern after the other, by substitution
+        GENERIC_JOIN_ON_CYCLES, // worst-case optimal join when quad patterns form a cycle
+        GENERIC_JOIN // worst-case optimal join whenever possible
+    }
+
+    final SummaryIndex index;
+    final Map<Var, Integer> var2slot = new HashMap<>();
+    final Map<Node, Integer> extraIds = new HashMap<>(); // constants of the query that are not in the summary
+    final List<Node> extras = new ArrayList<>();
+    int width = 0;
+    JoinStrategy joinStrategy = JoinStrategy.GENERIC_JOIN_ON_CYCLES;
+
+    /**
+     * A compiled operator that extends the input row with each of its results.
+     */
+    interface Step {
+        void eval(int[] row, Consumer<int[]> out);
+    }
+
+    /**
+     * The distinct assignments of graph variables, as rows of identifiers in the
+     * order of variables; {@link #UNBOUND} when a variable is not assigned, e.g.,
+     * inside an OPTIONAL.
+     */
+    public static class Assignments {
+        final List<Var> vars;
+        final List<int[]> rows;
+        final SummaryIndex index;
+        final List<Node> extras;
+
+        Assignments(List<Var> vars, List<int[]> rows, SummaryIndex index, List<Node> extras) {
+            this.vars = vars;
+            this.rows = rows;
+            this.index = index;
+            this.extras = extras;
+        }
+
+        public List<Var> getVars() { return vars; }
+
+        public List<int[]> getRows() { return rows; }
+
+        public int size() { return rows.size(); }
+
+        public Node getNode(int id) {
+            return id < index.nbTerms() ? index.getNode(id) : extras.get(id - index.nbTerms());
+        }
+    }
+
+    public SourceSelectionEvaluator(SummaryIndex index) {
+        this.index = index;
+    }
+
+    public SourceSelectionEvaluator setJoinStrategy(JoinStrategy joinStrategy) {
+        this.joinStrategy = joinStrategy;
+        return this;
+    }
+
+    /**
+     * @param op The source selection query, i.e., DISTINCT graph variables of a
+     *           query whose triple patterns became quad patterns.
+     * @return The distinct assignments of graph variables, or null if the query
+     * has a shape that is not supported.
+     */
+    public Assignments evaluate(Op op) {
+        if (!(op instanceof OpDistinct distinct) || !(distinct.getSubOp() instanceof OpProject project)) {
+            return null;
+        }
+        Step root;
+        int[] projected;
+        try {
+            root = compile(project.getSubOp());
+            projected = project.getVars().stream().mapToInt(this::slot).toArray();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+
+        List<int[]> rows = new ArrayList<>();
+        LongRowHashSet seen = new LongRowHashSet(LongRowHashSet.packedWidth(projected.length));
+        long[] key = new long[LongRowHashSet.packedWidth(projected.length)];
+        root.eval(empty(), result -> {
+            int[] assignment = new int[projected.length];
+            for (int i = 0; i < projected.length; ++i) {
+                assignment[i] = result[projected[i]];
+            }
+            if (seen.add(LongRowHashSet.pack(assignment, key))) {
+                rows.add(assignment);
+            }
+        });
+        return new Assignments(project.getVars(), rows, index, extras);
+    }
+
+    /* ************************************************************************* */
+
+    int slot(Var var) {
+        return var2slot.computeIfAbsent(var, v -> width++);
+    }
+
+    int[] empty() {
+        int[] row = new int[width];
+        Arrays.fill(row, UNBOUND);
+        return row;
+    }
+
+    /**
+     * @return The identifier of the term in the summary, or a fresh identifier past
+     * the summary's so that it matches nothing yet can still be bound.
+     */
+    int encode(Node node) {
+        int id = index.getId(node);
+        if (id != SummaryIndex.ABSENT) {
+            return id;
+        }
+        return extraIds.computeIfAbsent(node, n -> {
+            extras.add(n);
+            return index.nbTerms() + extras.size() - 1;
+        });
+    }
+
+    Step compile(Op op) {
+        return switch (op) {
+            case OpQuad opQuad -> quad(opQuad.getQuad());
+            case OpTable opTable -> table(opTable);
+            case OpSequence opSequence -> sequence(opSequence);
+            case OpFilter opFilter -> filter(compile(opFilter.getSubOp()), condition(opFilter.getExprs()));
+            case OpUnion opUnion -> union(compile(opUnion.getLeft()), compile(opUnion.getRight()));
+            case OpConditional opCond -> conditional(compile(opCond.getLeft()), compile(opCond.getRight()));
+            case OpJoin opJoin -> join(compile(opJoin.getLeft()), compile(opJoin.getRight()), null, false);
+            case OpLeftJoin opLeftJoin -> join(compile(opLeftJoin.getLeft()), compile(opLeftJoin.getRight()),
+                    Objects.isNull(opLeftJoin.getExprs()) ? null : condition(opLeftJoin.getExprs()), true);
+            case OpNull ignored -> (row, out) -> {};
+            default -> throw new UnsupportedOperationException(op.getName());
+        };
+    }
+
+    Step quad(Quad quad) {
+        Node[] nodes = {quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject()};
+        int[] slots = new int[4]; // g, s, p, o
+        int[] constants = new int[4];
+        for (int i = 0; i < 4; ++i) {
+            if (nodes[i].isVariable()) {
+                slots[i] = slot(Var.alloc(nodes[i]));
+                constants[i] = UNBOUND;
+            } else if (nodes[i].isConcrete()) {
+                slots[i] = -1;
+                constants[i] = index.getId(nodes[i]);
+                if (constants[i] == SummaryIndex.ABSENT) {
+                    return (row, out) -> {}; // the summary has no such term
+                }
+            } else {
+                throw new UnsupportedOperationException(nodes[i].toString());
+            }
+        }
+        return (row, out) -> {
+            int[] values = new int[4];
+            for (int i = 0; i < 4; ++i) {
+                values[i] = slots[i] >= 0 ? row[slots[i]] : constants[i];
+            }
+            if (values[2] != UNBOUND) {
+                SummaryIndex.Partition partition = index.getPartition(values[2]);
+                if (Objects.nonNull(partition)) {
+                    match(partition, values[2], values, slots, row, out);
+                }
+            } else {
+                for (int predicate : index.predicates) {
+                    match(index.partitions[predicate], predicate, values, slots, row, out);
+                }
+            }
+        };
+    }
+
+    static void match(SummaryIndex.Partition partition, int predicate, int[] values, int[] slots,
+                      int[] row, Consumer<int[]> out) {
+        int s = values[1];
+        int o = values[3];
+        if (s != UNBOUND) {
+            for (int r = partition.lowerSubject(s); r < partition.size() && partition.subjects[r] == s; ++r) {
+                emit(partition, r, predicate, values, slots, row, out);
+            }
+        } else if (o != UNBOUND) {
+            for (int k = partition.lowerObject(o); k < partition.size() && partition.objects[partition.byObject[k]] == o; ++k) {
+                emit(partition, partition.byObject[k], predicate, values, slots, row, out);
+            }
+        } else {
+            for (int r = 0; r < partition.size(); ++r) {
+                emit(partition, r, predicate, values, slots, row, out);
+            }
+        }
+    }
+
+    static void emit(SummaryIndex.Partition partition, int r, int predicate, int[] values, int[] slots,
+                     int[] row, Consumer<int[]> out) {
+        int g = partition.graphs[r];
+        int s = partition.subjects[r];
+        int o = partition.objects[r];
+        if ((values[0] != UNBOUND && values[0] != g) || (values[1] != UNBOUND && values[1] != s) ||
+                (values[3] != UNBOUND && values[3] != o)) {
+            return;
+        }
+        int[] extended = row.clone();
+        if (bind(extended, slots[0], g) && bind(extended, slots[1], s) &&
+                bind(extended, slots[2], predicate) && bind(extended, slots[3], o)) {
+            out.accept(extended);
+        }
+    }
+
+    /**
+     * @return False if the slot is already bound to another value, e.g., the same
+     * variable appears twice in a quad pattern.
+     */
+    static boolean bind(int[] row, int slot, int value) {
+        if (slot < 0) { return true; }
+        if (row[slot] == UNBOUND) {
+            row[slot] = value;
+            return true;
+        }
+        return row[slot] == value;
+    }
+
+    /**
+     * @return The union of compatible rows, or null if they disagree on a variable.
+     */
+    static int[] merge(int[] left, int[] right) {
+        int[] merged = left.clone();
+        for (int i = 0; i < right.length; ++i) {
+            if (right[i] != UNBOUND && !bind(merged, i, right[i])) {
+                return null;
+            }
+        }
+        return merged;
+    }
+
+    Step table(OpTable opTable) {
+        List<int[]> pairs = new ArrayList<>(); // slot, value, slot, value…
+        Iterator<Binding> bindings = opTable.getTable().rows();
+        while (bindings.hasNext()) {
+            Binding binding = bindings.next();
+            List<Integer> row = new ArrayList<>();
+            binding.vars().forEachRemaining(v -> {
+                row.add(slot(v));
+                row.add(encode(binding.get(v)));
+            });
+            pairs.add(row.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return (row, out) -> {
+            for (int[] values : pairs) {
+                int[] extended = row.clone();
+                boolean compatible = true;
+                for (int i = 0; compatible && i < values.length; i += 2) {
+                    compatible = bind(extended, values[i], values[i + 1]);
+                }
+                if (compatible) {
+                    out.accept(extended);
+                }
+            }
+        };
+    }
+
+    Step sequence(OpSequence opSequence) {
+        if (joinStrategy != JoinStrategy.NESTED_LOOPS) {
+            GenericJoin join = GenericJoin.create(this, opSequence.getElements());
+            if (Objects.nonNull(join) && (joinStrategy == JoinStrategy.GENERIC_JOIN || join.isCyclic())) {
+                return join;
+            }
+        }
+        return sequence(opSequence.getElements().stream().map(this::compile).toList());
+    }
+
+    static Step sequence(List<Step> steps) {
+        return new Step() {
+            @Override
+            public void eval(int[] row, Consumer<int[]> out) {
+                evalFrom(0, row, out);
+            }
+
+            void evalFrom(int i, int[] row, Consumer<int[]> out) {
+                if (i >= steps.size()) {
+                    out.accept(row);
+                } else {
+                    steps.get(i).eval(row, r -> evalFrom(i + 1, r, out));
+                }
+            }
+        };
+    }
+
+    static Step filter(Step sub, Predicate<int[]> condition) {
+        return (row, out) -> sub.eval(row, r -> {
+            if (condition.test(r)) { out.accept(r); }
+        });
+    }
+
+    static Step union(Step left, Step right) {
+        return (row, out) -> {
+            left.eval(row, out);
+            right.eval(row, out);
+        };
+    }
+
+    /**
+     * Left join by substitution, the right side being evaluated for each row of the left side.
+     */
+    static Step conditional(Step left, Step right) {
+        return (row, out) -> left.eval(row, l -> {
+            boolean[] matched = {false};
+            right.eval(l, r -> {
+                matched[0] = true;
+                out.accept(r);
+            });
+            if (!matched[0]) { out.accept(l); }
+        });
+    }
+
+    /**
+     * Join, or left join, of both sides evaluated independently, since substituting
+     * the left side into the right side is not always safe. Sides are evaluated
+     * once, then their results are joined with every input row.
+     */
+    Step join(Step left, Step right, Predicate<int[]> condition, boolean optional) {
+        return new Step() {
+            List<int[]> lefts = null;
+            List<int[]> rights = null;
+
+            @Override
+            public void eval(int[] row, Consumer<int[]> out) {
+                if (Objects.isNull(lefts)) {
+                    lefts = new ArrayList<>();
+                    left.eval(empty(), lefts::add);
+                    rights = new ArrayList<>();
+                    right.eval(empty(), rights::add);
+                }
+                for (int[] l : lefts) {
+                    boolean matched = false;
+                    for (int[] r : rights) {
+                        int[] merged = merge(l, r);
+                        if (Objects.nonNull(merged) && (Objects.isNull(condition) || condition.test(merged))) {
+                            matched = true;
+                            int[] result = merge(row, merged);
+                            if (Objects.nonNull(result)) { out.accept(result); }
+                        }
+                    }
+                    if (optional && !matched) {
+                        int[] result = merge(row, l);
+                        if (Objects.nonNull(result)) { out.accept(result); }
+                    }
+                }
+            }
+        };
+    }
+
+    /* ************************************************************************* */
+
+    Predicate<int[]> condition(ExprList exprs) {
+        Predicate<int[]> all = row -> true;
+        for (Expr expr : exprs) {
+            all = all.and(condition(expr));
+        }
+        return all;
+    }
+
+    /**
+     * Errors, e.g., comparing an unbound variable, are false. It is exact for conjunctions
+     * and disjunctions, since an error only matters when it is the final value.
+     */
+    Predicate<int[]> condition(Expr expr) {
+        return switch (expr) {
+            case E_LogicalOr or -> condition(or.getArg1()).or(condition(or.getArg2()));
+            case E_LogicalAnd and -> condition(and.getArg1()).and(condition(and.getArg2()));
+            case E_Equals equals when equals.getArg1().isVariable() && isURI(equals.getArg2()) ->
+                    equality(equals.getArg1().asVar(), equals.getArg2().getConstant().asNode());
+            case E_Equals equals when equals.getArg2().isVariable() && isURI(equals.getArg1()) ->
+                    equality(equals.getArg2().asVar(), equals.getArg1().getConstant().asNode());
+            case E_NotEquals notEquals when notEquals.getArg1().isVariable() && isURI(notEquals.getArg2()) ->
+                    difference(notEquals.getArg1().asVar(), notEquals.getArg2().getConstant().asNode());
+            case E_NotEquals notEquals when notEquals.getArg2().isVariable() && isURI(notEquals.getArg1()) ->
+                    difference(notEquals.getArg2().asVar(), notEquals.getArg1().getConstant().asNode());
+            default -> throw new UnsupportedOperationException(expr.toString());
+        };
+    }
+
+    static boolean isURI(Expr expr) {
+        return expr.isConstant() && expr.getConstant().asNode().isURI();
+    }
+
+    Predicate<int[]> equality(Var var, Node uri) {
+        int slot = slot(var);
+        int id = encode(uri);
+        return row -> row[slot] == id;
+    }
+
+    Predicate<int[]> difference(Var var, Node uri) {
+        int slot = slot(var);
+        int id = encode(uri);
+        return row -> row[slot] != UNBOUND && row[slot] != id; // unbound is an error
+    }
+
+}
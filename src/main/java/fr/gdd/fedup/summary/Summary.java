@@ -1,12 +1,19 @@
 package fr.gdd.fedup.summary;
 
+import org.apache.jena.atlas.iterator.Iter;
 import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.sparql.algebra.*;
+import org.apache.jena.sparql.algebra.op.OpDistinct;
+import org.apache.jena.sparql.algebra.op.OpProject;
 import org.apache.jena.sparql.algebra.op.OpQuad;
 import org.apache.jena.sparql.algebra.op.OpService;
+import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.Plan;
@@ -19,11 +26,14 @@ import org.apache.jena.sparql.engine.main.QueryEngineMain;
 import org.apache.jena.sparql.util.QueryUtils;
 import org.apache.jena.tdb2.TDB2Factory;
 import org.apache.jena.tdb2.solver.QueryEngineTDB;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * A summary is a dataset along with transformation operations
@@ -37,6 +47,9 @@ public class Summary {
     Transform strategy;
     private String remoteURI = null;
     private Set<String> graphs = null; // lazy loading
+    private GraphFilters filters = null; // optional, to skip ASKs
+    private Path filtersPath = null; // where filters are saved again after updates
+    private SummaryIndex index = null; // lazy loading, for source selection, guarded by this
 
     public Summary(Transform strategy) {
         this.strategy = strategy;
@@ -52,9 +65,54 @@ public class Summary {
         this.strategy = strategy;
         long start = System.currentTimeMillis();
         this.summary = TDB2Factory.connectDataset(location);
+        if (!location.isMem()) {
+            this.filtersPath = Path.of(location.getDirectoryPath(), GraphFilters.FILE_NAME);
+            this.filters = loadFilters(filtersPath);
+        }
+        log.info("Took {} ms to open the summary.", (System.currentTimeMillis() - start));
+    }
+
+    /**
+     * @param strategy The transformation that produced the summary.
+     * @param mappedFile The path to a read-only summary file, see {@link MappedSummary}.
+     */
+    public Summary(Transform strategy, Path mappedFile) {
+        this.strategy = strategy;
+        long start = System.currentTimeMillis();
+        try {
+            this.summary = DatasetFactory.wrap(MappedSummary.open(mappedFile).asDatasetGraph());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.filters = loadFilters(GraphFilters.sidecarOf(mappedFile));
         log.info("Took {} ms to open the summary.", (System.currentTimeMillis() - start));
     }
 
+    static GraphFilters loadFilters(Path path) {
+        try {
+            GraphFilters loaded = GraphFilters.load(path);
+            if (Objects.nonNull(loaded)) {
+                log.info("Loaded the filters of graphs from {}.", path);
+            }
+            return loaded;
+        } catch (IOException e) {
+            log.warn("Could not load the filters of graphs from {}, ASKs will not be filtered.", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The Bloom filters of graphs built along with the summary; null if there are none.
+     */
+    public GraphFilters getFilters() {
+        return filters;
+    }
+
+    public Summary setFilters(GraphFilters filters) {
+        this.filters = filters;
+        return this;
+    }
+
     public Summary setRemote(String remoteURI) {
         this.remoteURI = remoteURI;
         this.summary = DatasetFactory.empty();
@@ -71,27 +129,279 @@ public class Summary {
         }
 
         summary.begin(TxnType.WRITE);
-        OpQuad toAdd = (OpQuad) strategy.transform(new OpQuad(quad));
-        Model model = summary.getNamedModel(toAdd.getQuad().getGraph().getURI());
-        model.add(model.asStatement(toAdd.getQuad().asTriple()));
+        Quad toAdd = summarize(quad);
+        Model model = summary.getNamedModel(toAdd.getGraph().getURI());
+        model.add(model.asStatement(toAdd.asTriple()));
         summary.commit();
         summary.end();
+        invalidateIndex();
     }
 
     public void add(Iterator<Quad> quads) {
+        add(quads, new QuadDeduplicator());
+    }
+
+    /**
+     * Adds the quads after transformation, within a single write transaction.
+     * @param quads The quads to transform and include.
+     * @param deduplicator Filters out transformed quads that were already written,
+     *                     possibly during a previous call.
+     */
+    public void add(Iterator<Quad> quads, QuadDeduplicator deduplicator) {
         if (Objects.nonNull(remoteURI)) { // TODO
             throw new UnsupportedOperationException("Write on remote summary");
         }
 
         summary.begin(TxnType.WRITE);
         quads.forEachRemaining(q-> {
-            OpQuad toAdd = (OpQuad) strategy.transform(new OpQuad(q));
-            Model model = summary.getNamedModel(toAdd.getQuad().getGraph().getURI());
-            model.add(model.asStatement(toAdd.getQuad().asTriple()));
+            Quad toAdd = summarize(q);
+            if (deduplicator.add(toAdd)) {
+                summary.asDatasetGraph().add(toAdd);
+            }
         });
 
         summary.commit();
         summary.end();
+        invalidateIndex();
+    }
+
+    /**
+     * Adds quads that are already summarized, within a single write transaction.
+     * @param summarized The quads produced by {@link #summarize(Quad)}.
+     */
+    public void addSummarized(Collection<Quad> summarized) {
+        if (Objects.nonNull(remoteURI)) { // TODO
+            throw new UnsupportedOperationException("Write on remote summary");
+        }
+
+        summary.begin(TxnType.WRITE);
+        summarized.forEach(q -> summary.asDatasetGraph().add(q));
+        summary.commit();
+        summary.end();
+        invalidateIndex();
+    }
+
+    /**
+     * Adds the named graphs of another summary to this one. Quads are copied as is,
+     * without being transformed again, so both summaries must share their strategy.
+     * Graphs that exist in both summaries end up with the union of their quads.
+     * @param other The summary to add.
+     */
+    public void merge(Summary other) {
+        boolean inTxn = other.getSummary().isInTransaction();
+        if (!inTxn) other.getSummary().begin(ReadWrite.READ);
+        Iterator<Quad> quads = other.getSummary().asDatasetGraph().findNG(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+        List<Quad> batch = new ArrayList<>();
+        while (quads.hasNext()) {
+            batch.add(quads.next());
+            if (batch.size() >= 10_000 || !quads.hasNext()) {
+                addSummarized(batch);
+                batch.clear();
+            }
+        }
+        if (!inTxn) other.getSummary().end();
+        this.graphs = null;
+        invalidateIndex();
+    }
+
+    /**
+     * Summarizes the quads into a partial summary file, without touching this summary.
+     * Partial summaries are built independently, e.g., one per endpoint, then unioned
+     * with {@link SummaryFactory#merge}.
+     * @param quads The quads to transform, usually the content of a single graph.
+     * @param partial The path to the summary file to create.
+     */
+    public void writePartial(Iterator<Quad> quads, Path partial) throws IOException {
+        QuadDeduplicator deduplicator = new QuadDeduplicator();
+        Iterator<Quad> summarized = Iter.filter(Iter.map(quads, this::summarize), deduplicator::add);
+        MappedSummary.write(summarized, partial);
+    }
+
+    /**
+     * @param quad The quad to transform.
+     * @return The quad as it would be stored in the summary. Does not modify the summary,
+     * so it can be called concurrently.
+     */
+    public Quad summarize(Quad quad) {
+        return ((OpQuad) strategy.transform(new OpQuad(quad))).getQuad();
+    }
+
+    /**
+     * Incrementally maintains the summary. Each summarized quad keeps a reference count
+     * of the source quads that collapsed onto it, so it disappears only when its last source
+     * quad is deleted. Insertions and deletions are applied within a single write transaction.
+     * Summarized quads that exist without reference count, i.e., that were ingested without
+     * counting, are never removed. Inserted quads are added to the filters of graphs, if
+     * any, which are saved again; deleted quads stay in them since they cannot forget.
+     * @param insertions The source quads that were added.
+     * @param deletions The source quads that were removed.
+     */
+    public void update(Iterator<Quad> insertions, Iterator<Quad> deletions) {
+        if (Objects.nonNull(remoteURI)) { // TODO
+            throw new UnsupportedOperationException("Write on remote summary");
+        }
+
+        Map<Quad, Long> deltas = new HashMap<>(); // most source quads collapse, so it stays small
+        insertions.forEachRemaining(q -> {
+            deltas.merge(summarize(q), 1L, Long::sum);
+            if (Objects.nonNull(filters)) { filters.add(q); } // otherwise, its ASKs would be skipped
+        });
+        deletions.forEachRemaining(q -> deltas.merge(summarize(q), -1L, Long::sum));
+
+        summary.begin(TxnType.WRITE);
+        DatasetGraph dsg = summary.asDatasetGraph();
+        Graph metadata = dsg.getDefaultGraph();
+        deltas.forEach((quad, delta) -> {
+            if (delta == 0L) { return; }
+            Node id = SummaryVocabulary.idOf(quad);
+            Long count = getCount(metadata, id);
+            if (Objects.isNull(count) && dsg.contains(quad)) {
+                return; // uncounted, we cannot know when it should disappear
+            }
+            long newCount = (Objects.isNull(count) ? 0L : count) + delta;
+            if (newCount > 0) {
+                dsg.add(quad);
+                metadata.remove(id, SummaryVocabulary.COUNT, Node.ANY);
+                metadata.add(id, SummaryVocabulary.COUNT, NodeFactory.createLiteralByValue(newCount));
+            } else {
+                dsg.delete(quad);
+                metadata.remove(id, Node.ANY, Node.ANY);
+            }
+        });
+        summary.commit();
+        summary.end();
+        this.graphs = null; // graphs may have appeared or disappeared
+        invalidateIndex();
+
+        if (Objects.nonNull(filters) && Objects.nonNull(filtersPath)) {
+            try {
+                filters.save(filtersPath);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * @param summarized A quad of the summary.
+     * @return The number of source quads that collapsed onto it; null if it was not counted.
+     */
+    public Long getCount(Quad summarized) {
+        boolean inTxn = summary.isInTransaction();
+        if (!inTxn) summary.begin(ReadWrite.READ);
+        Long count = getCount(summary.asDatasetGraph().getDefaultGraph(), SummaryVocabulary.idOf(summarized));
+        if (!inTxn) summary.end();
+        return count;
+    }
+
+    static Long getCount(Graph metadata, Node id) {
+        return getLong(metadata, id, SummaryVocabulary.COUNT);
+    }
+
+    /**
+     * Stores the cardinalities collected during ingestion next to the summarized quads
+     * and graphs, replacing previous ones. The triple count of a summarized quad doubles
+     * as its reference count, see {@link #update}, but distinct counts are not maintained
+     * by updates.
+     * @param statistics The statistics collected while summarizing.
+     */
+    public void writeStatistics(SummaryStatistics statistics) {
+        if (Objects.nonNull(remoteURI)) { // TODO
+            throw new UnsupportedOperationException("Write on remote summary");
+        }
+
+        summary.begin(TxnType.WRITE);
+        Graph metadata = summary.asDatasetGraph().getDefaultGraph();
+        statistics.getQuadCardinalities().forEach((quad, cardinality) ->
+                writeCardinality(metadata, SummaryVocabulary.idOf(quad), cardinality));
+        statistics.getGraphCardinalities().forEach((graph, cardinality) ->
+                writeCardinality(metadata, graph, cardinality));
+        summary.commit();
+        summary.end();
+    }
+
+    static void writeCardinality(Graph metadata, Node id, SummaryStatistics.Cardinality cardinality) {
+        metadata.remove(id, Node.ANY, Node.ANY);
+        metadata.add(id, SummaryVocabulary.COUNT, NodeFactory.createLiteralByValue(cardinality.triples()));
+        metadata.add(id, SummaryVocabulary.DISTINCT_SUBJECTS, NodeFactory.createLiteralByValue(cardinality.distinctSubjects()));
+        metadata.add(id, SummaryVocabulary.DISTINCT_OBJECTS, NodeFactory.createLiteralByValue(cardinality.distinctObjects()));
+    }
+
+    /**
+     * @param summarized A quad of the summary.
+     * @return Its cardinalities; null if the summary was built without statistics.
+     */
+    public SummaryStatistics.Cardinality getCardinality(Quad summarized) {
+        return getCardinality(SummaryVocabulary.idOf(summarized));
+    }
+
+    /**
+     * @param graph A graph of the summary, i.e., an endpoint.
+     * @return Its cardinalities; null if the summary was built without statistics.
+     */
+    public SummaryStatistics.Cardinality getCardinality(Node graph) {
+        boolean inTxn = summary.isInTransaction();
+        if (!inTxn) summary.begin(ReadWrite.READ);
+        SummaryStatistics.Cardinality cardinality = getCardinality(summary.asDatasetGraph().getDefaultGraph(), graph);
+        if (!inTxn) summary.end();
+        return cardinality;
+    }
+
+    static SummaryStatistics.Cardinality getCardinality(Graph metadata, Node id) {
+        Long triples = getCount(metadata, id);
+        Long subjects = getLong(metadata, id, SummaryVocabulary.DISTINCT_SUBJECTS);
+        Long objects = getLong(metadata, id, SummaryVocabulary.DISTINCT_OBJECTS);
+        if (Objects.isNull(triples) || Objects.isNull(subjects) || Objects.isNull(objects)) {
+            return null;
+        }
+        return new SummaryStatistics.Cardinality(triples, subjects, objects);
+    }
+
+    /**
+     * Estimates the number of results of a triple pattern on an endpoint: the triples of
+     * matching summarized quads, divided by their distinct subjects (resp. objects) when the
+     * subject (resp. object) is bound, assuming values are uniformly distributed.
+     * @param pattern The triple pattern, with variables.
+     * @param graph The graph of the summary, i.e., the endpoint.
+     * @return The estimated number of results; null if the summary was built without statistics.
+     */
+    public Double estimate(Triple pattern, Node graph) {
+        Quad summarized = summarize(Quad.create(graph, pattern));
+        boolean inTxn = summary.isInTransaction();
+        if (!inTxn) summary.begin(ReadWrite.READ);
+        try {
+            DatasetGraph dsg = summary.asDatasetGraph();
+            Iterator<Quad> matches = dsg.find(graph, asFindNode(summarized.getSubject()),
+                    asFindNode(summarized.getPredicate()), asFindNode(summarized.getObject()));
+            double estimate = 0.;
+            while (matches.hasNext()) {
+                SummaryStatistics.Cardinality cardinality = getCardinality(dsg.getDefaultGraph(),
+                        SummaryVocabulary.idOf(matches.next()));
+                if (Objects.isNull(cardinality)) {
+                    return null;
+                }
+                double matching = cardinality.triples();
+                if (pattern.getSubject().isConcrete()) { matching /= cardinality.distinctSubjects(); }
+                if (pattern.getObject().isConcrete()) { matching /= cardinality.distinctObjects(); }
+                estimate += matching;
+            }
+            return estimate;
+        } finally {
+            if (!inTxn) summary.end();
+        }
+    }
+
+    static Node asFindNode(Node node) {
+        return Objects.isNull(node) || node.isVariable() ? Node.ANY : node;
+    }
+
+    static Long getLong(Graph metadata, Node id, Node property) {
+        ExtendedIterator<Triple> values = metadata.find(id, property, Node.ANY);
+        try {
+            return values.hasNext() ? ((Number) values.next().getObject().getLiteralValue()).longValue() : null;
+        } finally {
+            values.close();
+        }
     }
 
     public Dataset getSummary() {
@@ -114,18 +424,99 @@ public class Summary {
         }
         long start = System.currentTimeMillis();
         Op getGraphsQuery = Algebra.compile(QueryFactory.create("SELECT DISTINCT ?g { GRAPH ?g {?s ?p ?o}}"));
-        List<Binding> bindings = querySummary(getGraphsQuery);
+        Set<String> graphs = new HashSet<>();
+        querySummary(getGraphsQuery, b -> graphs.add(b.get(Var.alloc("g")).getURI()));
         log.info("Took {} ms to get graphs.", (System.currentTimeMillis() - start));
-        this.graphs = bindings.stream().map(b -> b.get(Var.alloc("g")).getURI()).collect(Collectors.toSet());
+        this.graphs = graphs;
         return this.graphs;
     }
 
+    /**
+     * The summary over-approximates the federation: a graph that does not have the
+     * summarized pattern cannot have the pattern, so it does not need to be asked.
+     * @param pattern The triple pattern, as in the query.
+     * @return The graphs that might have the pattern according to the summary.
+     */
+    public Set<String> getGraphs(Triple pattern) {
+        Var graph = Var.alloc("g");
+        for (int i = 0; pattern.getSubject().equals(graph) || pattern.getPredicate().equals(graph) ||
+                pattern.getObject().equals(graph); ++i) {
+            graph = Var.alloc("g" + i); // not a variable of the pattern
+        }
+        Op summarized = transform(new OpQuad(Quad.create(graph, pattern)));
+        Op query = new OpDistinct(new OpProject(summarized, List.of(graph)));
+
+        Set<String> graphs = new HashSet<>();
+        SourceSelectionEvaluator.Assignments selected = selectSources(query);
+        if (Objects.nonNull(selected)) {
+            selected.getRows().forEach(row -> graphs.add(selected.getNode(row[0]).getURI()));
+        } else {
+            Var g = graph;
+            querySummary(query, b -> graphs.add(b.get(g).getURI()));
+        }
+        return graphs;
+    }
+
+
+    /**
+     * @return The integer-encoded copy of the summary used for source selection, built on
+     * first call; null for remote summaries.
+     */
+    public synchronized SummaryIndex getIndex() {
+        if (Objects.nonNull(remoteURI)) {
+            return null;
+        }
+        if (Objects.isNull(this.index)) {
+            long start = System.currentTimeMillis();
+            boolean inTxn = summary.isInTransaction();
+            if (!inTxn) summary.begin(ReadWrite.READ);
+            try {
+                this.index = new SummaryIndex(summary.asDatasetGraph());
+            } finally {
+                if (!inTxn) summary.end();
+            }
+            log.info("Took {} ms to index the {} quads of the summary.", (System.currentTimeMillis() - start), index.size());
+        }
+        return this.index;
+    }
+
+    /**
+     * Drops the index after a write, under the same lock as {@link #getIndex()}, so an
+     * index being built meanwhile is dropped too, and queries see the write.
+     */
+    synchronized void invalidateIndex() {
+        this.index = null;
+    }
+
+    /**
+     * Performs the source selection query without the generic engine, see {@link SourceSelectionEvaluator}.
+     * @param ssQueryAsOp The source selection query, as produced by
+     *                    {@link fr.gdd.fedup.transforms.ToSourceSelectionTransforms}.
+     * @return The distinct assignments of graph variables; null if the summary is remote or
+     * the query is not supported, then {@link #querySummary(Op)} should be used instead.
+     */
+    public SourceSelectionEvaluator.Assignments selectSources(Op ssQueryAsOp) {
+        SummaryIndex index = getIndex();
+        return Objects.isNull(index) ? null : new SourceSelectionEvaluator(index).evaluate(ssQueryAsOp);
+    }
 
     /**
      * @param queryAsOp The `Op` representation of the query to perform on the summary.
      * @return The materialized bindings.
      */
     public List<Binding> querySummary(Op queryAsOp) {
+        List<Binding> bindings = new ArrayList<>();
+        querySummary(queryAsOp, bindings::add);
+        return bindings;
+    }
+
+    /**
+     * Streams the results of the query, so they are consumed as soon as they are produced
+     * instead of being materialized.
+     * @param queryAsOp The `Op` representation of the query to perform on the summary.
+     * @param consumer Called on each binding, within the read transaction on the summary.
+     */
+    public void querySummary(Op queryAsOp, Consumer<Binding> consumer) {
         boolean inTxn = this.getSummary().isInTransaction() || Objects.nonNull(remoteURI);
         if (!inTxn) this.getSummary().begin(ReadWrite.READ);
 
@@ -137,25 +528,23 @@ public class Summary {
         }
 
         // TODO make sure it does not loop with {@link FedUPServer} and {@link FedUPEngine}
-        List<Binding> bindings = new ArrayList<>();
         Plan plan = QueryEngineMain.getFactory().create(queryAsOp,
                 getSummary().asDatasetGraph(),
                 BindingRoot.create(),
                 getSummary().getContext().copy());
 
         QueryIterator iterator = plan.iterator();
-
+        try {
             while (iterator.hasNext()) {
-                Binding b = iterator.nextBinding();
-                bindings.add(b);
+                consumer.accept(iterator.nextBinding());
+            }
+        } finally {
+            iterator.close();
+            if (!inTxn) {
+                this.getSummary().commit();
+                this.getSummary().end();
             }
-
-        if (!inTxn) {
-            this.getSummary().commit();
-            this.getSummary().end();
         }
-
-        return bindings;
     }
 
 }
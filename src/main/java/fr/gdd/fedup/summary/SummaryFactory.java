@@ -1,8 +1,15 @@
 package fr.gdd.fedup.summary;
 
 import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Dataset;
 import org.apache.jena.sparql.algebra.TransformCopy;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -11,14 +18,93 @@ import java.util.Objects;
  */
 public class SummaryFactory {
 
+    /**
+     * @param modulo The modulo used when the summary was built.
+     * @param location The location of the summary, if it is persisted.
+     * @return The summary, whose strategy is adaptive when the summary was refined,
+     * see {@link AdaptiveModuloOnSuffix}.
+     */
     public static Summary createModuloOnSuffix(Integer modulo, Location... location) {
         if (Objects.nonNull(location) && location.length > 0) {
-            return new Summary(new ModuloOnSuffix(modulo), location[0]);
+            Summary summary = new Summary(new ModuloOnSuffix(modulo), location[0]);
+            Map<Node, Integer> refinements = AdaptiveModuloOnSuffix.read(summary.getSummary());
+            if (!refinements.isEmpty()) {
+                summary.strategy = new AdaptiveModuloOnSuffix(modulo, refinements);
+            }
+            return summary;
         } else {
             return new Summary(new ModuloOnSuffix(modulo));
         }
     }
 
+    /**
+     * @param modulo The modulo used when the summary was built.
+     * @param dataset The summary dataset, already opened.
+     * @return The summary, whose strategy is adaptive when the summary was refined,
+     * see {@link AdaptiveModuloOnSuffix}.
+     */
+    public static Summary createModuloOnSuffix(Integer modulo, Dataset dataset) {
+        Map<Node, Integer> refinements = AdaptiveModuloOnSuffix.read(dataset);
+        return new Summary(refinements.isEmpty() ?
+                new ModuloOnSuffix(modulo) :
+                new AdaptiveModuloOnSuffix(modulo, refinements), dataset);
+    }
+
+    /**
+     * @param modulo The modulo used when the summary was built.
+     * @param mappedFile The read-only summary file exported by {@link MappedSummary#write}.
+     * @return A summary backed by the memory-mapped file. Refinements are not exported,
+     * so refined summaries cannot be memory-mapped.
+     */
+    public static Summary createModuloOnSuffix(Integer modulo, Path mappedFile) {
+        return new Summary(new ModuloOnSuffix(modulo), mappedFile);
+    }
+
+    /**
+     * Unions partial summary files, see {@link Summary#writePartial}, into a single one,
+     * along with their filters of graphs when they exist.
+     * Re-summarizing one endpoint only requires rebuilding its own partial summary,
+     * then merging again.
+     * @param modulo The modulo used when the partial summaries were built.
+     * @param merged The path to the summary file to create.
+     * @param partials The paths to the partial summary files.
+     * @return A summary backed by the merged file.
+     */
+    public static Summary merge(Integer modulo, Path merged, List<Path> partials) throws IOException {
+        List<MappedSummary> parts = new ArrayList<>();
+        for (Path partial : partials) {
+            parts.add(MappedSummary.open(partial));
+        }
+        MappedSummary.merge(parts, merged);
+
+        GraphFilters filters = null; // partial summaries may come with their filters
+        for (Path partial : partials) {
+            GraphFilters partialFilters = GraphFilters.load(GraphFilters.sidecarOf(partial));
+            if (Objects.nonNull(partialFilters)) {
+                filters = Objects.isNull(filters) ? partialFilters : filters.merge(partialFilters);
+            }
+        }
+        if (Objects.nonNull(filters)) {
+            filters.save(GraphFilters.sidecarOf(merged));
+        }
+        return createModuloOnSuffix(modulo, merged);
+    }
+
+    /**
+     * @param modulo The coarse modulo.
+     * @param refinements The authorities to hash with a finer modulo.
+     * @param location The location of the summary, if it is persisted.
+     * @return An empty summary, ready to ingest quads at multiple resolutions.
+     */
+    public static Summary createAdaptiveModuloOnSuffix(Integer modulo, Map<Node, Integer> refinements, Location... location) {
+        AdaptiveModuloOnSuffix strategy = new AdaptiveModuloOnSuffix(modulo, refinements);
+        Summary summary = Objects.nonNull(location) && location.length > 0 ?
+                new Summary(strategy, location[0]) :
+                new Summary(strategy);
+        strategy.write(summary.getSummary());
+        return summary;
+    }
+
     public static Summary createModuloOnWhole(Integer modulo, Location... location) {
         if (Objects.nonNull(location) && location.length > 0) {
             return new Summary(new ModuloOnWhole(modulo), location[0]);
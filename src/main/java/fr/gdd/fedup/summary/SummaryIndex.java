@@ -0,0 +1,187 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Integer-encoded copy of the named graphs of a summary, held in memory for
+ * source selection. Every term gets an identifier, and quads are partitioned by
+ * predicate, since source selection queries almost always have a constant predicate.
+ * Within a partition, quads are stored as columns sorted by subject, with a second
+ * permutation sorted by object, so bound subjects or objects are found by binary search.
+ */
+public class SummaryIndex {
+
+    public static final int ABSENT = -2; // a constant that is not in the summary
+
+    final Node[] nodes;
+    final Map<Node, Integer> ids;
+    final Partition[] partitions; // by predicate id, null if the term is not a predicate
+    final int[] predicates;
+    final int[] graphs;
+    final int nbQuads;
+
+    /**
+     * Quads that share a predicate, as columns sorted by subject, object, then graph.
+     */
+    static class Partition {
+        final int[] subjects;
+        final int[] objects;
+        final int[] graphs;
+        final int[] byObject; // row numbers sorted by object, subject, then graph
+
+        Partition(List<int[]> rows) { // {s, o, g}
+            rows.sort(MappedSummary::compareRows);
+            int size = rows.size();
+            this.subjects = new int[size];
+            this.objects = new int[size];
+            this.graphs = new int[size];
+            for (int i = 0; i < size; ++i) {
+                subjects[i] = rows.get(i)[0];
+                objects[i] = rows.get(i)[1];
+                graphs[i] = rows.get(i)[2];
+            }
+            this.byObject = sortBy(objects, IntStream.range(0, size).toArray());
+        }
+
+        int size() { return subjects.length; }
+
+        static final int SUBJECT = 0;
+        static final int OBJECT = 1;
+        static final int GRAPH = 2;
+
+        final int[][] sorted = new int[9][]; // lazily built permutations, by first * 3 + second column
+
+        int[] column(int column) {
+            return switch (column) {
+                case SUBJECT -> subjects;
+                case OBJECT -> objects;
+                default -> graphs;
+            };
+        }
+
+        /**
+         * @param order The three columns, e.g., {GRAPH, SUBJECT, OBJECT}.
+         * @return The row numbers sorted by the columns in this order, built on first call.
+         */
+        synchronized int[] sortedBy(int[] order) {
+            int key = order[0] * 3 + order[1];
+            if (Objects.isNull(sorted[key])) {
+                int[] first = column(order[0]);
+                int[] second = column(order[1]);
+                int[] third = column(order[2]);
+                sorted[key] = sortBy(first, sortBy(second, sortBy(third, IntStream.range(0, size()).toArray())));
+            }
+            return sorted[key];
+        }
+
+        /**
+         * Stable sort of rows on primitive arrays: each row is packed with its position in
+         * the input order into a long, so ties keep the input order.
+         * @param column The identifiers to sort by, all positive.
+         * @param order Row numbers, already sorted by the next columns.
+         * @return The row numbers sorted by the column, then by the input order.
+         */
+        static int[] sortBy(int[] column, int[] order) {
+            long[] packed = new long[order.length];
+            for (int position = 0; position < order.length; ++position) {
+                packed[position] = ((long) column[order[position]] << 32) | position;
+            }
+            Arrays.sort(packed);
+            int[] sorted = new int[order.length];
+            for (int i = 0; i < packed.length; ++i) {
+                sorted[i] = order[(int) packed[i]]; // the lower bits are the position
+            }
+            return sorted;
+        }
+
+        /**
+         * @return The first row whose subject is greater than or equal to the value.
+         */
+        int lowerSubject(int value) {
+            int low = 0, high = subjects.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (subjects[middle] < value) { low = middle + 1; } else { high = middle; }
+            }
+            return low;
+        }
+
+        /**
+         * @return The first position in `byObject` whose object is greater than or equal to the value.
+         */
+        int lowerObject(int value) {
+            int low = 0, high = byObject.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (objects[byObject[middle]] < value) { low = middle + 1; } else { high = middle; }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * @param dsg The summary, read within a transaction when it is transactional.
+     */
+    public SummaryIndex(DatasetGraph dsg) {
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, Integer> ids = new HashMap<>();
+        Map<Integer, List<int[]>> predicate2rows = new TreeMap<>();
+        Set<Integer> graphs = new TreeSet<>();
+        int nbQuads = 0;
+        Iterator<Quad> quads = dsg.findNG(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+        while (quads.hasNext()) {
+            Quad quad = quads.next();
+            int g = encode(quad.getGraph(), nodes, ids);
+            int s = encode(quad.getSubject(), nodes, ids);
+            int p = encode(quad.getPredicate(), nodes, ids);
+            int o = encode(quad.getObject(), nodes, ids);
+            predicate2rows.computeIfAbsent(p, k -> new ArrayList<>()).add(new int[]{s, o, g});
+            graphs.add(g);
+            ++nbQuads;
+        }
+        this.nodes = nodes.toArray(Node[]::new);
+        this.ids = ids;
+        this.partitions = new Partition[this.nodes.length];
+        predicate2rows.forEach((p, rows) -> partitions[p] = new Partition(rows));
+        this.predicates = predicate2rows.keySet().stream().mapToInt(Integer::intValue).toArray();
+        this.graphs = graphs.stream().mapToInt(Integer::intValue).toArray();
+        this.nbQuads = nbQuads;
+    }
+
+    static int encode(Node node, List<Node> nodes, Map<Node, Integer> ids) {
+        return ids.computeIfAbsent(node, n -> {
+            nodes.add(n);
+            return nodes.size() - 1;
+        });
+    }
+
+    /**
+     * @return The identifier of the term, or {@link #ABSENT} if the summary does not contain it.
+     */
+    public int getId(Node node) {
+        return ids.getOrDefault(node, ABSENT);
+    }
+
+    public Node getNode(int id) {
+        return nodes[id];
+    }
+
+    public int size() { return nbQuads; }
+
+    public int nbTerms() { return nodes.length; }
+
+    /**
+     * @return The identifiers of graphs, i.e., endpoints, in the summary.
+     */
+    public int[] getGraphs() { return graphs; }
+
+    Partition getPartition(int predicate) {
+        return predicate >= 0 && predicate < partitions.length ? partitions[predicate] : null;
+    }
+
+}
@@ -0,0 +1,101 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.collections.BloomFilter;
+import fr.gdd.fedup.collections.HyperLogLog;
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.sparql.core.Quad;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects cardinalities while quads are summarized: for each summarized quad
+ * and for each graph, the number of source triples along with the number of
+ * distinct subjects and objects among them. Distinct counts are estimated with
+ * HyperLogLog sketches so memory does not depend on the size of the sources.
+ * Not thread-safe, but statistics collected separately can be merged.
+ */
+public class SummaryStatistics {
+
+    static final int QUAD_PRECISION = 7; // 128 bytes per sketch, ~9% error
+    static final int GRAPH_PRECISION = 14; // 16KB per sketch, ~1% error
+
+    /**
+     * @param triples The number of triples.
+     * @param distinctSubjects The (estimated) number of distinct subjects among them.
+     * @param distinctObjects The (estimated) number of distinct objects among them.
+     */
+    public record Cardinality(long triples, long distinctSubjects, long distinctObjects) {}
+
+    static class Accumulator {
+        long triples = 0L;
+        final HyperLogLog subjects;
+        final HyperLogLog objects;
+
+        Accumulator(int precision) {
+            this.subjects = new HyperLogLog(precision);
+            this.objects = new HyperLogLog(precision);
+        }
+
+        void add(Quad source) {
+            ++triples;
+            subjects.add(hash(source.getSubject()));
+            objects.add(hash(source.getObject()));
+        }
+
+        void merge(Accumulator other) {
+            triples += other.triples;
+            subjects.merge(other.subjects);
+            objects.merge(other.objects);
+        }
+
+        Cardinality toCardinality() {
+            // sketches may overestimate a little, but never beyond the number of triples
+            return new Cardinality(triples,
+                    Math.max(1L, Math.min(triples, subjects.estimate())),
+                    Math.max(1L, Math.min(triples, objects.estimate())));
+        }
+    }
+
+    final Map<Quad, Accumulator> quads = new HashMap<>();
+    final Map<Node, Accumulator> graphs = new HashMap<>();
+
+    /**
+     * @param source The quad read from the source.
+     * @param summarized Its summarized version.
+     */
+    public void add(Quad source, Quad summarized) {
+        quads.computeIfAbsent(summarized, q -> new Accumulator(QUAD_PRECISION)).add(source);
+        graphs.computeIfAbsent(summarized.getGraph(), g -> new Accumulator(GRAPH_PRECISION)).add(source);
+    }
+
+    /**
+     * @param other Statistics collected on other quads, possibly of the same graphs.
+     */
+    public void merge(SummaryStatistics other) {
+        other.quads.forEach((q, a) -> quads.merge(q, a, (mine, theirs) -> { mine.merge(theirs); return mine; }));
+        other.graphs.forEach((g, a) -> graphs.merge(g, a, (mine, theirs) -> { mine.merge(theirs); return mine; }));
+    }
+
+    public Map<Quad, Cardinality> getQuadCardinalities() {
+        Map<Quad, Cardinality> result = new HashMap<>();
+        quads.forEach((q, a) -> result.put(q, a.toCardinality()));
+        return result;
+    }
+
+    public Map<Node, Cardinality> getGraphCardinalities() {
+        Map<Node, Cardinality> result = new HashMap<>();
+        graphs.forEach((g, a) -> result.put(g, a.toCardinality()));
+        return result;
+    }
+
+    /**
+     * @return The 64-bit hash of the full N-Triples form of the node, since the 32-bit
+     * hash code of nodes would bias the sketches of large graphs.
+     */
+    static long hash(Node node) {
+        return BloomFilter.hash(NodeFmtLib.strNT(node));
+    }
+
+}
@@ -0,0 +1,46 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.sparql.core.Quad;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Terms used to store metadata about summarized quads. Metadata live in the
+ * default graph of the summary, so they never interfere with source selection
+ * that only looks into named graphs. Metadata about a whole graph use the
+ * graph itself as subject.
+ */
+public class SummaryVocabulary {
+
+    public static final String NS = "urn:fedup:summary:";
+
+    /** Number of source quads that collapsed onto the summarized quad. */
+    public static final Node COUNT = NodeFactory.createURI(NS + "count");
+
+    /** Estimated number of distinct subjects among the source quads, of a summarized quad or a graph. */
+    public static final Node DISTINCT_SUBJECTS = NodeFactory.createURI(NS + "distinctSubjects");
+
+    /** Estimated number of distinct objects among the source quads, of a summarized quad or a graph. */
+    public static final Node DISTINCT_OBJECTS = NodeFactory.createURI(NS + "distinctObjects");
+
+    /** Finer modulo of an authority in summaries built with {@link AdaptiveModuloOnSuffix}. */
+    public static final Node REFINED_MODULO = NodeFactory.createURI(NS + "refinedModulo");
+
+    /**
+     * @param summarized The summarized quad.
+     * @return A stable identifier of the summarized quad to attach metadata to.
+     */
+    public static Node idOf(Quad summarized) {
+        String asString = NodeFmtLib.strNT(summarized.getGraph()) + " " +
+                NodeFmtLib.strNT(summarized.getSubject()) + " " +
+                NodeFmtLib.strNT(summarized.getPredicate()) + " " +
+                NodeFmtLib.strNT(summarized.getObject());
+        UUID uuid = UUID.nameUUIDFromBytes(asString.getBytes(StandardCharsets.UTF_8));
+        return NodeFactory.createURI(NS + "quad:" + uuid);
+    }
+
+}
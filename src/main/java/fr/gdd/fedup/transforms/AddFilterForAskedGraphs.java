@@ -1,18 +1,22 @@
 package fr.gdd.fedup.transforms;
 
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.TransformCopy;
 import org.apache.jena.sparql.algebra.op.OpFilter;
 import org.apache.jena.sparql.algebra.op.OpQuad;
+import org.apache.jena.sparql.algebra.op.OpSequence;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.expr.E_LogicalOr;
 import org.apache.jena.sparql.expr.Expr;
 import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.NodeValue;
 import org.apache.jena.sparql.util.ExprUtils;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 public class AddFilterForAskedGraphs extends TransformCopy {
@@ -40,8 +44,45 @@ public class AddFilterForAskedGraphs extends TransformCopy {
         return op;
     }
 
+    @Override
+    public Op transform(OpSequence opSequence, List<Op> elements) {
+        List<OpQuad> quads = elements.stream().map(op -> switch (op) {
+            case OpQuad opQuad -> opQuad;
+            case OpFilter opFilter when opFilter.getSubOp() instanceof OpQuad opQuad -> opQuad;
+            default -> null;
+        }).filter(Objects::nonNull).toList();
+
+        ExprList exprs = new ExprList();
+        for (int i = 0; i < quads.size(); ++i) {
+            for (int j = i + 1; j < quads.size(); ++j) {
+                List<String> absent = getAbsentEndpoints(quads.get(i).getQuad().asTriple(), quads.get(j).getQuad().asTriple());
+                for (String endpoint : absent) { // both patterns exist there, but they do not join
+                    exprs.add(ExprUtils.parse(String.format("%s != <%s> || %s != <%s>",
+                            quads.get(i).getQuad().getGraph(), endpoint, quads.get(j).getQuad().getGraph(), endpoint)));
+                }
+            }
+        }
+
+        Op sequence = super.transform(opSequence, elements);
+        if (exprs.isEmpty()) {
+            return sequence;
+        }
+        askFilters.add(exprs);
+        return OpFilter.filterDirect(exprs, sequence);
+    }
+
+    List<String> getAbsentEndpoints(Triple left, Triple right) {
+        List<String> absent = valuesAndOrder.pair2AbsentEndpoints.get(new ImmutablePair<>(left, right));
+        if (Objects.isNull(absent)) {
+            absent = valuesAndOrder.pair2AbsentEndpoints.get(new ImmutablePair<>(right, left));
+        }
+        return Objects.isNull(absent) ? List.of() : absent;
+    }
+
     public static Op prepareFilter(List<String> endpoints, Op op, Var graph) {
-        // TODO, what if endpoints is empty ?
+        if (endpoints.isEmpty()) { // no endpoint has it, so the pattern has no result
+            return OpFilter.filterBy(new ExprList(NodeValue.FALSE), op);
+        }
         List<Expr> exprs = endpoints.stream().map(e -> ExprUtils.parse(String.format("%s = <%s>", graph, e))).toList();
         Expr expr = switch (exprs.size()) {
             case 1 -> exprs.getFirst();
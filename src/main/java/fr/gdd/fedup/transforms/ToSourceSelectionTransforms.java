@@ -1,6 +1,10 @@
 package fr.gdd.fedup.transforms;
 
+import fr.gdd.fedup.asks.ASKCache;
+import fr.gdd.fedup.asks.EndpointGuard;
+import fr.gdd.fedup.summary.GraphFilters;
 import fr.gdd.fedup.summary.ModuloOnSuffix;
+import fr.gdd.fedup.summary.Summary;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.Transform;
@@ -9,6 +13,7 @@ import org.apache.jena.sparql.algebra.op.OpDistinct;
 import org.apache.jena.sparql.algebra.op.OpProject;
 import org.apache.jena.sparql.core.Var;
 
+import java.net.http.HttpClient;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -23,6 +28,15 @@ public class ToSourceSelectionTransforms {
     Set<String> endpoints;
     Dataset dataset = null;
     Function<String, String> modifierOfEndpoints = null;
+    GraphFilters graphFilters = null;
+    Summary summary = null;
+    ASKCache askCache = null;
+    EndpointGuard endpointGuard = null;
+    Long askDeadline = null; // ms
+    HttpClient httpClient = null;
+    boolean batchedASKs = false;
+    boolean pairASKs = false;
+    long filterASKCost = 0; // ms, 0 disables them
 
     public boolean asDistinctGraphs;
 
@@ -44,11 +58,65 @@ public class ToSourceSelectionTransforms {
         return this;
     }
 
+    public ToSourceSelectionTransforms setGraphFilters(GraphFilters graphFilters) {
+        this.graphFilters = graphFilters;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setSummary(Summary summary) {
+        this.summary = summary;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setASKCache(ASKCache askCache) {
+        this.askCache = askCache;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setEndpointGuard(EndpointGuard endpointGuard) {
+        this.endpointGuard = endpointGuard;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setASKDeadline(Long askDeadline) {
+        this.askDeadline = askDeadline;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setHttpClient(HttpClient httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setBatchedASKs(boolean batchedASKs) {
+        this.batchedASKs = batchedASKs;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setPairASKs(boolean pairASKs) {
+        this.pairASKs = pairASKs;
+        return this;
+    }
+
+    public ToSourceSelectionTransforms setFilterASKCost(long filterASKCost) {
+        this.filterASKCost = filterASKCost;
+        return this;
+    }
+
     public Op transform(Op op) {
         // #0 performs ASKs
         ToValuesAndOrderTransform tv = new ToValuesAndOrderTransform(endpoints)
                 .setDataset(dataset)
-                .setModifierOfEndpoints(modifierOfEndpoints);
+                .setModifierOfEndpoints(modifierOfEndpoints)
+                .setGraphFilters(graphFilters)
+                .setSummary(summary)
+                .setASKCache(askCache)
+                .setEndpointGuard(endpointGuard)
+                .setASKDeadline(askDeadline)
+                .setHttpClient(httpClient)
+                .setBatchedASKs(batchedASKs)
+                .setPairASKs(pairASKs)
+                .setFilterASKCost(filterASKCost);
 
         // #1 remove noisy operators
         op = Transformer.transform(new ToRemoveNoiseTransformer(), op);
@@ -1,6 +1,10 @@
 package fr.gdd.fedup.transforms;
 
+import fr.gdd.fedup.asks.ASKCache;
 import fr.gdd.fedup.asks.ASKVisitor;
+import fr.gdd.fedup.asks.EndpointGuard;
+import fr.gdd.fedup.summary.GraphFilters;
+import fr.gdd.fedup.summary.Summary;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
@@ -13,6 +17,7 @@ import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.util.VarUtils;
 
+import java.net.http.HttpClient;
 import java.util.*;
 import java.util.function.Function;
 
@@ -26,6 +31,7 @@ public class ToValuesAndOrderTransform extends TransformUnimplemented {
     ASKVisitor asks;
     Map<Triple, List<String>> triple2Endpoints = new HashMap<>();
     Map<Triple, Integer> triple2NbEndpoints = new HashMap<>();
+    Map<ImmutablePair<Triple, Triple>, List<String>> pair2AbsentEndpoints = new HashMap<>(); // both exist, no join
     Set<Var> tracker = new HashSet<>();
 
     Map<OpTable, OpQuad> values2quad = new HashMap<>(); // to avoid adding a filter when we already have a values
@@ -41,6 +47,7 @@ public class ToValuesAndOrderTransform extends TransformUnimplemented {
         this.asks = copy.asks;
         this.triple2NbEndpoints = copy.triple2NbEndpoints;
         this.triple2Endpoints = copy.triple2Endpoints;
+        this.pair2AbsentEndpoints = copy.pair2AbsentEndpoints;
         this.tracker = new HashSet<>(tracker);
         this.values2quad = copy.values2quad;
     }
@@ -50,6 +57,51 @@ public class ToValuesAndOrderTransform extends TransformUnimplemented {
         return this;
     }
 
+    public ToValuesAndOrderTransform setGraphFilters(GraphFilters graphFilters) {
+        this.asks.setGraphFilters(graphFilters);
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setSummary(Summary summary) {
+        this.asks.setSummary(summary);
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setASKCache(ASKCache cache) {
+        this.asks.setCache(cache);
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setEndpointGuard(EndpointGuard guard) {
+        if (Objects.nonNull(guard)) { this.asks.setGuard(guard); }
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setHttpClient(HttpClient httpClient) {
+        this.asks.setHttpClient(httpClient);
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setBatchedASKs(boolean batched) {
+        this.asks.setBatched(batched);
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setPairASKs(boolean pairs) {
+        this.asks.setPairs(pairs);
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setFilterASKCost(long filterCost) {
+        this.asks.setFilterCost(filterCost);
+        return this;
+    }
+
+    public ToValuesAndOrderTransform setASKDeadline(Long deadline) {
+        this.asks.setDeadline(deadline);
+        return this;
+    }
+
     public ToValuesAndOrderTransform setDataset(Dataset dataset) {
         this.asks.setDataset(dataset);
         return this;
@@ -70,6 +122,7 @@ public class ToValuesAndOrderTransform extends TransformUnimplemented {
             }
         }
         triple2Endpoints.forEach((key, value) -> triple2NbEndpoints.put(key, value.size()));
+        pair2AbsentEndpoints.putAll(asks.getNegativePairs());
 
         return Top2BottomTransformer.transform(this, op);
     }
@@ -0,0 +1,83 @@
+package fr.gdd.fedqpl;
+
+import fr.gdd.fedqpl.operators.Mu;
+import fr.gdd.fedup.transforms.ToQuadsTransform;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpJoin;
+import org.apache.jena.sparql.algebra.op.OpService;
+import org.apache.jena.sparql.algebra.op.OpTriple;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssignmentTableTest {
+
+    static final Var G1 = Var.alloc("g1");
+    static final Var G2 = Var.alloc("g2");
+    static final Node A = NodeFactory.createURI("https://graphA.org");
+    static final Node B = NodeFactory.createURI("https://graphB.org");
+
+    static final AssignmentTable TABLE = new AssignmentTable(List.of(
+            Map.of(G1, A.getURI(), G2, B.getURI()),
+            Map.of(G1, A.getURI(), G2, A.getURI()),
+            Map.of(G1, B.getURI()))); // e.g., g2 in an OPTIONAL that does not match
+
+    static BitSet rowsOf(int... rows) {
+        BitSet bitset = new BitSet();
+        for (int row : rows) { bitset.set(row); }
+        return bitset;
+    }
+
+    @Test
+    public void rows_matching_constraints_are_intersections_of_bitsets() {
+        assertEquals(3, TABLE.nbRows());
+        assertEquals(rowsOf(0, 1), TABLE.rows(G1, A));
+        assertEquals(rowsOf(0, 1), TABLE.rows(G2));
+        assertEquals(rowsOf(1), TABLE.rows(Map.of(G1, A, G2, A)));
+        assertEquals(rowsOf(), TABLE.rows(Map.of(G1, B, G2, A)));
+        assertEquals(rowsOf(), TABLE.rows(Var.alloc("unknown"), A));
+        assertEquals(rowsOf(0, 1, 2), TABLE.rows(Map.of()));
+
+        assertEquals(List.of(Map.of(G1, A), Map.of(G1, B)), TABLE.project(List.of(G1), TABLE.all()));
+        assertEquals(List.of(Map.of(G1, A, G2, B), Map.of(G1, A, G2, A)),
+                TABLE.project(List.of(G1, G2), TABLE.rows(G2)));
+    }
+
+    @Test
+    public void requests_constrain_the_endpoint_of_their_triple_patterns() {
+        OpTriple t1 = new OpTriple(Triple.create(Var.alloc("s"), NodeFactory.createURI("http://auth/named"), Var.alloc("o")));
+        OpTriple t2 = new OpTriple(Triple.create(Var.alloc("o"), NodeFactory.createURI("http://auth/owns"), Var.alloc("a")));
+        ToQuadsTransform tqt = new ToQuadsTransform();
+        tqt.add(G1, t1);
+        tqt.add(G2, t2);
+        SA2FedQPL builder = new SA2FedQPL(tqt, TABLE);
+
+        assertEquals(List.of(Map.of(G1, A), Map.of(G1, B)), builder.sols(t1));
+        assertEquals(List.of(Map.of(G2, B), Map.of(G2, A)), builder.sols(t2));
+
+        assertTrue(builder.ask(OpJoin.create(new OpService(A, t1, true), new OpService(B, t2, true))));
+        assertFalse(builder.ask(OpJoin.create(new OpService(B, t1, true), new OpService(B, t2, true))));
+        assertTrue(builder.ask(OpJoin.create(new Mu(List.of(new OpService(B, t1, true), new OpService(A, t1, true))),
+                new OpService(A, t2, true))));
+        assertEquals(rowsOf(2), builder.rows(new OpService(B, t1, true)));
+
+        List<Op> lefts = List.of(new OpService(A, t1, true), new OpService(B, t1, true));
+        List<Op> rights = List.of(new OpService(A, t2, true), new OpService(B, t2, true));
+        List<BitSet> compatibles = builder.compatibles(lefts, rights);
+        for (int i = 0; i < lefts.size(); ++i) {
+            for (int j = 0; j < rights.size(); ++j) {
+                assertEquals(builder.ask(OpJoin.create(lefts.get(i), rights.get(j))), compatibles.get(i).get(j));
+            }
+        }
+        assertEquals(List.of(rowsOf(0, 1), rowsOf()), compatibles);
+    }
+
+}
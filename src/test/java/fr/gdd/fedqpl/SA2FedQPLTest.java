@@ -0,0 +1,87 @@
+package fr.gdd.fedqpl;
+
+import fr.gdd.fedqpl.visitors.ReturningOpVisitorRouter;
+import fr.gdd.fedup.transforms.ToQuadsTransform;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpAsQuery;
+import org.apache.jena.sparql.algebra.Transformer;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SA2FedQPLTest {
+
+    static final List<String> ENDPOINTS = List.of("https://graphA.org", "https://graphB.org", "https://graphC.org");
+
+    @Test
+    public void building_in_parallel_gives_the_same_plan_as_sequentially() {
+        Op query = Algebra.compile(QueryFactory.create("""
+                SELECT * WHERE {
+                    { ?s <http://auth/p1> ?o }
+                    UNION { ?s <http://auth/p2> ?o . ?o <http://auth/p3> ?x }
+                    UNION { { ?s <http://auth/p4> ?o } { ?o <http://auth/p5> ?x } }
+                    UNION { ?s <http://auth/p6> ?o OPTIONAL { ?o <http://auth/p7> ?y } }
+                }"""));
+        ToQuadsTransform tqt = new ToQuadsTransform();
+        Transformer.transform(tqt, query);
+        Map<String, Var> p2g = new HashMap<>();
+        for (Map.Entry<Var, Quad> g2quad : tqt.getVar2quad().entrySet()) {
+            p2g.put(g2quad.getValue().getPredicate().getURI().replace("http://auth/", ""), g2quad.getKey());
+        }
+
+        // every combination of endpoints, except those of graphC for p5
+        List<Map<Var, String>> assignments = new ArrayList<>();
+        for (String e1 : ENDPOINTS) {
+            assignments.add(Map.of(p2g.get("p1"), e1));
+            assignments.add(Map.of(p2g.get("p6"), e1));
+            for (String e2 : ENDPOINTS) {
+                assignments.add(Map.of(p2g.get("p2"), e1, p2g.get("p3"), e2));
+                if (!e2.equals(ENDPOINTS.get(2))) {
+                    assignments.add(Map.of(p2g.get("p4"), e1, p2g.get("p5"), e2));
+                }
+                assignments.add(Map.of(p2g.get("p6"), e1, p2g.get("p7"), e2));
+            }
+        }
+        AssignmentTable table = new AssignmentTable(assignments);
+
+        Op sequentially = SA2FedQPL.build(query, tqt, table, false);
+        Op inParallel = SA2FedQPL.build(query, tqt, table, true);
+        assertEquals(sequentially, inParallel);
+
+        // 3 for p1, 9×2 for p2.p3, 6×2 for p4.p5, and 3+9 for p6 OPT p7
+        String asSPARQL = OpAsQuery.asQuery(ReturningOpVisitorRouter.visit(new FedQPL2SPARQL(), inParallel)).toString();
+        assertEquals(45, StringUtils.countMatches(asSPARQL, "SERVICE"));
+    }
+
+    @Test
+    public void sibling_distinct_subqueries_keep_their_own_projection() {
+        StringBuilder branches = new StringBuilder();
+        for (int i = 0; i < 16; ++i) { // each with its own variables
+            branches.append(i == 0 ? "" : " UNION ").append(String.format(
+                    "{ SELECT DISTINCT * WHERE { ?s%s <http://auth/p%s> ?o%s } }", i, i, i));
+        }
+        Op query = Algebra.compile(QueryFactory.create("SELECT * WHERE { " + branches + " }"));
+        ToQuadsTransform tqt = new ToQuadsTransform();
+        Transformer.transform(tqt, query);
+        List<Map<Var, String>> assignments = new ArrayList<>();
+        for (Var g : tqt.getVar2quad().keySet()) {
+            for (String e : ENDPOINTS) {
+                assignments.add(Map.of(g, e));
+            }
+        }
+        AssignmentTable table = new AssignmentTable(assignments);
+
+        Op sequentially = SA2FedQPL.build(query, tqt, table, false);
+        for (int i = 0; i < 100; ++i) { // branches are built concurrently
+            assertEquals(sequentially, SA2FedQPL.build(query, tqt, table, true));
+        }
+    }
+
+}
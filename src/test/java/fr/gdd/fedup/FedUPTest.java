@@ -1,5 +1,6 @@
 package fr.gdd.fedup;
 
+import fr.gdd.fedup.asks.EndpointMonitor;
 import fr.gdd.fedup.summary.InMemorySummaryFactory;
 import fr.gdd.fedup.summary.Summary;
 import org.apache.commons.collections4.MultiSet;
@@ -32,7 +33,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Testing the whole process from getting a query to the retrieving the results
@@ -83,6 +84,70 @@ class FedUPTest {
         // assertEquals("SELECT*WHERE{}", result.replace("\n", "").replace(" ", ""));
     }
 
+    @Test
+    public void patterns_that_exist_at_an_endpoint_but_do_not_join_there_are_not_assigned_to_it () {
+        // Both patterns exist in graphA, and the summary joins them, but graphA
+        // has no person named Alice who owns the cat: only pair probes know it.
+        String queryAsString = """
+                SELECT * WHERE {
+                    ?x <http://auth/named> <http://auth/Alice> .
+                    ?x <http://auth/owns> <http://auth/cat>
+                }""";
+        String withoutPairs = new FedUP(summary, dataset).query(queryAsString, endpoints);
+        assertEquals(1, StringUtils.countMatches(withoutPairs, "SERVICE"));
+
+        String withPairs = new FedUP(summary, dataset).setPairASKs(true).query(queryAsString, endpoints);
+        assertEquals("SELECT*WHERE{}", withPairs.replace("\n", "").replace(" ", ""));
+    }
+
+    @Test
+    public void endpoints_down_are_skipped_or_only_reported_depending_on_the_policy () {
+        String queryAsString = "SELECT * WHERE { ?x <http://auth/named> ?name }";
+        EndpointMonitor monitor = new EndpointMonitor().setDownAfter(1)
+                .setProbe(e -> !e.equals("https://graphB.org"))
+                .track(endpoints);
+        monitor.probeAll();
+
+        String skipped = new FedUP(summary, dataset).setEndpointMonitor(monitor).query(queryAsString, endpoints);
+        assertTrue(skipped.contains("https://graphA.org"));
+        assertFalse(skipped.contains("https://graphB.org"));
+
+        monitor.setPolicy(EndpointMonitor.Policy.REPORT);
+        String reported = new FedUP(summary, dataset).setEndpointMonitor(monitor).query(queryAsString, endpoints);
+        assertTrue(reported.contains("https://graphB.org"));
+    }
+
+    @Test
+    public void selective_filters_are_asked_along_with_their_pattern () {
+        // Both graphs have names, but only graphA has a name that passes the filter
+        String queryAsString = """
+                SELECT * WHERE {
+                    ?x <http://auth/named> ?name .
+                    FILTER regex(str(?name), "Ali")
+                }""";
+        String withoutFilters = new FedUP(summary, dataset).query(queryAsString, endpoints);
+        assertTrue(withoutFilters.contains("https://graphB.org"));
+
+        String withFilters = new FedUP(summary, dataset).setFilterASKCost(1000).query(queryAsString, endpoints);
+        assertEquals(1, StringUtils.countMatches(withFilters, "SERVICE"));
+        assertTrue(withFilters.contains("https://graphA.org"));
+        assertFalse(withFilters.contains("https://graphB.org"));
+    }
+
+    @Test
+    public void patterns_whose_filters_are_false_at_every_endpoint_have_no_source () {
+        // no name nor pet passes the filters, so both asks of both patterns are false
+        String queryAsString = """
+                SELECT * WHERE {
+                    ?x <http://auth/named> ?name .
+                    ?name <http://auth/owns> ?pet .
+                    FILTER regex(str(?name), "Zzz")
+                    FILTER regex(str(?pet), "Zzz")
+                }""";
+        String withFilters = new FedUP(summary, dataset).setFilterASKCost(1000).query(queryAsString, endpoints);
+        assertEquals("SELECT*WHERE{}", withFilters.replace("\n", "").replace(" ", ""));
+    }
+
     @Test
     public void simple_query_with_two_endpoints () {
         // Alice is a constant, so it gets actually checked using an ASK
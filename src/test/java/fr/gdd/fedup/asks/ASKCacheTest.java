@@ -0,0 +1,125 @@
+package fr.gdd.fedup.asks;
+
+import fr.gdd.fedup.summary.InMemorySummaryFactory;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ASKCacheTest {
+
+    @TempDir
+    Path temp;
+
+    static final String GRAPH_A = "https://graphA.org";
+    static final String GRAPH_B = "https://graphB.org";
+
+    static Triple named(String s, String o) {
+        return Triple.create(Var.alloc(s), NodeFactory.createURI("http://auth/named"), NodeFactory.createURI(o));
+    }
+
+    @Test
+    public void patterns_that_differ_only_by_variable_names_share_answers() {
+        ASKCache cache = new ASKCache(60_000, 10);
+        cache.put(GRAPH_A, named("s", "http://auth/Alice"), true);
+        assertEquals(true, cache.getIfPresent(GRAPH_A, named("person", "http://auth/Alice")));
+        assertNull(cache.getIfPresent(GRAPH_B, named("person", "http://auth/Alice")));
+        assertNull(cache.getIfPresent(GRAPH_A, named("s", "http://auth/Carol")));
+
+        Triple knowsItself = Triple.create(Var.alloc("x"), NodeFactory.createURI("http://auth/knows"), Var.alloc("x"));
+        Triple knowsOther = Triple.create(Var.alloc("x"), NodeFactory.createURI("http://auth/knows"), Var.alloc("y"));
+        assertNotEquals(ASKCache.canonicalize(knowsItself), ASKCache.canonicalize(knowsOther));
+    }
+
+    @Test
+    public void answers_expire_and_least_recently_used_ones_are_evicted() throws InterruptedException {
+        ASKCache expiring = new ASKCache(1, 10);
+        expiring.put(GRAPH_A, named("s", "http://auth/Alice"), true);
+        Thread.sleep(5);
+        assertNull(expiring.getIfPresent(GRAPH_A, named("s", "http://auth/Alice")));
+
+        ASKCache small = new ASKCache(60_000, 2);
+        small.put(GRAPH_A, named("s", "http://auth/Alice"), true);
+        small.put(GRAPH_A, named("s", "http://auth/Bob"), false);
+        small.getIfPresent(GRAPH_A, named("s", "http://auth/Alice")); // Bob is now the least recently used
+        small.put(GRAPH_A, named("s", "http://auth/Carol"), false);
+        assertEquals(2, small.size());
+        assertNull(small.getIfPresent(GRAPH_A, named("s", "http://auth/Bob")));
+        assertEquals(true, small.getIfPresent(GRAPH_A, named("s", "http://auth/Alice")));
+    }
+
+    @Test
+    public void concurrent_requests_share_one_ask_and_failures_are_not_cached() throws Exception {
+        ASKCache cache = new ASKCache(60_000, 10);
+        AtomicInteger nbAsks = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Boolean>> answers = List.of(
+                    executor.submit(() -> cache.get(GRAPH_A, named("s", "http://auth/Alice"), () -> {
+                        nbAsks.incrementAndGet();
+                        try { release.await(); } catch (InterruptedException e) { throw new RuntimeException(e); }
+                        return true;
+                    })),
+                    executor.submit(() -> {
+                        while (cache.inFlight.isEmpty()) { Thread.onSpinWait(); }
+                        return cache.get(GRAPH_A, named("other", "http://auth/Alice"), () -> nbAsks.incrementAndGet() > 0);
+                    }));
+            while (cache.inFlight.isEmpty()) { Thread.onSpinWait(); }
+            release.countDown();
+            for (Future<Boolean> answer : answers) {
+                assertTrue(answer.get());
+            }
+        }
+        assertEquals(1, nbAsks.get());
+
+        assertNull(cache.get(GRAPH_B, named("s", "http://auth/Alice"), () -> null)); // endpoint failed
+        assertNull(cache.getIfPresent(GRAPH_B, named("s", "http://auth/Alice")));
+    }
+
+    @Test
+    public void answers_survive_a_restart_through_a_local_file() throws Exception {
+        ASKCache cache = new ASKCache(60_000, 10);
+        cache.put(GRAPH_A, named("s", "http://auth/Alice"), true);
+        cache.put(GRAPH_B, named("s", "http://auth/Alice"), false);
+        Path file = temp.resolve("asks.bin");
+        cache.save(file);
+
+        ASKCache reloaded = new ASKCache(60_000, 10).load(file);
+        assertEquals(2, reloaded.size());
+        assertEquals(true, reloaded.getIfPresent(GRAPH_A, named("x", "http://auth/Alice")));
+        assertEquals(false, reloaded.getIfPresent(GRAPH_B, named("x", "http://auth/Alice")));
+        assertEquals(0, new ASKCache(60_000, 10).load(temp.resolve("missing.bin")).size());
+    }
+
+    @Test
+    public void asks_of_previous_queries_are_not_performed_again() {
+        Dataset dataset = new InMemorySummaryFactory().getPetsDataset();
+        ASKCache cache = new ASKCache(60_000, 10);
+        Triple alice = named("s", "http://auth/Alice");
+
+        ASKParallel first = new ASKParallel(Set.of(GRAPH_A, GRAPH_B)).setDataset(dataset).setCache(cache);
+        first.execute(List.of(alice));
+        assertTrue(first.get(GRAPH_A, alice));
+        assertFalse(first.get(GRAPH_B, alice));
+        assertEquals(2, cache.size());
+
+        cache.put(GRAPH_B, alice, true); // pretending graphB changed meanwhile
+        Triple renamed = named("person", "http://auth/Alice");
+        ASKParallel second = new ASKParallel(Set.of(GRAPH_A, GRAPH_B)).setDataset(dataset).setCache(cache);
+        second.execute(List.of(renamed));
+        assertTrue(second.get(GRAPH_B, renamed)); // from the cache, not from the dataset
+    }
+
+}
@@ -1,17 +1,33 @@
 package fr.gdd.fedup.asks;
 
+import com.sun.net.httpserver.HttpServer;
+import fr.gdd.fedup.summary.GraphFilters;
 import fr.gdd.fedup.summary.InMemorySummaryFactory;
+import fr.gdd.fedup.summary.Summary;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.jena.fuseki.main.FusekiServer;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.core.Var;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -91,7 +107,8 @@ class ASKParallelTest {
 
         ASKParallel pa = new ASKParallel(Set.of(endpointA));
         pa.execute(List.of(triple));
-        assertFalse(pa.get(endpointA, triple)); // server does not run
+        assertTrue(pa.get(endpointA, triple)); // server does not run, so unknown and kept
+        assertTrue(pa.getUnknowns().contains(new ImmutablePair<>(endpointA, triple)));
 
         serverA.start();
 
@@ -109,4 +126,175 @@ class ASKParallelTest {
         serverB.stop();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void filters_of_graphs_answer_definite_negatives_without_asking() {
+        Dataset dataset = new InMemorySummaryFactory().getPetsDataset();
+        GraphFilters filters = new GraphFilters(100);
+        dataset.begin(ReadWrite.READ);
+        dataset.asDatasetGraph().find().forEachRemaining(filters::add);
+
+        // the federation changed since filters were built: graphB now has Alice too
+        Dataset changed = DatasetFactory.createTxnMem();
+        changed.begin(ReadWrite.WRITE);
+        changed.getNamedModel("https://graphA.org").add(dataset.getNamedModel("https://graphA.org"));
+        dataset.end();
+        changed.getNamedModel("https://graphB.org").add(
+                ResourceFactory.createResource("http://auth/person"),
+                ResourceFactory.createProperty("http://auth/named"),
+                ResourceFactory.createResource("http://auth/Alice"));
+        changed.commit();
+        changed.end();
+
+        String graphA = "https://graphA.org";
+        String graphB = "https://graphB.org";
+        Triple triple = Triple.create(Var.alloc("s"),
+                NodeFactory.createURI("http://auth/named"),
+                NodeFactory.createURI("http://auth/Alice"));
+
+        ASKParallel pa = new ASKParallel(Set.of(graphA, graphB)).setDataset(changed);
+        pa.execute(List.of(triple));
+        assertTrue(pa.get(graphB, triple)); // actually asked
+
+        pa = new ASKParallel(Set.of(graphA, graphB)).setDataset(changed).setGraphFilters(filters);
+        pa.execute(List.of(triple));
+        assertTrue(pa.get(graphA, triple));
+        assertFalse(pa.get(graphB, triple)); // the filter said no, so it was not asked
+    }
+
+    @Test
+    public void pairs_of_patterns_that_do_not_join_at_an_endpoint_are_negative() {
+        Dataset dataset = new InMemorySummaryFactory().getPetsDataset();
+        String graphA = "https://graphA.org";
+        String graphB = "https://graphB.org";
+        Triple aliceNamed = Triple.create(Var.alloc("x"), NodeFactory.createURI("http://auth/named"), NodeFactory.createURI("http://auth/Alice"));
+        Triple ownsCat = Triple.create(Var.alloc("x"), NodeFactory.createURI("http://auth/owns"), NodeFactory.createURI("http://auth/cat"));
+        Triple personNamed = Triple.create(NodeFactory.createURI("http://auth/person"), NodeFactory.createURI("http://auth/named"), Var.alloc("x"));
+        List<ImmutablePair<Triple, Triple>> pairs = List.of(new ImmutablePair<>(aliceNamed, ownsCat), new ImmutablePair<>(personNamed, ownsCat));
+
+        ASKParallel pa = new ASKParallel(Set.of(graphA, graphB)).setDataset(dataset);
+        pa.execute(List.of(aliceNamed, ownsCat, personNamed));
+        pa.executePairs(pairs);
+        assertTrue(pa.getNegativePairs().isEmpty()); // disabled by default
+
+        pa.setPairs(true).executePairs(pairs);
+        // graphB lacks the patterns, so it is not asked; Alice owns the cat, but she is not a person
+        assertEquals(Map.of(new ImmutablePair<>(aliceNamed, ownsCat), List.of(graphA)), pa.getNegativePairs());
+    }
+
+    @Test
+    public void graphs_that_the_summary_rules_out_are_not_asked() {
+        InMemorySummaryFactory factory = new InMemorySummaryFactory();
+        Summary summary = factory.getSimplePetsSummary();
+        Dataset dataset = factory.getPetsDataset();
+
+        // the federation changed since the summary was built: graphA now has a family too
+        Dataset changed = DatasetFactory.createTxnMem();
+        changed.begin(ReadWrite.WRITE);
+        dataset.begin(ReadWrite.READ);
+        changed.getNamedModel("https://graphB.org").add(dataset.getNamedModel("https://graphB.org"));
+        dataset.end();
+        changed.getNamedModel("https://graphA.org").add(
+                ResourceFactory.createResource("http://auth/cat"),
+                ResourceFactory.createProperty("http://auth/family"),
+                ResourceFactory.createResource("http://auth/canid"));
+        changed.commit();
+        changed.end();
+
+        String graphA = "https://graphA.org";
+        String graphB = "https://graphB.org";
+        Triple triple = Triple.create(Var.alloc("s"),
+                NodeFactory.createURI("http://auth/family"),
+                NodeFactory.createURI("http://auth/canid"));
+        assertEquals(Set.of(graphB), summary.getGraphs(triple));
+
+        ASKParallel pa = new ASKParallel(Set.of(graphA, graphB)).setDataset(changed);
+        pa.execute(List.of(triple));
+        assertTrue(pa.get(graphA, triple)); // actually asked
+
+        pa = new ASKParallel(Set.of(graphA, graphB)).setDataset(changed).setSummary(summary);
+        pa.execute(List.of(triple));
+        assertFalse(pa.get(graphA, triple)); // the summary said no, so it was not asked
+        assertTrue(pa.get(graphB, triple));
+    }
+
+    @Test
+    public void batched_probes_fill_the_same_answers_as_asks() {
+        Dataset dataset = new InMemorySummaryFactory().getPetsDataset();
+        String graphA = "https://graphA.org";
+        String graphB = "https://graphB.org";
+        List<Triple> triples = List.of(
+                Triple.create(Var.alloc("s"), NodeFactory.createURI("http://auth/named"), NodeFactory.createURI("http://auth/Alice")),
+                Triple.create(Var.alloc("s"), NodeFactory.createURI("http://auth/named"), NodeFactory.createURI("http://auth/Carol")),
+                Triple.create(NodeFactory.createURI("http://auth/nobody"), NodeFactory.createURI("http://auth/owns"), Var.alloc("o")));
+
+        ASKParallel oneByOne = new ASKParallel(Set.of(graphA, graphB)).setDataset(dataset);
+        oneByOne.execute(triples);
+        ASKParallel batched = new ASKParallel(Set.of(graphA, graphB)).setDataset(dataset).setBatched(true);
+        batched.execute(triples);
+        assertEquals(oneByOne.getAsks(), batched.getAsks());
+        assertTrue(batched.get(graphA, triples.get(0)));
+        assertTrue(batched.get(graphB, triples.get(1)));
+
+        // and on a remote endpoint, in a single request
+        FusekiServer server = FusekiServer.create().port(3335)
+                .add("graphB", new InMemorySummaryFactory().getGraph(graphB)).build();
+        server.start();
+        String endpoint = "http://localhost:3335/graphB/sparql";
+        ASKBatchRunnable probe = new ASKBatchRunnable(new ConcurrentHashMap<>(), endpoint, triples, null);
+        assertEquals(Set.of(1), probe.probe());
+        server.stop();
+    }
+
+    @Test
+    public void asks_unanswered_at_the_deadline_keep_their_endpoint_as_candidate() throws IOException {
+        HttpServer hung = HttpServer.create(new InetSocketAddress(3337), 0); // never answers in time
+        hung.createContext("/sparql", exchange -> {
+            try { Thread.sleep(10_000); } catch (InterruptedException e) { /* cancelled */ }
+            exchange.close();
+        });
+        hung.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        hung.start();
+
+        String endpoint = "http://localhost:3337/sparql";
+        Triple triple = Triple.create(Var.alloc("s"), NodeFactory.createURI("http://auth/named"), NodeFactory.createURI("http://auth/Alice"));
+        ASKParallel pa = new ASKParallel(Set.of(endpoint)).setTimeout(200L);
+        long start = System.currentTimeMillis();
+        pa.execute(List.of(triple));
+        assertTrue(System.currentTimeMillis() - start < 2_000);
+        assertTrue(pa.get(endpoint, triple)); // unknown, so kept
+        assertEquals(Set.of(new ImmutablePair<>(endpoint, triple)), pa.getUnknowns());
+        hung.stop(0);
+    }
+
+    @Test
+    public void phases_of_source_selection_share_a_single_deadline() throws IOException {
+        HttpServer slow = HttpServer.create(new InetSocketAddress(3341), 0); // answers every ask, slowly
+        slow.createContext("/sparql", exchange -> {
+            try { Thread.sleep(500); } catch (InterruptedException e) { /* cancelled */ }
+            byte[] body = "{ \"head\": {}, \"boolean\": true }".getBytes();
+            exchange.getResponseHeaders().add("Content-Type", "application/sparql-results+json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        slow.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        slow.start();
+
+        String endpoint = "http://localhost:3341/sparql";
+        Op op = Algebra.compile(QueryFactory.create("""
+                SELECT * WHERE {
+                    ?x <http://auth/named> <http://auth/Alice> .
+                    ?x <http://auth/owns> <http://auth/cat> .
+                    FILTER (?x != <http://auth/Bob>)
+                }"""));
+        new ASKParallel(Set.of(endpoint)).execute(List.of(Triple.create(Var.alloc("s"), // warms up
+                NodeFactory.createURI("http://auth/named"), NodeFactory.createURI("http://auth/Bob"))));
+        ASKVisitor visitor = new ASKVisitor(Set.of(endpoint)).setPairs(true).setFilterCost(10_000).setDeadline(800L);
+        long start = System.currentTimeMillis();
+        visitor.visit(op); // asks, then pairs, then filtered asks would each take 500ms
+        assertTrue(System.currentTimeMillis() - start < 1_200);
+        assertTrue(visitor.getAsks().values().stream().allMatch(exists -> exists));
+        slow.stop(0);
+    }
+
+}
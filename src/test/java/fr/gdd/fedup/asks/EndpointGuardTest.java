@@ -0,0 +1,84 @@
+package fr.gdd.fedup.asks;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QueryException;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EndpointGuardTest {
+
+    static final String ENDPOINT = "http://localhost:3336/sparql";
+
+    @Test
+    public void concurrent_requests_to_an_endpoint_are_bounded() {
+        EndpointGuard guard = new EndpointGuard().setConcurrency(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 20; ++i) {
+                executor.submit(() -> guard.call(ENDPOINT, () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try { Thread.sleep(5); } catch (InterruptedException e) { throw new RuntimeException(e); }
+                    running.decrementAndGet();
+                    return true;
+                }));
+            }
+        }
+        assertEquals(2, maxRunning.get());
+        assertEquals(0, guard.running(ENDPOINT));
+    }
+
+    @Test
+    public void repeated_failures_open_the_circuit_until_the_cool_down_elapses() throws InterruptedException {
+        EndpointGuard guard = new EndpointGuard().setFailureThreshold(2).setCoolDown(50).setRetries(5, 1, 4);
+        AtomicInteger nbTries = new AtomicInteger();
+        assertNull(guard.call(ENDPOINT, () -> {
+            nbTries.incrementAndGet();
+            throw new QueryException("throttled");
+        }));
+        assertEquals(2, nbTries.get()); // not 5, the circuit opened meanwhile
+        assertFalse(guard.isHealthy(ENDPOINT));
+        assertNull(guard.call(ENDPOINT, () -> nbTries.incrementAndGet() > 0)); // skipped at once
+        assertEquals(2, nbTries.get());
+
+        Thread.sleep(60);
+        assertTrue(guard.isHealthy(ENDPOINT));
+        assertEquals(true, guard.call(ENDPOINT, () -> true));
+        assertTrue(guard.isHealthy("http://another/endpoint"));
+    }
+
+    @Test
+    public void backoffs_grow_exponentially_with_jitter_up_to_a_maximum() {
+        EndpointGuard guard = new EndpointGuard().setRetries(10, 100, 1000);
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(guard.backoff(1) <= 100);
+            assertTrue(guard.backoff(3) <= 400);
+            assertTrue(guard.backoff(9) <= 1000);
+        }
+    }
+
+    @Test
+    public void asks_skip_unhealthy_endpoints_without_waiting() {
+        EndpointGuard guard = new EndpointGuard().setFailureThreshold(1).setCoolDown(60_000);
+        guard.failed(ENDPOINT);
+        ASKParallel asks = new ASKParallel(Set.of(ENDPOINT)).setGuard(guard);
+        Triple triple = Triple.create(Var.alloc("s"),
+                NodeFactory.createURI("http://auth/named"),
+                NodeFactory.createURI("http://auth/Alice"));
+        long start = System.currentTimeMillis();
+        asks.execute(List.of(triple));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(asks.get(ENDPOINT, triple)); // unknown, so kept
+        assertTrue(asks.getUnknowns().contains(new ImmutablePair<>(ENDPOINT, triple)));
+    }
+
+}
@@ -0,0 +1,77 @@
+package fr.gdd.fedup.asks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EndpointMonitorTest {
+
+    static final String A = "https://graphA.org";
+    static final String B = "https://graphB.org";
+    static final String C = "https://graphC.org";
+
+    @Test
+    public void endpoints_are_down_after_consecutive_failed_probes_and_up_after_a_success () {
+        Set<String> failing = new HashSet<>(Set.of(B));
+        EndpointMonitor monitor = new EndpointMonitor()
+                .setProbe(e -> { if (failing.contains(e)) throw new RuntimeException("refused"); return true; })
+                .track(List.of(A, B));
+        assertEquals(EndpointMonitor.Status.UNKNOWN, monitor.getHealth(B).status());
+
+        monitor.probeAll();
+        assertEquals(EndpointMonitor.Status.UP, monitor.getHealth(A).status());
+        assertEquals(EndpointMonitor.Status.UNKNOWN, monitor.getHealth(B).status()); // one failure is not enough
+        assertEquals(1, monitor.getHealth(B).consecutiveFailures());
+
+        monitor.probeAll();
+        assertTrue(monitor.isDown(B));
+        assertEquals("refused", monitor.getHealth(B).error());
+        assertTrue(monitor.getHealth(B).lastCheck() > 0);
+
+        failing.clear();
+        monitor.probeAll();
+        assertFalse(monitor.isDown(B));
+        assertEquals(0, monitor.getHealth(B).consecutiveFailures());
+        assertEquals(List.of(A, B), List.copyOf(monitor.getHealthTable().keySet()));
+    }
+
+    @Test
+    public void the_policy_decides_if_endpoints_down_are_skipped () {
+        EndpointMonitor monitor = new EndpointMonitor().setDownAfter(1)
+                .setProbe(e -> !e.equals(B))
+                .track(List.of(A, B));
+        monitor.probeAll();
+        assertTrue(monitor.isDown(B));
+
+        assertEquals(Set.of(A), monitor.prioritize(Set.of(A, B), Function.identity()));
+        monitor.setPolicy(EndpointMonitor.Policy.REPORT);
+        assertEquals(Set.of(A, B), monitor.prioritize(Set.of(A, B), Function.identity()));
+    }
+
+    @Test
+    public void endpoints_are_prioritized_from_the_fastest_and_tracked_as_they_come () {
+        EndpointMonitor monitor = new EndpointMonitor().setProbe(e -> {
+            try {
+                Thread.sleep(e.startsWith(A) ? 100 : 0); // A is slow
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            return true;
+        });
+        // graphs of the summary are modified into actual endpoints
+        Function<String, String> toEndpoint = e -> e + "sparql";
+        assertEquals(Set.of(A, C), monitor.prioritize(Set.of(A, C), toEndpoint));
+        assertEquals(Set.of(A + "sparql", C + "sparql"), monitor.getHealthTable().keySet());
+
+        monitor.probeAll();
+        assertTrue(monitor.getLatency(A + "sparql") >= 100);
+        assertEquals(List.of(C, A), List.copyOf(monitor.prioritize(Set.of(A, C), toEndpoint)));
+        assertEquals(EndpointMonitor.DEFAULT_TIMEOUT, monitor.getLatency(B)); // unknown
+    }
+
+}
@@ -0,0 +1,145 @@
+package fr.gdd.fedup.asks;
+
+import com.sun.net.httpserver.HttpServer;
+import fr.gdd.fedup.summary.InMemorySummaryFactory;
+import org.apache.jena.fuseki.main.FusekiServer;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedHttpClientTest {
+
+    static Triple named(String o) {
+        return Triple.create(Var.alloc("s"), NodeFactory.createURI("http://auth/named"), NodeFactory.createURI(o));
+    }
+
+    @Test
+    public void asks_of_successive_queries_share_the_client_and_its_pools() {
+        FusekiServer server = FusekiServer.create()
+                .port(3338)
+                .add("graphA", new InMemorySummaryFactory().getGraph("https://graphA.org"))
+                .build().start();
+        String endpoint = "http://localhost:3338/graphA/sparql";
+        SharedHttpClient client = new SharedHttpClient(HttpClient.Version.HTTP_1_1,
+                SharedHttpClient.DEFAULT_CONNECT_TIMEOUT, 1);
+        try {
+            for (int i = 0; i < 2; ++i) { // two queries
+                ASKParallel asks = new ASKParallel(Set.of(endpoint)).setHttpClient(client);
+                asks.execute(List.of(named("http://auth/Alice"), named("http://auth/Carol"), named("http://auth/Bob")));
+                assertTrue(asks.get(endpoint, named("http://auth/Alice")));
+                assertFalse(asks.get(endpoint, named("http://auth/Carol")));
+            }
+        } finally {
+            server.stop();
+        }
+        SharedHttpClient.Pool pool = client.getMetrics().get("http://localhost:3338");
+        assertEquals(6, pool.getRequests());
+        assertEquals(1, pool.getPeak()); // asks ran in parallel, but the pool holds one
+        assertEquals(0, pool.getInFlight()); // every response was consumed
+        assertEquals(0, pool.getFailures());
+    }
+
+    @Test
+    public void streamed_responses_hold_their_place_in_the_pool_until_closed() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(3339), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestURI().getPath().equals("/missing") ? new byte[0] : "ok".getBytes();
+            exchange.sendResponseHeaders(body.length == 0 ? 404 : 200, body.length == 0 ? -1 : body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        SharedHttpClient client = new SharedHttpClient();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:3339/sparql")).build();
+            HttpResponse<InputStream> streamed = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            SharedHttpClient.Pool pool = client.getMetrics().get("http://localhost:3339");
+            assertEquals(1, pool.getInFlight());
+            try (InputStream body = streamed.body()) {
+                assertEquals("ok", new String(body.readAllBytes()));
+            }
+            assertEquals(0, pool.getInFlight());
+
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 5; ++i) {
+                responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+            }
+            for (CompletableFuture<HttpResponse<String>> response : responses) {
+                assertEquals("ok", response.get().body());
+            }
+            client.send(HttpRequest.newBuilder(URI.create("http://localhost:3339/missing")).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            assertEquals(7, pool.getRequests());
+            assertEquals(1, pool.getFailures());
+            assertEquals(0, pool.getInFlight());
+            assertEquals(0., pool.getUtilisation()); // unbounded
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void requests_wait_a_bounded_time_for_a_place_in_a_full_pool() throws Exception {
+        CountDownLatch hang = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress(3340), 0);
+        server.createContext("/", exchange -> {
+            try {
+                hang.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        SharedHttpClient client = new SharedHttpClient(HttpClient.Version.HTTP_1_1, Duration.ofMillis(300), 1);
+        try {
+            URI uri = URI.create("http://localhost:3340/sparql");
+            CompletableFuture<HttpResponse<Void>> holding = client.sendAsync(HttpRequest.newBuilder(uri).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            SharedHttpClient.Pool pool = client.getMetrics().get("http://localhost:3340");
+            while (pool.getInFlight() < 1) { Thread.sleep(10); } // the pool is full
+
+            HttpRequest timed = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(200)).build();
+            long start = System.currentTimeMillis();
+            assertThrows(HttpTimeoutException.class, () -> client.send(timed, HttpResponse.BodyHandlers.discarding()));
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> client.sendAsync(timed, HttpResponse.BodyHandlers.discarding()).get());
+            assertInstanceOf(HttpTimeoutException.class, e.getCause());
+            // without its own timeout, a request waits at most the connect timeout
+            assertThrows(HttpTimeoutException.class, () -> client.send(HttpRequest.newBuilder(uri).build(),
+                    HttpResponse.BodyHandlers.discarding()));
+            assertTrue(System.currentTimeMillis() - start < 5000);
+
+            hang.countDown();
+            assertEquals(200, holding.get().statusCode());
+            assertEquals(1, pool.getRequests()); // the others never got a place
+            assertEquals(0, pool.getInFlight());
+        } finally {
+            hang.countDown();
+            server.stop(0);
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package fr.gdd.fedup.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongRowHashSetTest {
+
+    @Test
+    public void rows_are_added_once_and_found_afterwards() {
+        LongRowHashSet set = new LongRowHashSet(2);
+        assertTrue(set.add(1L, 2L));
+        assertFalse(set.add(1L, 2L));
+        assertTrue(set.add(2L, 1L)); // order matters
+        assertTrue(set.add(0L, 0L)); // zeros are valid rows
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0L, 0L));
+        assertFalse(set.contains(0L, 1L));
+    }
+
+    @Test
+    public void growing_keeps_every_row_both_on_and_off_heap() {
+        for (boolean offHeap : List.of(false, true)) {
+            LongRowHashSet set = new LongRowHashSet(3, 4, offHeap);
+            Set<List<Long>> expected = new HashSet<>();
+            Random random = new Random(42);
+            for (int i = 0; i < 10_000; ++i) {
+                long a = random.nextInt(100);
+                long b = random.nextInt(100);
+                long c = random.nextLong();
+                assertEquals(expected.add(List.of(a, b, c)), set.add(a, b, c));
+            }
+            assertEquals(expected.size(), set.size());
+
+            Set<List<Long>> actual = new HashSet<>();
+            set.forEach(row -> actual.add(List.of(row[0], row[1], row[2])));
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void packed_rows_of_identifiers_are_distinct_when_identifiers_are() {
+        LongRowHashSet set = new LongRowHashSet(LongRowHashSet.packedWidth(3));
+        long[] key = new long[LongRowHashSet.packedWidth(3)];
+        assertEquals(2, key.length);
+        assertTrue(set.add(LongRowHashSet.pack(new int[]{1, 2, 3}, key)));
+        assertFalse(set.add(LongRowHashSet.pack(new int[]{1, 2, 3}, key)));
+        assertTrue(set.add(LongRowHashSet.pack(new int[]{2, 1, 3}, key)));
+        assertTrue(set.add(LongRowHashSet.pack(new int[]{1, 2, -1}, key))); // unbound
+        assertTrue(set.add(LongRowHashSet.pack(new int[]{1, 2, 0}, key)));
+        assertTrue(set.add(LongRowHashSet.pack(new int[]{-1, 2, 0}, key)));
+        assertEquals(5, set.size());
+        assertEquals(1, LongRowHashSet.packedWidth(0));
+    }
+
+}
@@ -0,0 +1,80 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.Transformer;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveModuloOnSuffixTest {
+
+    @TempDir
+    Path temp;
+
+    static final Node AUTH = NodeFactory.createURI("http://auth");
+
+    static List<Quad> quadsOf(Dataset dataset) {
+        List<Quad> quads = new ArrayList<>();
+        dataset.begin(ReadWrite.READ);
+        dataset.asDatasetGraph().find().forEachRemaining(quads::add);
+        dataset.end();
+        return quads;
+    }
+
+    static int nbGraphsFor(Summary summary, String query) {
+        Op op = Transformer.transform(summary.getStrategy(), Algebra.compile(QueryFactory.create(query)));
+        return summary.querySummary(op).size();
+    }
+
+    @Test
+    public void authorities_spread_over_graphs_or_hot_in_queries_are_refined() {
+        List<Quad> quads = quadsOf(new InMemorySummaryFactory().getPetsDataset());
+        assertEquals(Map.of(AUTH, 100), AdaptiveModuloOnSuffix.refineSpreadAuthorities(quads.iterator(), 2, 100));
+        assertTrue(AdaptiveModuloOnSuffix.refineSpreadAuthorities(quads.iterator(), 3, 100).isEmpty());
+
+        List<String> workload = List.of(
+                "SELECT * WHERE { ?s <http://auth/named> <http://auth/Alice> }",
+                "SELECT * WHERE { <http://auth/David> ?p ?o . ?o ?p2 <http://other/x> }");
+        assertEquals(Map.of(AUTH, 10), AdaptiveModuloOnSuffix.refineHotAuthorities(workload, 2, 10));
+    }
+
+    @Test
+    public void refined_authorities_prune_graphs_that_the_coarse_level_cannot() {
+        List<Quad> quads = quadsOf(new InMemorySummaryFactory().getPetsDataset());
+        Location location = Location.create(temp);
+        Summary refined = SummaryFactory.createAdaptiveModuloOnSuffix(1, Map.of(AUTH, 1000), location);
+        refined.add(quads.iterator());
+
+        Summary coarse = new InMemorySummaryFactory().getSimplePetsSummary();
+        String aliceNamed = "SELECT DISTINCT ?g WHERE { GRAPH ?g { ?s <http://auth/named> <http://auth/Alice> } }";
+        assertEquals(2, nbGraphsFor(coarse, aliceNamed));
+        assertEquals(1, nbGraphsFor(refined, aliceNamed));
+
+        // reopening the summary brings back its refinements
+        Summary reopened = SummaryFactory.createModuloOnSuffix(1, location);
+        assertInstanceOf(AdaptiveModuloOnSuffix.class, reopened.getStrategy());
+        assertEquals(Map.of(AUTH, 1000), ((AdaptiveModuloOnSuffix) reopened.getStrategy()).getRefinements());
+        assertEquals(1, nbGraphsFor(reopened, aliceNamed));
+        assertEquals(coarse.getGraphs(), reopened.getGraphs());
+
+        // so does wrapping the dataset already opened, e.g., by the server
+        Summary wrapped = SummaryFactory.createModuloOnSuffix(1, reopened.getSummary());
+        assertInstanceOf(AdaptiveModuloOnSuffix.class, wrapped.getStrategy());
+        assertEquals(1, nbGraphsFor(wrapped, aliceNamed));
+    }
+
+}
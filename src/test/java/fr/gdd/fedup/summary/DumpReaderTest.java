@@ -0,0 +1,68 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DumpReaderTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void streaming_a_gzipped_dump_produces_the_same_summary_as_reading_tdb2() throws IOException {
+        InMemorySummaryFactory imsf = new InMemorySummaryFactory();
+        Summary expected = imsf.getSimplePetsSummary();
+        Dataset pets = imsf.getPetsDataset();
+
+        Path dump = temp.resolve("pets.nq.gz");
+        pets.begin(ReadWrite.READ);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dump))) {
+            RDFDataMgr.write(out, pets.asDatasetGraph(), Lang.NQUADS);
+        }
+        pets.end();
+
+        Summary actual = SummaryFactory.createModuloOnSuffix(1);
+        try (IngestionPipeline pipeline = new IngestionPipeline(actual, 2)) {
+            assertTrue(new DumpReader(pipeline, 2, 1).read(dump, null) > 2); // several chunks
+        }
+
+        assertEquals(IngestionPipelineTest.quadsOf(expected), IngestionPipelineTest.quadsOf(actual));
+    }
+
+    @Test
+    public void triples_of_n_triples_dumps_belong_to_the_given_graph() throws IOException {
+        Path dump = temp.resolve("alice.nt");
+        Files.write(dump, List.of(
+                "<http://auth/person> <http://auth/named> <http://auth/Alice> .",
+                "<http://auth/person> <http://auth/named> <http://auth/Bob> ."));
+
+        Summary summary = SummaryFactory.createModuloOnSuffix(1);
+        try (IngestionPipeline pipeline = new IngestionPipeline(summary, 1)) {
+            DumpReader reader = new DumpReader(pipeline, 1);
+            assertThrows(IllegalArgumentException.class, () -> reader.read(dump, null));
+            reader.read(dump, NodeFactory.createURI("http://graphA"));
+        }
+
+        Quad summarized = summary.summarize(Quad.create(NodeFactory.createURI("http://graphA"),
+                NodeFactory.createURI("http://auth/person"), NodeFactory.createURI("http://auth/named"),
+                NodeFactory.createURI("http://auth/Alice")));
+        assertEquals(Set.of(summarized), IngestionPipelineTest.quadsOf(summary));
+    }
+
+}
@@ -0,0 +1,48 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GraphFiltersTest {
+
+    @TempDir
+    Path temp;
+
+    static Node uri(String suffix) { return NodeFactory.createURI("http://auth/" + suffix); }
+
+    @Test
+    public void filters_never_forget_a_constant_and_survive_a_round_trip() throws IOException {
+        GraphFilters filters = new GraphFilters(30_000); // subjects, objects, and pairs
+        for (int i = 0; i < 10_000; ++i) {
+            filters.add(Quad.create(NodeFactory.createURI("http://graphA"), uri("s" + i), uri("p" + (i % 10)), uri("o" + i)));
+        }
+        Path file = temp.resolve(GraphFilters.FILE_NAME);
+        filters.save(file);
+        GraphFilters loaded = GraphFilters.load(file);
+        assertNull(GraphFilters.load(temp.resolve("nothing")));
+
+        Var x = Var.alloc("x");
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; ++i) {
+            assertTrue(loaded.mightContain("http://graphA", Triple.create(uri("s" + i), x, x)));
+            assertTrue(loaded.mightContain("http://graphA", Triple.create(x, uri("p" + (i % 10)), uri("o" + i))));
+            if (loaded.mightContain("http://graphA", Triple.create(uri("absent" + i), x, x))) {
+                ++falsePositives;
+            }
+        }
+        assertTrue(falsePositives < 300); // ~1%
+        assertFalse(loaded.mightContain("http://graphA", Triple.create(x, uri("p1"), uri("o0")))); // o0 is p0's
+        assertTrue(loaded.mightContain("http://graphUnknown", Triple.create(uri("absent"), x, x)));
+    }
+
+}
@@ -0,0 +1,53 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IngestionPipelineTest {
+
+    static Set<Quad> quadsOf(Summary summary) {
+        Set<Quad> quads = new HashSet<>();
+        summary.getSummary().begin(ReadWrite.READ);
+        summary.getSummary().asDatasetGraph().findNG(Node.ANY, Node.ANY, Node.ANY, Node.ANY).forEachRemaining(quads::add);
+        summary.getSummary().end();
+        return quads;
+    }
+
+    @Test
+    public void parallel_ingestion_produces_the_same_summary_as_sequential_ingestion() {
+        InMemorySummaryFactory imsf = new InMemorySummaryFactory();
+        Summary expected = imsf.getSimplePetsSummary();
+        Dataset pets = imsf.getPetsDataset();
+
+        pets.begin(ReadWrite.READ);
+        List<Node> graphs = new ArrayList<>();
+        pets.asDatasetGraph().listGraphNodes().forEachRemaining(graphs::add);
+        pets.end();
+
+        Summary actual = SummaryFactory.createModuloOnSuffix(1);
+        try (IngestionPipeline pipeline = new IngestionPipeline(actual, 2, 2, 1)) { // tiny batches and queue
+            for (Node graph : graphs) {
+                pipeline.submit(() -> {
+                    pets.begin(ReadWrite.READ);
+                    List<Quad> quads = new ArrayList<>();
+                    pets.asDatasetGraph().find(graph, Node.ANY, Node.ANY, Node.ANY).forEachRemaining(quads::add);
+                    pets.end();
+                    return quads.iterator();
+                });
+            }
+        }
+
+        assertEquals(quadsOf(expected), quadsOf(actual));
+    }
+
+}
@@ -0,0 +1,121 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.FedUP;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedSummaryTest {
+
+    @TempDir
+    Path temp;
+
+    Path export(Summary summary) throws IOException {
+        Path file = temp.resolve("summary.fsu");
+        summary.getSummary().begin(ReadWrite.READ);
+        MappedSummary.write(summary.getSummary().asDatasetGraph(), file);
+        summary.getSummary().end();
+        return file;
+    }
+
+    @Test
+    public void the_mapped_file_contains_the_same_quads_as_the_tdb2_summary() throws IOException {
+        Summary summary = new InMemorySummaryFactory().getSimplePetsSummary();
+        Path file = export(summary);
+
+        summary.getSummary().begin(ReadWrite.READ);
+        Set<Quad> expected = new HashSet<>();
+        summary.getSummary().asDatasetGraph().findNG(Node.ANY, Node.ANY, Node.ANY, Node.ANY).forEachRemaining(expected::add);
+        summary.getSummary().end();
+
+        MappedSummary mapped = MappedSummary.open(file);
+        Set<Quad> actual = new HashSet<>();
+        mapped.asDatasetGraph().findNG(Node.ANY, Node.ANY, Node.ANY, Node.ANY).forEachRemaining(actual::add);
+
+        assertEquals(expected.size(), mapped.getNbQuads());
+        assertEquals(expected, actual);
+        assertEquals(-1, mapped.id(NodeFactory.createURI("http://does/not/exist")));
+    }
+
+    @Test
+    public void source_selection_queries_return_the_same_results_on_both_summaries() throws IOException {
+        Summary summary = new InMemorySummaryFactory().getSimplePetsSummary();
+        Summary mapped = SummaryFactory.createModuloOnSuffix(1, export(summary));
+
+        assertEquals(summary.getGraphs(), mapped.getGraphs());
+
+        Op query = Algebra.compile(QueryFactory.create("""
+                SELECT DISTINCT ?g WHERE { GRAPH ?g {
+                    ?s <http://auth/owns> ?o .
+                    ?o <http://auth/family> ?f }}"""));
+        assertEquals(new HashSet<>(summary.querySummary(query)), new HashSet<>(mapped.querySummary(query)));
+        assertEquals(1, mapped.querySummary(query).size());
+    }
+
+    @Test
+    public void fedup_builds_the_same_plan_over_a_mapped_summary() throws IOException {
+        InMemorySummaryFactory imsf = new InMemorySummaryFactory();
+        Summary summary = imsf.getSimplePetsSummary();
+        Summary mapped = SummaryFactory.createModuloOnSuffix(1, export(summary));
+
+        String query = """
+                SELECT * WHERE {
+                    ?s <http://auth/named> ?o .
+                    ?s <http://auth/named> <http://auth/Alice>
+                }""";
+        String expected = new FedUP(summary, imsf.getPetsDataset()).query(query);
+        String actual = new FedUP(mapped, imsf.getPetsDataset()).query(query);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void merging_partial_summaries_of_each_graph_gives_the_whole_summary() throws IOException {
+        InMemorySummaryFactory imsf = new InMemorySummaryFactory();
+        Summary summary = imsf.getSimplePetsSummary();
+        Dataset pets = imsf.getPetsDataset();
+
+        List<Path> partials = new ArrayList<>();
+        pets.begin(ReadWrite.READ);
+        List<Node> graphs = new ArrayList<>();
+        pets.asDatasetGraph().listGraphNodes().forEachRemaining(graphs::add);
+        for (Node graph : graphs) {
+            Path partial = temp.resolve("partial" + partials.size() + ".fsu");
+            summary.writePartial(pets.asDatasetGraph().find(graph, Node.ANY, Node.ANY, Node.ANY), partial);
+            partials.add(partial);
+        }
+        pets.end();
+        partials.add(partials.getFirst()); // overlapping parts are unioned
+
+        Summary merged = SummaryFactory.merge(1, temp.resolve("merged.fsu"), partials);
+        assertEquals(IngestionPipelineTest.quadsOf(summary), IngestionPipelineTest.quadsOf(merged));
+        assertEquals(summary.getGraphs(), merged.getGraphs());
+    }
+
+    @Test
+    public void a_summary_can_absorb_another_one() throws IOException {
+        Summary summary = new InMemorySummaryFactory().getSimplePetsSummary();
+        Summary mapped = SummaryFactory.createModuloOnSuffix(1, export(summary));
+
+        Summary merged = SummaryFactory.createModuloOnSuffix(1);
+        merged.merge(mapped);
+        merged.merge(summary);
+        assertEquals(IngestionPipelineTest.quadsOf(summary), IngestionPipelineTest.quadsOf(merged));
+    }
+
+}
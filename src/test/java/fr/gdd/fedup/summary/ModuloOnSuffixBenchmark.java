@@ -0,0 +1,65 @@
+package fr.gdd.fedup.summary;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the summarization of URIs by parsing them with `java.net.URI`
+ * against the allocation-free scan with its cache of authorities. Run with
+ * `mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=fr.gdd.fedup.summary.ModuloOnSuffixBenchmark`, and add
+ * `-prof gc` to the options to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModuloOnSuffixBenchmark {
+
+    @Param({"1", "20"})
+    int modulo;
+
+    ModuloOnSuffix strategy;
+    Node[] nodes;
+
+    @Setup
+    public void setup() {
+        strategy = new ModuloOnSuffix(modulo);
+        Random random = new Random(42);
+        nodes = new Node[1024];
+        for (int i = 0; i < nodes.length; ++i) { // a few authorities, many suffixes, as in FedShop
+            nodes[i] = NodeFactory.createURI("http://www.vendor" + random.nextInt(20) + ".fr/Product" + random.nextInt(100_000));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public void with_uri(Blackhole blackhole) {
+        for (Node node : nodes) {
+            blackhole.consume(strategy.transformWithURI(node));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public void with_fast_path(Blackhole blackhole) {
+        for (Node node : nodes) {
+            blackhole.consume(strategy.transform(node));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ModuloOnSuffixBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -1,5 +1,7 @@
 package fr.gdd.fedup.summary;
 
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.sparql.algebra.Algebra;
@@ -7,6 +9,13 @@ import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.algebra.Transformer;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 class ModuloOnSuffixStrategyTest {
 
     @Test
@@ -28,4 +37,49 @@ class ModuloOnSuffixStrategyTest {
 
         System.out.println(transformedQueryOp.toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void fast_path_gives_the_same_nodes_as_parsing_uris() {
+        List<String> uris = new ArrayList<>(List.of(
+                "http://www.vendor1.fr/Product42", "https://dbpedia.org/resource/Barack_Obama",
+                "http://example.org:8080/a?b=c#d", "HTTP://Example.ORG", "http://localhost/",
+                "urn:isbn:096139210x", "mailto:alice@example.org", "urn:#x", "http:", "http:/path",
+                "http:///path", "http://user@host/", "http://127.0.0.1/x", "http://a.1b/", "http://123/",
+                "http://a.b./", "http://-a.b/", "http://a-.b/", "http://host:/", "http://host:99999999999/",
+                "http://host/a b", "http://host/%2", "http://host/%zz", "http://host/a#b#c", "http://host/[x]",
+                "http://hôte.fr/", "http://host/é", "relative/path", "", "1http://host/",
+                "http://example.org/atlrsov")); // hash code of Integer.MIN_VALUE
+        Random random = new Random(42);
+        String[] schemes = {"http", "https", "urn", "HTTP", "s+x.y-z", "1a", ""};
+        String[] separators = {"://", ":", ":/", "", ":#"};
+        String alphabet = "abcXYZ019-.:@[]%_/?#~!*'() é{}|";
+        for (int i = 0; i < 20_000; ++i) {
+            StringBuilder uri = new StringBuilder()
+                    .append(schemes[random.nextInt(schemes.length)])
+                    .append(separators[random.nextInt(separators.length)]);
+            int nbChars = random.nextInt(20);
+            for (int j = 0; j < nbChars; ++j) {
+                uri.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            uris.add(uri.toString());
+        }
+
+        for (int modulo : List.of(1, 7)) {
+            ModuloOnSuffix strategy = new ModuloOnSuffix(modulo);
+            int nbFast = 0;
+            for (String uri : uris) {
+                Node node = NodeFactory.createURI(uri);
+                Node fast = strategy.transformFast(uri);
+                if (Objects.nonNull(fast)) {
+                    ++nbFast;
+                    assertEquals(strategy.transformWithURI(node), fast, uri);
+                }
+                assertEquals(strategy.transformWithURI(node), strategy.transform(node), uri);
+                assertEquals(strategy.transform(node), strategy.transform(node), uri); // cached
+            }
+            assertTrue(nbFast > 0);
+            assertNotNull(strategy.transformFast("http://www.vendor1.fr/Product42"));
+            assertNotNull(strategy.transformFast("urn:isbn:096139210x"));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.transforms.ToSourceSelectionTransforms;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpVisitorBase;
+import org.apache.jena.sparql.algebra.OpWalker;
+import org.apache.jena.sparql.algebra.TransformCopy;
+import org.apache.jena.sparql.algebra.op.OpQuad;
+import org.apache.jena.sparql.algebra.op.OpQuadPattern;
+import org.apache.jena.sparql.algebra.op.OpSequence;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceSelectionEvaluatorTest {
+
+    static Dataset dataset;
+    static Summary summary;
+    static Set<String> endpoints = Set.of("https://graphA.org", "https://graphB.org");
+
+    static final List<String> QUERIES = List.of(
+            "SELECT * WHERE { ?s <http://auth/named> ?o }",
+            "SELECT * WHERE { <http://auth/person> <http://auth/named> ?p . ?p <http://auth/owns> ?a }",
+            "SELECT * WHERE { ?s ?p ?o . ?o ?p2 ?o2 }",
+            "SELECT * WHERE { ?s <http://auth/named> ?p OPTIONAL { ?p <http://auth/owns> ?a OPTIONAL { ?p <http://auth/nbPets> ?nb } } }",
+            "SELECT * WHERE { { <http://auth/person> <http://auth/named> ?p } UNION { ?any <http://auth/owns> ?a } }",
+            "SELECT * WHERE { { ?x <http://auth/owns> ?a } { ?a <http://auth/family> ?f } }",
+            "SELECT * WHERE { { ?x <http://auth/owns> ?a } OPTIONAL { { ?a <http://auth/family> ?f } UNION { ?x <http://auth/nbPets> ?n } } }",
+            "SELECT * WHERE { ?p <http://auth/owns> ?a FILTER (?a = <http://auth/dog>) }",
+            "SELECT * WHERE { ?s <http://does/not/exist> ?o . ?s <http://auth/named> <http://auth/Alice> }");
+
+    @BeforeAll
+    public static void initialize_dataset() {
+        InMemorySummaryFactory imsf = new InMemorySummaryFactory();
+        summary = imsf.getSimplePetsSummary();
+        dataset = imsf.getPetsDataset();
+    }
+
+    static Op toSourceSelection(Summary summary, String query) {
+        return toSourceSelection(summary, dataset, endpoints, query);
+    }
+
+    static Op toSourceSelection(Summary summary, Dataset dataset, Set<String> endpoints, String query) {
+        return new ToSourceSelectionTransforms(summary.getStrategy(), true, endpoints)
+                .setDataset(dataset)
+                .transform(Algebra.compile(QueryFactory.create(query)));
+    }
+
+    static Set<Map<Var, String>> withGenericEngine(Summary summary, Op ssQuery) {
+        Set<Map<Var, String>> results = new HashSet<>();
+        for (Binding binding : summary.querySummary(ssQuery)) {
+            Map<Var, String> asMap = new HashMap<>();
+            binding.vars().forEachRemaining(v -> asMap.put(v, binding.get(v).getURI()));
+            results.add(asMap);
+        }
+        return results;
+    }
+
+    static Set<Map<Var, String>> withEvaluator(Summary summary, Op ssQuery) {
+        SourceSelectionEvaluator.Assignments assignments = summary.selectSources(ssQuery);
+        assertNotNull(assignments);
+        Set<Map<Var, String>> results = new HashSet<>();
+        for (int[] row : assignments.getRows()) {
+            Map<Var, String> asMap = new HashMap<>();
+            for (int i = 0; i < row.length; ++i) {
+                if (row[i] != SourceSelectionEvaluator.UNBOUND) {
+                    asMap.put(assignments.getVars().get(i), assignments.getNode(row[i]).getURI());
+                }
+            }
+            results.add(asMap);
+        }
+        assertEquals(results.size(), assignments.size()); // already distinct
+        return results;
+    }
+
+    @Test
+    public void same_assignments_as_the_generic_engine_on_the_summary() {
+        for (String query : QUERIES) {
+            Op ssQuery = toSourceSelection(summary, query);
+            assertEquals(withGenericEngine(summary, ssQuery), withEvaluator(summary, ssQuery), query);
+        }
+    }
+
+    @Test
+    public void same_assignments_as_the_generic_engine_on_the_whole_data() {
+        Summary identity = new Summary(new TransformCopy(), dataset); // filters are kept as is
+        for (String query : QUERIES) {
+            Op ssQuery = toSourceSelection(identity, query);
+            assertEquals(withGenericEngine(identity, ssQuery), withEvaluator(identity, ssQuery), query);
+        }
+    }
+
+    @Test
+    public void unsupported_operators_fall_back_to_the_generic_engine() {
+        Op withGraphClause = Algebra.compile(QueryFactory.create("SELECT DISTINCT ?g WHERE { GRAPH ?g { ?s ?p ?o } }"));
+        assertNull(summary.selectSources(withGraphClause));
+        assertEquals(2, summary.querySummary(withGraphClause).size());
+        assertNull(summary.selectSources(Algebra.compile(QueryFactory.create("SELECT * WHERE { ?s ?p ?o }"))));
+    }
+
+    @Test
+    public void cyclic_queries_get_the_same_assignments_with_worst_case_optimal_joins() {
+        // random friendships in 3 graphs, spread over a few authorities
+        Random random = new Random(42);
+        Dataset data = DatasetFactory.createTxnMem();
+        Summary summary = SummaryFactory.createModuloOnSuffix(3);
+        List<Quad> quads = new ArrayList<>();
+        for (int i = 0; i < 120; ++i) {
+            quads.add(Quad.create(NodeFactory.createURI("https://graph" + random.nextInt(3) + ".org"),
+                    NodeFactory.createURI("http://auth" + random.nextInt(3) + ".org/" + random.nextInt(40)),
+                    NodeFactory.createURI("http://auth/knows"),
+                    NodeFactory.createURI("http://auth" + random.nextInt(3) + ".org/" + random.nextInt(40))));
+        }
+        data.executeWrite(() -> quads.forEach(data.asDatasetGraph()::add));
+        summary.add(quads.iterator());
+        Set<String> graphs = Set.of("https://graph0.org", "https://graph1.org", "https://graph2.org");
+
+        String triangle = "SELECT * WHERE { ?a <http://auth/knows> ?b . ?b <http://auth/knows> ?c . ?c <http://auth/knows> ?a }";
+        String square = "SELECT * WHERE { ?a <http://auth/knows> ?b . ?b <http://auth/knows> ?c . ?c <http://auth/knows> ?d . ?d <http://auth/knows> ?a }";
+        String chain = "SELECT * WHERE { ?a <http://auth/knows> ?b . ?b <http://auth/knows> ?c . ?c <http://auth/knows> <http://auth1.org/1> }";
+        for (String query : List.of(triangle, square, chain)) {
+            Op ssQuery = data.calculateRead(() -> toSourceSelection(summary, data, graphs, query));
+            Set<Map<Var, String>> expected = query.equals(square) ? // seconds on the generic engine
+                    withStrategy(summary, ssQuery, SourceSelectionEvaluator.JoinStrategy.NESTED_LOOPS) :
+                    withGenericEngine(summary, ssQuery);
+            assertFalse(expected.isEmpty());
+            for (SourceSelectionEvaluator.JoinStrategy strategy : SourceSelectionEvaluator.JoinStrategy.values()) {
+                assertEquals(expected, withStrategy(summary, ssQuery, strategy), strategy + " " + query);
+            }
+        }
+    }
+
+    static Set<Map<Var, String>> withStrategy(Summary summary, Op ssQuery, SourceSelectionEvaluator.JoinStrategy strategy) {
+        SourceSelectionEvaluator.Assignments assignments = new SourceSelectionEvaluator(summary.getIndex())
+                .setJoinStrategy(strategy).evaluate(ssQuery);
+        Set<Map<Var, String>> results = new HashSet<>();
+        for (int[] row : assignments.getRows()) {
+            Map<Var, String> asMap = new HashMap<>();
+            for (int i = 0; i < row.length; ++i) {
+                asMap.put(assignments.getVars().get(i), assignments.getNode(row[i]).getURI());
+            }
+            results.add(asMap);
+        }
+        return results;
+    }
+
+    @Test
+    public void cycles_are_detected_on_variables_shared_by_quad_patterns() {
+        SourceSelectionEvaluator evaluator = new SourceSelectionEvaluator(summary.getIndex());
+        Op triangle = Algebra.toQuadForm(Algebra.compile(QueryFactory.create(
+                "SELECT * WHERE { GRAPH ?g1 { ?a <http://auth/owns> ?b } GRAPH ?g2 { ?b <http://auth/owns> ?c } GRAPH ?g3 { ?c <http://auth/owns> ?a } }")));
+        Op star = Algebra.toQuadForm(Algebra.compile(QueryFactory.create(
+                "SELECT * WHERE { GRAPH ?g1 { ?a <http://auth/owns> ?b } GRAPH ?g2 { ?a <http://auth/named> ?c } GRAPH ?g3 { ?b <http://auth/family> ?d } }")));
+        assertTrue(GenericJoin.create(evaluator, asSequence(triangle).getElements()).isCyclic());
+        assertFalse(GenericJoin.create(evaluator, asSequence(star).getElements()).isCyclic());
+    }
+
+    static OpSequence asSequence(Op quadForm) {
+        OpSequence sequence = OpSequence.create();
+        OpVisitorBase collector = new OpVisitorBase() {
+            @Override
+            public void visit(OpQuadPattern quadPattern) {
+                quadPattern.getPattern().getList().forEach(q -> sequence.add(new OpQuad(q)));
+            }
+        };
+        OpWalker.walk(quadForm, collector);
+        return sequence;
+    }
+
+    @Test
+    public void permutations_of_partitions_are_sorted_by_their_three_columns() {
+        Random random = new Random(42);
+        List<int[]> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            rows.add(new int[]{random.nextInt(20), random.nextInt(20), random.nextInt(5)});
+        }
+        SummaryIndex.Partition partition = new SummaryIndex.Partition(rows);
+        int[] order = {SummaryIndex.Partition.GRAPH, SummaryIndex.Partition.OBJECT, SummaryIndex.Partition.SUBJECT};
+        int[] sorted = partition.sortedBy(order);
+        assertEquals(partition.size(), Arrays.stream(sorted).distinct().count()); // a permutation
+        for (int i = 1; i < sorted.length; ++i) {
+            int previous = sorted[i - 1], current = sorted[i];
+            int[] before = {partition.graphs[previous], partition.objects[previous], partition.subjects[previous]};
+            int[] after = {partition.graphs[current], partition.objects[current], partition.subjects[current]};
+            assertTrue(Arrays.compare(before, after) <= 0);
+        }
+        for (int i = 1; i < partition.byObject.length; ++i) {
+            assertTrue(partition.objects[partition.byObject[i - 1]] <= partition.objects[partition.byObject[i]]);
+        }
+    }
+
+}
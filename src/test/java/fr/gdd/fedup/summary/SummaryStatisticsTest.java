@@ -0,0 +1,104 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.collections.HyperLogLog;
+import fr.gdd.fedup.collections.LongRowHashSet;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SummaryStatisticsTest {
+
+    static final Node GRAPH_A = NodeFactory.createURI("https://graphA.org");
+    static final Node NAMED = NodeFactory.createURI("http://auth/named");
+
+    static Summary summarizeWithStatistics(Dataset dataset) {
+        dataset.begin(ReadWrite.READ);
+        List<Quad> quads = new ArrayList<>();
+        dataset.asDatasetGraph().find().forEachRemaining(quads::add);
+        dataset.end();
+
+        Summary summary = SummaryFactory.createModuloOnSuffix(1);
+        try (IngestionPipeline pipeline = new IngestionPipeline(summary, 2).setStatistics(true)) {
+            pipeline.submit(() -> quads.subList(0, 4).iterator()); // statistics of both tasks are merged
+            pipeline.submit(() -> quads.subList(4, quads.size()).iterator());
+        }
+        return summary;
+    }
+
+    @Test
+    public void cardinalities_are_stored_for_summarized_quads_and_graphs() {
+        Summary summary = summarizeWithStatistics(new InMemorySummaryFactory().getPetsDataset());
+
+        // <person> <named> <Alice>, <person> <named> <Bob>, <Alice> <owns> <cat>
+        assertEquals(new SummaryStatistics.Cardinality(3, 2, 3), summary.getCardinality(GRAPH_A));
+
+        Quad named = summary.summarize(Quad.create(GRAPH_A, NodeFactory.createURI("http://auth/person"),
+                NAMED, NodeFactory.createURI("http://auth/Alice")));
+        assertEquals(new SummaryStatistics.Cardinality(2, 1, 2), summary.getCardinality(named));
+        assertEquals(2L, summary.getCount(named)); // also usable as reference counts
+    }
+
+    @Test
+    public void result_sizes_of_triple_patterns_are_estimated_per_endpoint() {
+        Summary summary = summarizeWithStatistics(new InMemorySummaryFactory().getPetsDataset());
+
+        Var s = Var.alloc("s");
+        Var o = Var.alloc("o");
+        assertEquals(2., summary.estimate(Triple.create(s, NAMED, o), GRAPH_A));
+        assertEquals(1., summary.estimate(Triple.create(s, NAMED, NodeFactory.createURI("http://auth/Alice")), GRAPH_A));
+        assertEquals(3., summary.estimate(Triple.create(s, Var.alloc("p"), o), GRAPH_A));
+        assertEquals(0., summary.estimate(Triple.create(s, NodeFactory.createURI("http://auth/family"), o), GRAPH_A));
+
+        Summary withoutStatistics = new InMemorySummaryFactory().getSimplePetsSummary();
+        assertNull(withoutStatistics.estimate(Triple.create(s, NAMED, o), GRAPH_A));
+        assertNull(withoutStatistics.getCardinality(GRAPH_A));
+    }
+
+    @Test
+    public void sketches_estimate_distinct_values_closely() {
+        HyperLogLog left = new HyperLogLog(SummaryStatistics.GRAPH_PRECISION);
+        HyperLogLog right = new HyperLogLog(SummaryStatistics.GRAPH_PRECISION);
+        for (long i = 0; i < 100_000; ++i) {
+            left.add(LongRowHashSet.mix(i));
+            right.add(LongRowHashSet.mix(i + 50_000)); // half overlaps
+        }
+        assertEquals(100_000., left.estimate(), 3_000.);
+        left.merge(right);
+        assertEquals(150_000., left.estimate(), 4_500.);
+
+        HyperLogLog small = new HyperLogLog(SummaryStatistics.QUAD_PRECISION);
+        for (long i = 0; i < 10; ++i) {
+            small.add(LongRowHashSet.mix(i));
+            small.add(LongRowHashSet.mix(i)); // duplicates do not count
+        }
+        assertEquals(10., small.estimate(), 1.);
+    }
+
+    @Test
+    public void nodes_with_the_same_hash_code_are_still_distinct_values() {
+        Node aa = NodeFactory.createURI("http://auth/Aa");
+        Node bb = NodeFactory.createURI("http://auth/BB");
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(SummaryStatistics.hash(aa), SummaryStatistics.hash(bb));
+        assertNotEquals(SummaryStatistics.hash(aa), SummaryStatistics.hash(NodeFactory.createLiteralString("http://auth/Aa")));
+
+        HyperLogLog sketch = new HyperLogLog(SummaryStatistics.GRAPH_PRECISION);
+        for (int i = 0; i < 100_000; ++i) { // distinct values that all share one hash code
+            StringBuilder suffix = new StringBuilder();
+            for (int bit = 0; bit < 17; ++bit) { suffix.append((i >> bit & 1) == 0 ? "Aa" : "BB"); }
+            sketch.add(SummaryStatistics.hash(NodeFactory.createURI("http://auth/" + suffix)));
+        }
+        assertEquals(100_000., sketch.estimate(), 3_000.);
+    }
+
+}
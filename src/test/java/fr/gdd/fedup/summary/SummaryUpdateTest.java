@@ -0,0 +1,98 @@
+package fr.gdd.fedup.summary;
+
+import fr.gdd.fedup.FedUP;
+import org.apache.jena.dboe.base.file.Location;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.sys.TDBInternal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SummaryUpdateTest {
+
+    static Quad quad(String g, String s, String p, String o) {
+        return Quad.create(NodeFactory.createURI(g), NodeFactory.createURI(s),
+                NodeFactory.createURI(p), NodeFactory.createURI(o));
+    }
+
+    static final Quad ALICE = quad("http://graphA", "http://auth/Alice", "http://auth/owns", "http://auth/nemo");
+    static final Quad BOB = quad("http://graphA", "http://auth/Bob", "http://auth/owns", "http://auth/nemo");
+    static final Quad CAROL = quad("http://graphA", "http://auth/Carol", "http://auth/owns", "http://auth/nemo");
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void a_summarized_quad_disappears_with_its_last_source_quad() {
+        Summary summary = SummaryFactory.createModuloOnSuffix(1);
+        summary.update(List.of(ALICE, BOB).iterator(), Collections.emptyIterator());
+
+        Quad summarized = summary.summarize(ALICE);
+        assertEquals(summarized, summary.summarize(BOB));
+        assertEquals(Set.of(summarized), IngestionPipelineTest.quadsOf(summary));
+        assertEquals(2L, summary.getCount(summarized));
+
+        summary.update(Collections.emptyIterator(), List.of(ALICE).iterator());
+        assertEquals(Set.of(summarized), IngestionPipelineTest.quadsOf(summary));
+        assertEquals(1L, summary.getCount(summarized));
+
+        summary.update(Collections.emptyIterator(), List.of(BOB).iterator());
+        assertTrue(IngestionPipelineTest.quadsOf(summary).isEmpty());
+        assertNull(summary.getCount(summarized));
+        assertTrue(summary.getGraphs().isEmpty());
+    }
+
+    @Test
+    public void insertions_and_deletions_of_the_same_update_cancel_each_other() {
+        Summary summary = SummaryFactory.createModuloOnSuffix(1);
+        summary.update(List.of(ALICE).iterator(), List.of(BOB).iterator());
+        assertTrue(IngestionPipelineTest.quadsOf(summary).isEmpty());
+    }
+
+    @Test
+    public void quads_summarized_without_counts_are_never_removed() {
+        Summary summary = SummaryFactory.createModuloOnSuffix(1);
+        summary.add(ALICE);
+        Quad summarized = summary.summarize(ALICE);
+        assertNull(summary.getCount(summarized));
+
+        summary.update(Collections.emptyIterator(), List.of(ALICE).iterator());
+        assertEquals(Set.of(summarized), IngestionPipelineTest.quadsOf(summary));
+    }
+
+    @Test
+    public void quads_inserted_by_updates_are_added_to_the_filters_so_they_are_still_asked() throws IOException {
+        GraphFilters filters = new GraphFilters(1000);
+        filters.add(ALICE);
+        filters.save(temp.resolve(GraphFilters.FILE_NAME));
+        Summary summary = SummaryFactory.createModuloOnSuffix(1, Location.create(temp));
+        summary.update(List.of(ALICE).iterator(), Collections.emptyIterator());
+
+        Dataset federation = DatasetFactory.createTxnMem(); // to perform ASKs on it
+        Txn.executeWrite(federation, () -> federation.asDatasetGraph().add(ALICE));
+        String query = "SELECT * WHERE { <http://auth/Carol> ?p ?o }";
+        assertFalse(new FedUP(summary, federation).query(query, Set.of("http://graphA")).contains("http://graphA"));
+
+        Txn.executeWrite(federation, () -> federation.asDatasetGraph().add(CAROL));
+        summary.update(List.of(CAROL).iterator(), Collections.emptyIterator());
+        assertTrue(new FedUP(summary, federation).query(query, Set.of("http://graphA")).contains("http://graphA"));
+
+        Triple carol = Triple.create(CAROL.getSubject(), Var.alloc("p"), Var.alloc("o"));
+        assertTrue(GraphFilters.load(temp.resolve(GraphFilters.FILE_NAME)).mightContain("http://graphA", carol));
+        TDBInternal.expel(summary.getSummary().asDatasetGraph());
+    }
+
+}